@@ -10,10 +10,7 @@
  *******************************************************************************/
 package org.eclipse.texlipse;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
@@ -37,6 +34,15 @@ public class PathUtils {
 	 */
 	private PathUtils() {}
 
+	// the environment variables of the Eclipse process
+	private static Properties processEnv;
+
+	// preference name -> environment merged with the variables of the preference
+	private static final Map<String, Properties> envCache = new HashMap<String, Properties>();
+
+	// preference name -> the preference value the cached environment was merged from
+	private static final Map<String, String> envCacheSource = new HashMap<String, String>();
+
     /**
      * Merge the given environment variables to the additional environment variables
      * that are defined in the preferences. The variables defined in the preferences
@@ -284,71 +290,48 @@ public class PathUtils {
     }
 
     /**
-	 * Read the operating system environment variables.
+	 * Read the operating system environment variables. The variables are
+	 * read once, as they don't change while Eclipse is running.
 	 * 
-	 * @see http://www.rgagnon.com/javadetails/java-0150.html
-	 * @return operating system environment variables and their values in a properties object
-	 *         or empty properties object if an error occurs
+	 * @return operating system environment variables and their values in a properties object,
+	 *         which the caller may modify
 	 */
-	public static Properties getEnv() {
-	    
-	    Properties envVars = new Properties();
-	    try {
-	        
-	        String os = System.getProperty("os.name").toLowerCase();
-	        Process p = null;
-	        Runtime r = Runtime.getRuntime();
-	        
-	        if (os.indexOf("windows 9") > -1) {
-	            p = r.exec("command.com /c set");
-	            PathUtils.loadEscaping(envVars, p.getInputStream());
-	        } else if ((os.indexOf("windows") > -1)) {
-	            p = r.exec("cmd.exe /c set");
-	            PathUtils.loadEscaping(envVars, p.getInputStream());
-	        } else {
-	            p = r.exec("env");
-	            envVars.load(p.getInputStream());
-	        }
-	        
-	        p.waitFor();
-	        
-	    } catch(Exception e) {
+	public static synchronized Properties getEnv() {
+	    if (processEnv == null) {
+	        processEnv = new Properties();
+	        processEnv.putAll(System.getenv());
 	    }
-	    
+	    Properties envVars = new Properties();
+	    envVars.putAll(processEnv);
 	    return envVars;
 	}
 
 	/**
-	 * Loads the given properties from the given input stream.
-	 * @param prop properties object
-	 * @param stream the stream
-	 * @throws IOException if a read error occurs
+	 * Read the operating system environment variables merged with the
+	 * additional environment variables defined in the preferences, as
+	 * in {@link #mergeEnvFromPrefs(Properties, String)}. The merged
+	 * variables are cached until the value of the preference changes.
+	 * 
+	 * @param prefName preference name where to read additional environment variable map
+	 * @return the environment variables in a properties object, which the caller may modify
 	 */
-	private static void loadEscaping(Properties prop, InputStream stream) throws IOException {
-	    
-	    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-	    while (true) {
-	        int b = stream.read();
-	        if (b == -1) {
-	            break;
-	        } else if (b == '\\') {
-	            // write extra backslash to escape them
-	            //bos.write('\\');
-	        }
-	        
-	        bos.write(b);
-	    }
-	    
-	    StringTokenizer st = new StringTokenizer(bos.toString(), "\r\n");
-	    while (st.hasMoreTokens()) {
-	        String token = st.nextToken();
-	        int index = token.indexOf('=');
-	        if (index > 0) {
-	            String key = token.substring(0, index);
-	            String value = token.substring(index+1);
-	            prop.setProperty(key, value);
+	public static synchronized Properties getEnv(String prefName) {
+	    // compare the preference value instead of listening to changes, so
+	    // that listeners reading the environment on a change get the new one
+	    String prefValue = TexlipsePlugin.getPreference(prefName);
+	    Properties merged = envCache.get(prefName);
+	    if (merged == null || !String.valueOf(prefValue).equals(envCacheSource.get(prefName))) {
+	        merged = getEnv();
+	        Map<String, String> prefsMap = getPreferenceMap(prefName);
+	        for (Map.Entry<String, String> e : prefsMap.entrySet()) {
+	            merged.setProperty(e.getKey(), replaceVar(merged, e.getValue()));
 	        }
+	        envCache.put(prefName, merged);
+	        envCacheSource.put(prefName, String.valueOf(prefValue));
 	    }
+	    Properties envVars = new Properties();
+	    envVars.putAll(merged);
+	    return envVars;
 	}
 
 	/**
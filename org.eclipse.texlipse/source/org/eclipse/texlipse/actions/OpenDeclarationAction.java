@@ -32,6 +32,7 @@ import org.eclipse.texlipse.bibeditor.BibEditor;
 import org.eclipse.texlipse.builder.KpsewhichRunner;
 import org.eclipse.texlipse.editor.TexEditor;
 import org.eclipse.texlipse.model.AbstractEntry;
+import org.eclipse.texlipse.model.ReferenceEntry;
 import org.eclipse.texlipse.model.TexCommandEntry;
 import org.eclipse.texlipse.properties.TexlipseProperties;
 import org.eclipse.texlipse.texparser.LatexParserUtils;
@@ -210,18 +211,24 @@ public class OpenDeclarationAction implements IEditorActionDelegate {
             }
         }
         
-        if (refEntry == null || refEntry.fileName == null) {
+        String fileName = refEntry != null ? refEntry.fileName : null;
+        if (fileName == null && refEntry instanceof ReferenceEntry) {
+            //Entries of shared BibTeX files don't know their file
+            fileName = editor.getDocumentModel().getRefMana().getBibContainer()
+                    .getSourceKey((ReferenceEntry) refEntry);
+        }
+        if (fileName == null) {
             createStatusLineErrorMessage(TexlipsePlugin.getResourceString("gotoDeclarationNoDeclarationFound"));
             return;
         }
 
-        IFile file = project.getFile(refEntry.fileName);
+        IFile file = project.getFile(fileName);
         try {
         	AbstractTextEditor part;
             if (!file.exists()) {
             	//Try kpathsea
             	KpsewhichRunner filesearch = new KpsewhichRunner();
-            	String filepath = filesearch.getFile(editor.getDocumentModel().getFile(), refEntry.fileName, "bibtex");
+            	String filepath = filesearch.getFile(editor.getDocumentModel().getFile(), fileName, "bibtex");
             	if ("".equals(filepath)) {
             	    createStatusLineErrorMessage(TexlipsePlugin.getResourceString("gotoDeclarationNoDeclarationFound"));
                     return;
@@ -10,25 +10,33 @@
  *******************************************************************************/
 package org.eclipse.texlipse.auxparser;
 
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.PushbackReader;
 import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
-import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
 import org.eclipse.texlipse.TexlipsePlugin;
 import org.eclipse.texlipse.model.ReferenceEntry;
-import org.eclipse.texlipse.properties.TexlipseProperties;
-import org.eclipse.texlipse.texparser.LatexLexer;
-import org.eclipse.texlipse.texparser.node.EOF;
-import org.eclipse.texlipse.texparser.node.TArgument;
-import org.eclipse.texlipse.texparser.node.TCcite;
-import org.eclipse.texlipse.texparser.node.TCsymbol;
-import org.eclipse.texlipse.texparser.node.TCword;
-import org.eclipse.texlipse.texparser.node.TWord;
-import org.eclipse.texlipse.texparser.node.Token;
 
 /**
  * Extracts information from the .aux file which is created by a latex run. 
@@ -44,11 +52,39 @@ import org.eclipse.texlipse.texparser.node.Token;
  *
  * further use cases are possible ...
  * 
+ * The files are read once, when the parser is created, and scanned line by
+ * line for all the commands at the same time. The result for each file is
+ * cached with the hash of its contents, so an .aux-file that a latex run
+ * didn't change is not scanned again.
+ * 
  * @author Frank Lehrieder
  *
  */
 public class AuxFileParser {
 
+    private static final String CITATION = "\\citation";
+    private static final String NEWLABEL = "\\newlabel";
+    private static final String BIBDATA = "\\bibdata";
+    private static final String BIBSTYLE = "\\bibstyle";
+    private static final String INPUT = "\\@input";
+
+    /**
+     * The commands found in one .aux-file.
+     */
+    private static class AuxData {
+        byte[] hash;
+        final List<String> citations = new ArrayList<String>();
+        final List<String> labels = new ArrayList<String>();
+        final List<String> bibData = new ArrayList<String>();
+        String bibStyle;
+        final List<String> inputs = new ArrayList<String>();
+    }
+
+    // absolute path of an .aux-file -> its contents when it was last scanned;
+    // the contents may be dropped when memory runs low
+    private static final Map<String, SoftReference<AuxData>> cache =
+            new HashMap<String, SoftReference<AuxData>>();
+
     /**
      * The corresponding project
      */
@@ -59,9 +95,19 @@ public class AuxFileParser {
      */
     private String rootAuxfile;
 
+    /**
+     * The root file and the files it inputs, in the order they were found
+     */
+    private List<AuxData> files;
+
     public AuxFileParser(IProject project, String auxFile) {
         this.project = project;
         this.rootAuxfile = auxFile;
+        this.files = new ArrayList<AuxData>();
+        IFile root = project.getFile(auxFile);
+        // latex writes the names of the other files relative to its
+        // working directory, where the root file is
+        collect(root.getParent(), root, new HashSet<IPath>());
     }
 
     public IProject getProject() {
@@ -72,8 +118,15 @@ public class AuxFileParser {
         return rootAuxfile;
     }
 
+    /**
+     * @return the keys of all citations in the aux-files
+     */
     public List<String> getCitations() {
-        return doParse(rootAuxfile, "\\citation");
+        List<String> result = new ArrayList<String>();
+        for (AuxData data : files) {
+            result.addAll(data.citations);
+        }
+        return result;
     }
 
     /**
@@ -81,80 +134,233 @@ public class AuxFileParser {
      * <code>ReferenceEntry</code>
      */
     public List<ReferenceEntry> getLabels() {
-        List<String> labels = doParse(rootAuxfile, "\\newlabel");
         List<ReferenceEntry> result = new LinkedList<ReferenceEntry>();
-        for (String key : labels) {
-            result.add(new ReferenceEntry(key, "No info available"));
+        for (AuxData data : files) {
+            for (String key : data.labels) {
+                result.add(new ReferenceEntry(key, "No info available"));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the bibliography databases given with <code>\bibliography</code>
+     */
+    public List<String> getBibData() {
+        List<String> result = new ArrayList<String>();
+        for (AuxData data : files) {
+            result.addAll(data.bibData);
         }
         return result;
     }
 
     /**
-     * Parses <code>input</code> and collects all tokens which follow the given
-     * <code>command</code>. Used to extract e.g., labels, citations, bibcites
+     * @return the bibliography style or null if none was given
+     */
+    public String getBibStyle() {
+        String style = null;
+        for (AuxData data : files) {
+            if (data.bibStyle != null) {
+                style = data.bibStyle;
+            }
+        }
+        return style;
+    }
+
+    /**
+     * @return the names of the aux-files read by the root file with
+     *  <code>\@input</code>, directly or through other aux-files
+     */
+    public List<String> getInputs() {
+        List<String> result = new ArrayList<String>();
+        for (AuxData data : files) {
+            result.addAll(data.inputs);
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether the citations, the databases and the style of the
+     * bibliography are the same as in the given aux-files.
+     * 
+     * @param other the parser of the other aux-files or null
+     * @return true, if bibtex would produce the same bibliography from both
+     */
+    public boolean hasSameBibliography(AuxFileParser other) {
+        if (other == null) {
+            return false;
+        }
+        String style = getBibStyle();
+        String otherStyle = other.getBibStyle();
+        return getCitations().equals(other.getCitations())
+                && getBibData().equals(other.getBibData())
+                && (style == null ? otherStyle == null : style.equals(otherStyle));
+    }
+
+    /**
+     * Reads the given aux-file and the files it inputs.
      *
-     * @param filename name of the file to be parsed
-     * @param command
-     * @return list of Strings following the given command
+     * @param dir the directory the names of the input files are relative to
+     * @param auxFile the file to read
+     * @param visited the files already read
      */
-    private List<String> doParse(String filename, String command) {
-        IResource auxFile = project.getFile(filename);
-        String input = null;
+    private void collect(IContainer dir, IFile auxFile, Set<IPath> visited) {
+        if (!visited.add(auxFile.getFullPath())) {
+            return;
+        }
+        AuxData data = read(auxFile);
+        if (data == null) {
+            return;
+        }
+        files.add(data);
+        for (String name : data.inputs) {
+            collect(dir, dir.getFile(new Path(name)), visited);
+        }
+    }
 
+    /**
+     * Returns the commands of the given aux-file, scanning the file only if
+     * its contents have changed since it was last scanned.
+     *
+     * @param auxFile the file
+     * @return the commands of the file or null if it can't be read
+     */
+    private static AuxData read(IFile auxFile) {
+        IPath location = auxFile.getLocation();
+        if (location == null) {
+            return null;
+        }
+        File file = location.toFile();
+        byte[] contents;
         try {
-            input = TexlipseProperties.getFileContents(auxFile);
+            contents = Files.readAllBytes(file.toPath());
         } catch (IOException e) {
             TexlipsePlugin.log("Could not parse .aux-file " + auxFile, e);
-            return new LinkedList<String>();
+            return null;
         }
 
-        LatexLexer lexer = new LatexLexer(new PushbackReader(new StringReader(input), 4096));
-        Token prevCommand = null;
-        Token prevSymbol = null;
-        Token prevText = null;
-        List<String> results = new LinkedList<String>();
+        byte[] hash = getHash(contents);
+        String key = file.getAbsolutePath();
+        synchronized (cache) {
+            SoftReference<AuxData> ref = cache.get(key);
+            AuxData data = ref != null ? ref.get() : null;
+            if (data != null && hash != null && Arrays.equals(data.hash, hash)) {
+                return data;
+            }
+        }
 
+        String input;
         try {
-            for (Token t = lexer.next(); !(t instanceof EOF); t = lexer.next()) {
-                // extract the strings following <code>command</code>
-                if (prevCommand == null) {
-                    if ((t instanceof TCword || t instanceof TCcite)
-                            && t.getText().equalsIgnoreCase(command)) {
-                        prevCommand = t;
-                    }
-                } else {
-                    if (t instanceof TWord || t instanceof TArgument) {
-                        if (command.equalsIgnoreCase(prevCommand.getText())) {
-                            results.add(t.getText());
-                            prevCommand = null;
-                        } 
+            input = new String(contents, auxFile.getCharset());
+        } catch (UnsupportedEncodingException e) {
+            input = new String(contents);
+        } catch (CoreException e) {
+            input = new String(contents);
+        }
+        AuxData data = scan(input);
+        data.hash = hash;
+        if (hash != null) {
+            synchronized (cache) {
+                // forget the files whose contents have been dropped
+                for (Iterator<SoftReference<AuxData>> it = cache.values().iterator(); it.hasNext();) {
+                    if (it.next().get() == null) {
+                        it.remove();
                     }
                 }
+                cache.put(key, new SoftReference<AuxData>(data));
+            }
+        }
+        return data;
+    }
 
-                // look for additional .aux-files and parse them
-                if (prevText != null) {
-                    if (prevText.getText().equalsIgnoreCase("input") &&
-                            t instanceof TWord) {
-                        prevText = null;   
-                        String newAuxFileName = t.getText();
-                        results.addAll(doParse(newAuxFileName, command));
-                    }
+    /**
+     * Collects the commands from the contents of an aux-file. LaTeX writes
+     * each command on a line of its own.
+     *
+     * @param input the contents of the file
+     * @return the commands
+     */
+    private static AuxData scan(String input) {
+        AuxData data = new AuxData();
+        BufferedReader reader = new BufferedReader(new StringReader(input));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int start = 0;
+                while (start < line.length() && Character.isWhitespace(line.charAt(start))) {
+                    start++;
                 }
-                if (prevSymbol == null) {
-                    if (t instanceof TCsymbol) {
-                        prevSymbol = t;
-                    }
-                } else {
-                    if (prevSymbol.getText().equals("\\@")) {
-                        prevText = t;
-                    }
-                    prevSymbol = null;
+                if (!line.startsWith("\\", start)) {
+                    continue;
+                }
+                String arg;
+                if ((arg = getArgument(line, start, CITATION)) != null) {
+                    addAll(data.citations, arg);
+                } else if ((arg = getArgument(line, start, NEWLABEL)) != null) {
+                    data.labels.add(arg);
+                } else if ((arg = getArgument(line, start, BIBDATA)) != null) {
+                    addAll(data.bibData, arg);
+                } else if ((arg = getArgument(line, start, BIBSTYLE)) != null) {
+                    data.bibStyle = arg.trim();
+                } else if ((arg = getArgument(line, start, INPUT)) != null) {
+                    data.inputs.add(arg.trim());
                 }
             }
-        } catch (Exception e) {
-            // do nothing
+        } catch (IOException e) {
+            // can't happen with a string
+        }
+        return data;
+    }
+
+    /**
+     * Returns the first argument of a command at the given position.
+     *
+     * @param line a line of the file
+     * @param start the position of the command
+     * @param command the command
+     * @return the argument without the braces, or null if the line has
+     *  another command or the argument doesn't end on the line
+     */
+    private static String getArgument(String line, int start, String command) {
+        if (!line.startsWith(command, start)) {
+            return null;
+        }
+        int i = start + command.length();
+        while (i < line.length() && line.charAt(i) == ' ') {
+            i++;
+        }
+        if (i == line.length() || line.charAt(i) != '{') {
+            return null;
+        }
+        int depth = 0;
+        for (int j = i; j < line.length(); j++) {
+            char c = line.charAt(j);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return line.substring(i + 1, j);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the comma separated values of an argument to the list.
+     */
+    private static void addAll(List<String> list, String arg) {
+        for (String value : arg.split(",")) {
+            value = value.trim();
+            if (value.length() > 0) {
+                list.add(value);
+            }
         }
-        return results;
     }
 
-}
\ No newline at end of file
+    private static byte[] getHash(byte[] contents) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(contents);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+}
@@ -83,16 +83,20 @@ public class BibDocumentModel {
             List tasks = parser.getTasks();
             
             MarkerHandler marker = MarkerHandler.getInstance();
-            marker.clearErrorMarkers(editor);
-            if (parseErrors.size() > 0) {
-                marker.createErrorMarkers(editor, parseErrors);                
-                throw new TexDocumentParseException("Fatal errors in file");
-            }
-            if (parseWarnings.size() > 0) {
-                marker.createErrorMarkers(editor, parseWarnings);                
-            }
-            if (tasks.size() > 0) {
-                marker.createTaskMarkers(editor, tasks);
+            marker.beginUpdate(editor);
+            try {
+                if (parseErrors.size() > 0) {
+                    marker.createErrorMarkers(editor, parseErrors);                
+                    throw new TexDocumentParseException("Fatal errors in file");
+                }
+                if (parseWarnings.size() > 0) {
+                    marker.createErrorMarkers(editor, parseWarnings);                
+                }
+                if (tasks.size() > 0) {
+                    marker.createTaskMarkers(editor, tasks);
+                }
+            } finally {
+                marker.endUpdate(editor, true);
             }
             
             this.abbrevs = parser.getAbbrevs();
@@ -10,6 +10,12 @@
  *******************************************************************************/
 package org.eclipse.texlipse.builder;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
@@ -21,6 +27,21 @@ import org.eclipse.core.runtime.IProgressMonitor;
  */
 public abstract class AbstractBuilder implements Runnable, Builder {
 
+    // how often a running build checks for cancellation, in milliseconds
+    private static final long CANCEL_CHECK_INTERVAL = 200;
+
+    /**
+     * Checks the running builds for cancellation, shared by all builders.
+     */
+    private static final ScheduledExecutorService cancelWatcher = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "TeXlipse build monitor");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
     // the current progress monitor
     protected IProgressMonitor monitor;
     
@@ -69,17 +90,12 @@ public abstract class AbstractBuilder implements Runnable, Builder {
     public abstract String getSequence();
     
     /**
-     * Run the build monitor. If the user interrupts the build, stop the execution.
+     * Check the build monitor. If the user interrupts the build, stop the execution.
+     * This is run periodically while the build is running.
      */
     public void run() {
-        while(buildRunning) {
-            try {
-                Thread.sleep(500);
-            } catch(InterruptedException e) {
-            }
-            if (monitor.isCanceled()) {
-                stopBuild();
-            }
+        if (buildRunning && monitor.isCanceled()) {
+            stopBuild();
         }
     }
 
@@ -115,19 +131,17 @@ public abstract class AbstractBuilder implements Runnable, Builder {
         }
         
         buildRunning = true;
-        Thread buildThread = new Thread(this);
-        buildThread.start();
+        ScheduledFuture<?> watch = cancelWatcher.scheduleWithFixedDelay(this,
+                CANCEL_CHECK_INTERVAL, CANCEL_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
         
         try {
             buildResource(resource);
         } finally {
         	   
 	        buildRunning = false;
+	        watch.cancel(false);
 	        
-	        try {
-	            buildThread.join();
-	        } catch (InterruptedException e) {
-	            Thread.interrupted();
+	        if (Thread.interrupted()) {
 	            monitor.setCanceled(true);
 	            stopBuild();
 	        }
@@ -12,8 +12,9 @@ package org.eclipse.texlipse.builder;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.StringTokenizer;
 
+import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
@@ -23,7 +24,6 @@ import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.texlipse.PathUtils;
 import org.eclipse.texlipse.TexlipsePlugin;
 import org.eclipse.texlipse.properties.TexlipseProperties;
-import org.eclipse.ui.texteditor.MarkerUtilities;
 
 
 /**
@@ -36,6 +36,9 @@ public abstract class AbstractProgramRunner implements ProgramRunner {
     // the currently running program
     private ExternalProgram extrun;
     
+    // markers reported by the current run
+    private MarkerSink markers;
+    
     /**
      * Create a new program runner.
      * @param project the project holding the properties
@@ -148,17 +151,42 @@ public abstract class AbstractProgramRunner implements ProgramRunner {
         }
         if (args.indexOf("%fullinput") >= 0) {
             args = args.replaceAll("%fullinput",
-                    resource.getParent().getLocation().toFile().getAbsolutePath()
+                    getWorkingDir(resource).getAbsolutePath()
                     + File.separator + inputName);
         }
         if (args.indexOf("%fulloutput") >= 0) {
             args = args.replaceAll("%fulloutput",
-                    resource.getParent().getLocation().toFile().getAbsolutePath()
+                    getWorkingDir(resource).getAbsolutePath()
                     + File.separator + outputName);
         }
         return args;
     }
     
+    /**
+     * Returns whether the program reads and writes the files of the build,
+     * like the .aux file or the output, in the folder where they are
+     * written. When building into the temporary files folder, the program
+     * then runs in that folder and finds the sources of the document on
+     * its search paths.
+     * 
+     * @return true to run the program in the build folder, false to run
+     *  it in the folder of the input file
+     */
+    protected boolean runsInBuildDir() {
+        return true;
+    }
+    
+    /**
+     * @param resource the input file
+     * @return the directory to run the program in
+     */
+    private File getWorkingDir(IResource resource) {
+        if (runsInBuildDir()) {
+            return OutputFileManager.getBuildDir(resource).getLocation().toFile();
+        }
+        return resource.getLocation().toFile().getParentFile();
+    }
+    
     /**
      * Parse errors from the output of an external program.
      * 
@@ -168,6 +196,19 @@ public abstract class AbstractProgramRunner implements ProgramRunner {
      */
     protected abstract boolean parseErrors(IResource resource, String output);
     
+    /**
+     * Returns a parser that is fed the output of the external program while
+     * the program is running, so that errors can be reported before it has
+     * finished. The default is to parse the whole output with
+     * {@link #parseErrors(IResource, String)} afterwards.
+     * 
+     * @param resource the input file to be processed
+     * @return the parser, or null
+     */
+    protected OutputParser createOutputParser(IResource resource) {
+        return null;
+    }
+    
     /**
      * Check to see if this program is ready for operation.
      * @return true if this program exists
@@ -190,6 +231,7 @@ public abstract class AbstractProgramRunner implements ProgramRunner {
     public void run(IResource resource) throws CoreException {
         
         File sourceDir = resource.getLocation().toFile().getParentFile();
+        File workingDir = getWorkingDir(resource);
         
         // find executable file
         String programPath = getProgramPath();
@@ -209,26 +251,81 @@ public abstract class AbstractProgramRunner implements ProgramRunner {
         if (TexlipsePlugin.getDefault().getPreferenceStore().getBoolean(TexlipseProperties.BUILDER_CONSOLE_OUTPUT)) {
             console = getProgramName();
         }
-        extrun.setup(command, sourceDir, console);
+        extrun.setup(command, workingDir, console);
+        if (!workingDir.equals(sourceDir)) {
+            extrun.setSearchPath(sourceDir);
+        }
+        extrun.setFormatPath(getFormatDir(resource));
+        extrun.setMergeErrors(isErrorOutputMerged());
+        extrun.setLineWrap(getLineWrapLength(), isLineWrapInBytes());
+        // TeX writes file names and messages in the encoding of the input
+        if (resource instanceof IFile) {
+            try {
+                extrun.setCharset(((IFile) resource).getCharset());
+            } catch (CoreException e) {
+                // use the default charset
+            }
+        }
+        
+        // the markers are tagged with the document, whichever of its files
+        // the program processes
+        final MarkerSink sink = new MarkerSink(resource.getFullPath().removeFileExtension().toString());
+        final OutputParser parser = createOutputParser(resource);
+        OutputListener listener = null;
+        if (parser != null) {
+            listener = new OutputListener() {
+                public void lineRead(String line) {
+                    parser.parseLine(line);
+                }
+                public void update() {
+                    // show the problems found so far
+                    try {
+                        sink.flush();
+                    } catch (CoreException e) {
+                        TexlipsePlugin.log("Creating markers", e);
+                    }
+                }
+            };
+        }
         
         String output = null;
+        boolean errors;
+        markers = sink;
         try {
+            try {
+                
+                String[] query = getQueryString();
+                if (listener != null) {
+                    output = extrun.run(query, listener);
+                } else if (query != null) {
+                    output = extrun.run(query);
+                } else {
+                    output = extrun.run();
+                }
+                
+            } catch (Exception e) {
+                throw new CoreException(new Status(IStatus.ERROR, TexlipsePlugin.getPluginId(),
+                        IStatus.ERROR, "Building the project: ", e));
+            } finally {
+                extrun.stop();
+            }
             
-            String[] query = getQueryString();
-            if (query != null) {
-                output = extrun.run(query);
+            if (parser != null) {
+                // the standard output has been parsed already, also when
+                // the build was stopped on a fatal error
+                StringTokenizer st = new StringTokenizer(output, "\r\n");
+                while (st.hasMoreTokens()) {
+                    parser.parseLine(st.nextToken());
+                }
+                errors = parser.finish();
             } else {
-                output = extrun.run();
+                errors = parseErrors(resource, output);
             }
-            
-        } catch (Exception e) {
-            throw new CoreException(new Status(IStatus.ERROR, TexlipsePlugin.getPluginId(),
-                    IStatus.ERROR, "Building the project: ", e));
         } finally {
-            extrun.stop();
+            markers = null;
+            sink.flush();
         }
-
-        if (parseErrors(resource, output)) {
+        if (errors) {
             throw new BuilderCoreException(TexlipsePlugin.stat("Errors during build. See the problems dialog."));
         }
     }
@@ -242,6 +339,57 @@ public abstract class AbstractProgramRunner implements ProgramRunner {
         }
     }
 
+    /**
+     * Returns whether the standard error of the program is parsed together
+     * with its standard output, in the order the program writes them.
+     * Otherwise the standard error is appended to the standard output.
+     * 
+     * @return true to merge the standard error into the standard output
+     */
+    protected boolean isErrorOutputMerged() {
+        return true;
+    }
+
+    /**
+     * Returns the length at which the program wraps the lines of its
+     * output. The wrapped lines are joined before they are parsed.
+     * 
+     * @return the length of the wrapped lines, or 0 if the program doesn't
+     *  wrap its lines
+     */
+    protected int getLineWrapLength() {
+        return 0;
+    }
+
+    /**
+     * @return true, if the program wraps its lines at a number of bytes;
+     *  false, if at a number of characters
+     */
+    protected boolean isLineWrapInBytes() {
+        return true;
+    }
+
+    /**
+     * Returns a folder, where the program looks for format files before
+     * its default search path.
+     * 
+     * @param resource the input file
+     * @return the folder or null to use the default search path
+     */
+    protected File getFormatDir(IResource resource) {
+        return null;
+    }
+
+    /**
+     * The default is the output file of the program.
+     * 
+     * @see ProgramRunner#getWrittenFormats()
+     */
+    public String[] getWrittenFormats() {
+        String format = getOutputFormat();
+        return format != null ? new String[] { format } : new String[0];
+    }
+
     /**
      * Returns a special query string that indicates that this program is waiting an input from the user.
      * @return the query string to look for in the output of the program
@@ -251,7 +399,9 @@ public abstract class AbstractProgramRunner implements ProgramRunner {
     }
     
     /**
-     * Create a layout warning marker to the given resource.
+     * Create a marker to the given resource. While the program is run, the
+     * markers are collected and created together when the output has been
+     * parsed; a marker equal to an existing one is not created again.
      *
      * @param resource the file where the problem occurred
      * @param message error message
@@ -259,27 +409,19 @@ public abstract class AbstractProgramRunner implements ProgramRunner {
      * @param markerType
      * @param severity Severity of the error
      */
-    @SuppressWarnings("unchecked")
-	protected static void createMarker(IResource resource, 
+    protected void createMarker(IResource resource, 
     		Integer lineNumber, String message, String markerType, int severity) {
-    	int lineNr = -1;
-    	if (lineNumber != null) {
-    		lineNr = lineNumber;
-    	}
-    	IMarker marker = AbstractProgramRunner.findMarker(resource, lineNr, message, markerType);
-    	if (marker == null) {
-    		try {
-    			HashMap map = new HashMap();
-    			map.put(IMarker.MESSAGE, message);
-    			map.put(IMarker.SEVERITY, new Integer (severity));
-
-    			if (lineNumber != null)
-    				map.put(IMarker.LINE_NUMBER, lineNumber);
-
-    			MarkerUtilities.createMarker(resource, map, markerType);
-    		} catch (CoreException e) {
-    			throw new RuntimeException(e);
+    	try {
+    		MarkerSink sink = markers;
+    		if (sink != null) {
+    			sink.add(resource, lineNumber, message, markerType, severity);
+    		} else {
+    			sink = new MarkerSink();
+    			sink.add(resource, lineNumber, message, markerType, severity);
+    			sink.flush();
     		}
+    	} catch (CoreException e) {
+    		throw new RuntimeException(e);
     	}
     }
     
@@ -290,7 +432,7 @@ public abstract class AbstractProgramRunner implements ProgramRunner {
      * @param message error message
      * @param lineNumber line number
      */
-    public static void createLayoutMarker(IResource resource, Integer lineNumber, String message) {
+    protected void createLayoutMarker(IResource resource, Integer lineNumber, String message) {
         String markerType = TexlipseBuilder.LAYOUT_WARNING_TYPE;
         int severity = IMarker.SEVERITY_WARNING;
         createMarker(resource, lineNumber, message, markerType, severity);
@@ -304,7 +446,7 @@ public abstract class AbstractProgramRunner implements ProgramRunner {
      * @param lineNumber line number
      * @param severity severity of the marker
      */
-    public static void createMarker(IResource resource, Integer lineNumber, String message, int severity) {
+    protected void createMarker(IResource resource, Integer lineNumber, String message, int severity) {
         String markerType = TexlipseBuilder.MARKER_TYPE;
         createMarker(resource, lineNumber, message, markerType, severity);
     }
@@ -316,38 +458,7 @@ public abstract class AbstractProgramRunner implements ProgramRunner {
      * @param message error message
      * @param lineNumber line number
      */
-    public static void createMarker(IResource resource, Integer lineNumber, String message) {
+    protected void createMarker(IResource resource, Integer lineNumber, String message) {
         createMarker(resource, lineNumber, message, IMarker.SEVERITY_ERROR);
     }
-    
-    /**
-     * Checks pre-existance of marker.
-     * 
-     * @param resource Resource in which marker will searched
-     * @param lineNr IMarker.LINE_NUMBER of the marker
-     * @param message Message for marker
-     * @param type The type of the marker to find
-     * @return pre-existance of marker or null if no marker was found
-     */
-    public static IMarker findMarker(IResource resource, int lineNr, String message, String type) {
-        
-        try {
-        	IMarker[] tasks = resource.findMarkers(type, true, IResource.DEPTH_ZERO);
-            for (IMarker marker : tasks) {
-            	Object lNrObj = marker.getAttribute(IMarker.LINE_NUMBER);
-            	int lNr = -1;
-            	if (lNrObj != null) {
-            		lNr = ((Integer) lNrObj);
-            	}
-				if (lNr == lineNr
-						&& marker.getAttribute(IMarker.MESSAGE).equals(message)) {
-					return marker;
-				}
-					
-			}
-        } catch (CoreException e) {
-            throw new RuntimeException(e);
-        }
-        return null;
-    }
 }
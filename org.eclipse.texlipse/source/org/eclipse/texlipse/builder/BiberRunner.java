@@ -40,6 +40,10 @@ public class BiberRunner extends AbstractProgramRunner {
         return TexlipseProperties.OUTPUT_FORMAT_BBL;
     }
 
+    public String[] getWrittenFormats() {
+        return new String[] { TexlipseProperties.OUTPUT_FORMAT_BBL, "blg" };
+    }
+
     @Override
     protected String getWindowsProgramName() {
         return "biber.exe";
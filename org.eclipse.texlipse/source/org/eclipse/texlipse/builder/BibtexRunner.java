@@ -151,6 +151,10 @@ public class BibtexRunner extends AbstractProgramRunner {
         return TexlipseProperties.OUTPUT_FORMAT_AUX;
     }
 
+    public String[] getWrittenFormats() {
+        return new String[] { TexlipseProperties.OUTPUT_FORMAT_BBL, "blg" };
+    }
+
     /**
      * Parse the output of the BibTeX program.
      *  
@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.builder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The input files of a build together with their content hashes, for
+ * deciding whether the output is up to date.
+ *
+ * The inputs are read from the recorder file (.fls) written by LaTeX when
+ * run with <code>-recorder</code>. Files that LaTeX also wrote, like the
+ * .aux file, are not inputs of the document, and neither are the
+ * temporary files written by the other programs of the build, as they
+ * are moved away after the build. An input whose time stamp has changed
+ * is hashed again, so that touching a file without changing its contents
+ * does not cause a build.
+ */
+public class BuildRecord {
+
+    /**
+     * The state of an input file when it was recorded.
+     */
+    private static class Input {
+        long length;
+        long modified;
+        byte[] hash;
+    }
+
+    // absolute path -> state of the file
+    private final Map<String, Input> inputs;
+    // when the build finished
+    private long time;
+
+    private BuildRecord() {
+        inputs = new HashMap<String, Input>();
+    }
+
+    /**
+     * Reads the inputs of a build from the given recorder file.
+     *
+     * @param flsFile the recorder file written by LaTeX
+     * @param extraInputs files read by other programs of the build, e.g.
+     *  BibTeX databases, or null
+     * @param tempExts extensions of the temporary files, which are not
+     *  recorded
+     * @return the record, or null if the recorder file can't be read
+     */
+    public static BuildRecord read(File flsFile, List<File> extraInputs, String[] tempExts) {
+        Set<String> inputNames = new HashSet<String>();
+        Set<String> outputNames = new HashSet<String>();
+        if (!readRecorderFile(flsFile, inputNames, outputNames)) {
+            return null;
+        }
+        inputNames.removeAll(outputNames);
+        if (extraInputs != null) {
+            for (File f : extraInputs) {
+                inputNames.add(f.getAbsolutePath());
+            }
+        }
+
+        BuildRecord record = new BuildRecord();
+        for (String name : inputNames) {
+            File file = new File(name);
+            if (!file.isFile() || hasExt(name, tempExts)) {
+                continue;
+            }
+            Input input = new Input();
+            input.length = file.length();
+            input.modified = file.lastModified();
+            input.hash = getHash(file);
+            if (input.hash != null) {
+                record.inputs.put(name, input);
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Sets the time when the build finished. Files modified after it, that
+     * are not recorded inputs, may be inputs that didn't exist when the
+     * document was built.
+     *
+     * @param time the time in milliseconds
+     */
+    public synchronized void setTime(long time) {
+        this.time = time;
+    }
+
+    /**
+     * Checks whether a file created or modified after the build could
+     * change its output.
+     *
+     * @param file a file of the project
+     * @return true, if the file is not a recorded input, and is newer than
+     *  the build
+     */
+    public synchronized boolean isNewFile(File file) {
+        return file.lastModified() > time
+                && !inputs.containsKey(file.getAbsoluteFile().toPath().normalize().toString());
+    }
+
+    /**
+     * Removes a file from the recorded inputs.
+     *
+     * @param file the file
+     */
+    synchronized void removeInput(File file) {
+        inputs.remove(file.getAbsoluteFile().toPath().normalize().toString());
+    }
+
+    /**
+     * Returns the files written by LaTeX according to the given recorder
+     * file.
+     *
+     * @param flsFile the recorder file written by LaTeX
+     * @return the absolute paths of the files, empty if the recorder file
+     *  can't be read
+     */
+    public static Set<String> getOutputs(File flsFile) {
+        Set<String> outputNames = new HashSet<String>();
+        readRecorderFile(flsFile, new HashSet<String>(), outputNames);
+        return outputNames;
+    }
+
+    /**
+     * Reads the input and output files listed in a recorder file.
+     *
+     * @param flsFile the recorder file
+     * @param inputNames the absolute paths of the inputs are added here
+     * @param outputNames the absolute paths of the outputs are added here
+     * @return true, if the file was read
+     */
+    private static boolean readRecorderFile(File flsFile, Set<String> inputNames,
+            Set<String> outputNames) {
+        if (!flsFile.isFile()) {
+            return false;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(flsFile));
+            try {
+                File pwd = flsFile.getParentFile();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("PWD ")) {
+                        pwd = new File(line.substring(4));
+                    } else if (line.startsWith("INPUT ")) {
+                        inputNames.add(resolve(pwd, line.substring(6)));
+                    } else if (line.startsWith("OUTPUT ")) {
+                        outputNames.add(resolve(pwd, line.substring(7)));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean hasExt(String name, String[] exts) {
+        for (String ext : exts) {
+            if (name.endsWith(ext)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Resolves a path of the recorder file against its working directory.
+     */
+    private static String resolve(File pwd, String path) {
+        File file = new File(path);
+        if (!file.isAbsolute()) {
+            file = new File(pwd, path);
+        }
+        return file.getAbsoluteFile().toPath().normalize().toString();
+    }
+
+    /**
+     * Computes the hash of the contents of a file.
+     *
+     * @param file the file
+     * @return the hash or null if the file can't be read
+     */
+    static byte[] getHash(File file) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            InputStream in = new FileInputStream(file);
+            try {
+                byte[] buf = new byte[8192];
+                int len;
+                while ((len = in.read(buf)) != -1) {
+                    digest.update(buf, 0, len);
+                }
+            } finally {
+                in.close();
+            }
+            return digest.digest();
+        } catch (IOException e) {
+            return null;
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether any of the recorded inputs has been changed, deleted
+     * or replaced since the build.
+     *
+     * @return true, if all the inputs have the recorded contents
+     */
+    public synchronized boolean isUpToDate() {
+        for (Map.Entry<String, Input> e : inputs.entrySet()) {
+            File file = new File(e.getKey());
+            Input input = e.getValue();
+            long modified = file.lastModified();
+            if (modified == 0L) {
+                // deleted
+                return false;
+            }
+            if (file.length() != input.length) {
+                return false;
+            }
+            if (modified == input.modified) {
+                continue;
+            }
+            if (!Arrays.equals(input.hash, getHash(file))) {
+                return false;
+            }
+            // touched, but not changed
+            input.modified = modified;
+        }
+        return true;
+    }
+}
@@ -34,6 +34,10 @@ public class BuilderRegistry {
     // the singleton instance
     private static BuilderRegistry instance = new BuilderRegistry();
     
+    // the instance of a thread that builds a document at the same time
+    // with others, as the runners keep the state of the running program
+    private static final ThreadLocal<BuilderRegistry> threadInstance = new ThreadLocal<BuilderRegistry>();
+    
     // registry of outputformat -> builder mappings
     private Builder[] builderList;
     
@@ -46,14 +50,67 @@ public class BuilderRegistry {
     // the console for creating console streams
     private MessageConsole console;
 
+    // collects the console messages of a thread instead of printing them
+    private static final ThreadLocal<StringBuffer> consoleBuffer = new ThreadLocal<StringBuffer>();
     
     /**
-     * Print a message to the console.
+     * Print a message to the console. If a console buffer is set for the
+     * current thread, the message is added to the buffer instead.
      */
     public static void printToConsole(String msg) {
+        StringBuffer buffer = consoleBuffer.get();
+        if (buffer != null) {
+            buffer.append(msg).append('\n');
+            return;
+        }
         instance.getConsoleStream().println(msg);
     }
 
+    /**
+     * Sets the buffer where the console messages of the current thread are
+     * collected, e.g. while running programs in parallel.
+     * 
+     * @param buffer the buffer or null to print to the console again
+     */
+    public static void setConsoleBuffer(StringBuffer buffer) {
+        if (buffer != null) {
+            consoleBuffer.set(buffer);
+        } else {
+            consoleBuffer.remove();
+        }
+    }
+
+    /**
+     * @return the console buffer of the current thread, or null if the
+     *  messages are printed to the console
+     */
+    public static StringBuffer getConsoleBuffer() {
+        return consoleBuffer.get();
+    }
+
+    /**
+     * Gives the current thread instances of the builders and runners of its
+     * own, so that it can build a document while another one is built.
+     * 
+     * @param isolated true to create the instances, false to use the
+     *  shared ones again
+     */
+    public static void setIsolated(boolean isolated) {
+        if (isolated) {
+            threadInstance.set(new BuilderRegistry());
+        } else {
+            threadInstance.remove();
+        }
+    }
+
+    /**
+     * @return the registry of the current thread
+     */
+    private static BuilderRegistry getInstance() {
+        BuilderRegistry registry = threadInstance.get();
+        return registry != null ? registry : instance;
+    }
+
     /**
      * Clear the console window.
      */
@@ -97,7 +154,7 @@ public class BuilderRegistry {
      * @return the builder or null if there is no such builder configured
      */
     public static Builder get(Class<? extends Builder> clazz, String format) {
-        return instance.getBuilder(clazz, format);
+        return getInstance().getBuilder(clazz, format);
     }
     
     /**
@@ -107,10 +164,11 @@ public class BuilderRegistry {
      * @return references to the builder instances
      */
     public static Builder[] getAll(String format) {
-        if (instance.builderList == null) {
-            instance.initBuilders();
+        BuilderRegistry registry = getInstance();
+        if (registry.builderList == null) {
+            registry.initBuilders();
         }
-        return instance.getAllBuilders(format);
+        return registry.getAllBuilders(format);
     }
 
     /**
@@ -119,11 +177,12 @@ public class BuilderRegistry {
      * @return the builder instance, or null if index out of bounds
      */
     public static Builder get(int i) {
-        if (instance.builderList == null) {
-            instance.initBuilders();
+        BuilderRegistry registry = getInstance();
+        if (registry.builderList == null) {
+            registry.initBuilders();
         }
-        if (i >= 0 && i < instance.builderList.length) {
-            return instance.builderList[i];
+        if (i >= 0 && i < registry.builderList.length) {
+            return registry.builderList[i];
         }
         return null;
     }
@@ -135,7 +194,7 @@ public class BuilderRegistry {
      * @return a program runner
      */
     public static ProgramRunner getRunner(int i) {
-        return instance.getProgramRunner(i);
+        return getInstance().getProgramRunner(i);
     }
 
     /**
@@ -149,7 +208,7 @@ public class BuilderRegistry {
      *         input format to the given output format
      */
     public static ProgramRunner getRunner(String in, String out, int alternative) {
-        return instance.getProgramRunner(in, out, alternative);
+        return getInstance().getProgramRunner(in, out, alternative);
     }
     
     /**
@@ -16,7 +16,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
+import java.nio.charset.Charset;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.eclipse.texlipse.PathUtils;
 import org.eclipse.texlipse.TexlipsePlugin;
@@ -31,6 +42,35 @@ import org.eclipse.texlipse.properties.TexlipseProperties;
  */
 public class ExternalProgram {
     
+    // how often the output listener is updated while waiting, in milliseconds
+    private static final long UPDATE_INTERVAL = 500;
+    
+    // the most threads kept for reading the output of the programs
+    private static final int MAX_SCANNER_THREADS = 8;
+    
+    /**
+     * Reads the output streams of the running programs, shared by all
+     * builds. If all the threads are busy, a temporary thread is used
+     * instead of queuing, since a program whose output is not read may
+     * block.
+     */
+    private static final ExecutorService scannerExecutor = new ThreadPoolExecutor(
+            0, MAX_SCANNER_THREADS, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "TeXlipse output scanner");
+                    t.setDaemon(true);
+                    return t;
+                }
+            },
+            new RejectedExecutionHandler() {
+                public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                    Thread t = new Thread(r, "TeXlipse output scanner");
+                    t.setDaemon(true);
+                    t.start();
+                }
+            });
+    
     // the command to run
     private String[] command;
 
@@ -38,11 +78,34 @@ public class ExternalProgram {
     private File dir;
 
     // the process that executes the command
-    private Process process;
+    private volatile Process process;
+
+    // true, if the standard error is read together with the standard output
+    private boolean mergeErrors;
 
     // output messages to this console
     private String consoleOutput;
     
+    // the charset of the program's input and output, null for the default
+    private Charset charset;
+    
+    // a directory searched for input files before the defaults, or null
+    private File searchDir;
+    
+    // a directory searched for format files before the defaults, or null
+    private File formatDir;
+    
+    // the length at which the program wraps its output lines, or 0
+    private int wrapLength;
+    
+    // true, if the wrap length counts bytes
+    private boolean wrapBytes;
+    
+    // the variables of the kpathsea search paths for input files
+    private static final String[] SEARCH_PATH_VARIABLES = {
+        "TEXINPUTS", "BIBINPUTS", "BSTINPUTS", "INDEXSTYLE"
+    };
+    
     /**
      * Creates a new command runner.
      */
@@ -64,12 +127,81 @@ public class ExternalProgram {
         this.dir = dir;
         this.process = null;
         this.consoleOutput = console;
+        this.charset = null;
+        this.mergeErrors = false;
+        this.searchDir = null;
+        this.formatDir = null;
+        this.wrapLength = 0;
+    }
+
+    /**
+     * Sets whether the standard error of the program is read together
+     * with the standard output, in the order the program writes them. By
+     * default the standard error is read separately and appended to the
+     * standard output.
+     * 
+     * @param merge true to merge the standard error into the standard output
+     */
+    public void setMergeErrors(boolean merge) {
+        this.mergeErrors = merge;
+    }
+
+    /**
+     * Sets the charset the program reads and writes. Unknown charsets are
+     * ignored and the platform default is used.
+     * 
+     * @param charsetName name of the charset or null for the default
+     */
+    public void setCharset(String charsetName) {
+        try {
+            this.charset = charsetName != null ? Charset.forName(charsetName) : null;
+        } catch (IllegalArgumentException e) {
+            this.charset = null;
+        }
+    }
+
+    /**
+     * Sets a directory, where the program looks for input files before
+     * its default search paths, e.g. the source folder of a document when
+     * the program runs in another folder. The directory is prepended to
+     * the kpathsea search paths of TeX, BibTeX and makeindex.
+     * 
+     * @param dir the directory or null to use the default search paths
+     */
+    public void setSearchPath(File dir) {
+        this.searchDir = dir;
+    }
+
+    /**
+     * Sets a directory, where TeX looks for format files before its
+     * default search path. The directory is prepended to TEXFORMATS.
+     * 
+     * @param dir the directory or null to use the default search path
+     */
+    public void setFormatPath(File dir) {
+        this.formatDir = dir;
+    }
+
+    /**
+     * Sets the length at which the program wraps the lines of its standard
+     * output. The wrapped lines are joined again before they are passed to
+     * the listener.
+     * 
+     * @param length the length of the wrapped lines, or 0 if the program
+     *  doesn't wrap its lines
+     * @param bytes true, if the length counts bytes; false, if it counts
+     *  characters
+     */
+    public void setLineWrap(int length, boolean bytes) {
+        this.wrapLength = length;
+        this.wrapBytes = bytes;
     }
 
     /**
      * Force termination of the running process.
      */
     public void stop() {
+        Process process = this.process;
         if (process != null) {
             process.destroy();
             // can't null the process here, because run()-method of this class is still executing
@@ -88,7 +220,8 @@ public class ExternalProgram {
         StringWriter store = new StringWriter();
         try {
             
-            InputStreamReader isr = new InputStreamReader(is);
+            InputStreamReader isr = new InputStreamReader(is,
+                    charset != null ? charset : Charset.defaultCharset());
             BufferedReader br = new BufferedReader(isr);
             String line = null;
 
@@ -115,7 +248,21 @@ public class ExternalProgram {
      * @throws Exception
      */
     public String run(String[] queryMessage) throws Exception {
-        return run(true, queryMessage);
+        return run(true, queryMessage, null);
+    }
+
+    /**
+     * Runs the external program as a process and waits 
+     * for the process to finish execution. The standard output is passed
+     * to the listener while the program is running.
+     * 
+     * @param queryMessage text which will trigger the query dialog
+     * @param listener receives the standard output line by line
+     * @return the text produced to standard error by the process
+     * @throws Exception
+     */
+    public String run(String[] queryMessage, OutputListener listener) throws Exception {
+        return run(true, queryMessage, listener);
     }
 
     /**
@@ -126,7 +273,7 @@ public class ExternalProgram {
      * @throws Exception
      */
     public String run() throws Exception {
-        return run(true, null);
+        return run(true, null, null);
     }
     
     /**
@@ -135,13 +282,14 @@ public class ExternalProgram {
      * 
      * @param wait if true, this method will block until
      *             the process has finished execution
+     * @param queryMessage text which will trigger the query dialog
+     * @param listener receives the standard output line by line instead
+     *             of returning it, or null
      * @return the text produced to standard output by the process
      * @throws IOException 
      */
-    protected String run(boolean wait, String[] queryMessage) throws IOException {
+    protected String run(boolean wait, String[] queryMessage, final OutputListener listener) throws IOException {
         
-        String output = null;
-        String errorOutput = null;
         if ((command != null) && (dir != null)) {
             
         	StringBuffer commandSB = new StringBuffer();
@@ -151,90 +299,119 @@ public class ExternalProgram {
         	}
         	
             BuilderRegistry.printToConsole("running: " + commandSB.toString());
-            Runtime rt = Runtime.getRuntime();
             
             // Add builder program path to environmet variables.
             // This is needed at least on Mac OS X, where Eclipse overwrites
             // the "path" environment variable, and xelatex needs its directory in the path.
-            Properties envProp = PathUtils.getEnv();
+            Properties envProp = PathUtils.getEnv(TexlipseProperties.BUILD_ENV_SETTINGS);
             int index = command[0].lastIndexOf(File.separatorChar);
             if (index > 0) {
 	            String commandPath = command[0].substring(0, index);
 	            String key = PathUtils.findPathKey(envProp);
 	            envProp.setProperty(key, envProp.getProperty(key) + File.pathSeparatorChar + commandPath);
             }
+            if (searchDir != null) {
+                // the trailing separator keeps the default search path
+                for (String key : SEARCH_PATH_VARIABLES) {
+                    String value = envProp.getProperty(key);
+                    envProp.setProperty(key, searchDir.getAbsolutePath() + File.pathSeparatorChar
+                            + (value != null ? value : ""));
+                }
+            }
+            if (formatDir != null) {
+                String value = envProp.getProperty("TEXFORMATS");
+                envProp.setProperty("TEXFORMATS", formatDir.getAbsolutePath() + File.pathSeparatorChar
+                        + (value != null ? value : ""));
+            }
             
-            String[] env = PathUtils.mergeEnvFromPrefs(envProp, TexlipseProperties.BUILD_ENV_SETTINGS);
-            process = rt.exec(command, env, dir);
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.directory(dir);
+            pb.environment().clear();
+            for (String key : envProp.stringPropertyNames()) {
+                pb.environment().put(key, envProp.getProperty(key));
+            }
+            pb.redirectErrorStream(mergeErrors);
+            process = pb.start();
             
         } else {
             throw new IllegalStateException();
         }
-
-        final StringBuffer thErrorOutput = new StringBuffer();
-        final StringBuffer thOutput = new StringBuffer();
+        
+        final Process process = this.process;
+        // the scanners print to the console buffer of the caller, if any
+        final StringBuffer consoleBuffer = BuilderRegistry.getConsoleBuffer();
         
         // scan the standard output stream
         final OutputScanner scanner = new OutputScanner(process.getInputStream(), 
-                process.getOutputStream(), queryMessage, consoleOutput);
+                process.getOutputStream(), queryMessage, consoleOutput, listener, charset);
+        scanner.setLineWrap(wrapLength, wrapBytes);
+        Future<String> outputTask = scannerExecutor.submit(new Callable<String>() {
+            public String call() {
+                BuilderRegistry.setConsoleBuffer(consoleBuffer);
+                try {
+                    if (!scanner.scanOutput()) {
+                        // Abort by user: Abort build
+                        process.destroy();
+                        return null;
+                    }
+                    return listener == null ? scanner.getText() : "";
+                } finally {
+                    BuilderRegistry.setConsoleBuffer(null);
+                }
+            }
+        });
         
         // scan also the standard error stream
-        final OutputScanner errorScanner = new OutputScanner(process.getErrorStream(), 
-                process.getOutputStream(), queryMessage, consoleOutput);
-        
-        final Thread errorThread = new Thread() {
-            public void run() {
-                if (errorScanner.scanOutput()) {
-                    thErrorOutput.append(errorScanner.getText());
-                }
-            };
-        };
-        final Thread outputThread = new Thread() {
-            public void run() {
-                if (scanner.scanOutput()) {
-                    thOutput.append(scanner.getText());
-                } else {
-                    // Abort by user: Abort build, clear all output
-                    process.destroy();
+        Future<String> errorTask = null;
+        if (!mergeErrors) {
+            final OutputScanner errorScanner = new OutputScanner(process.getErrorStream(), 
+                    process.getOutputStream(), queryMessage, consoleOutput, null, charset);
+            errorTask = scannerExecutor.submit(new Callable<String>() {
+                public String call() {
+                    BuilderRegistry.setConsoleBuffer(consoleBuffer);
                     try {
-                        errorThread.join();
-                    } catch (InterruptedException e) {
-                        // Should not happen
-                        TexlipsePlugin.log("Output scanner interrupted", e);
+                        if (!errorScanner.scanOutput()) {
+                            process.destroy();
+                            return null;
+                        }
+                        return errorScanner.getText();
+                    } finally {
+                        BuilderRegistry.setConsoleBuffer(null);
                     }
-                    thOutput.setLength(0);
-                    thErrorOutput.setLength(0);
                 }
-            };
-        };
-
-        outputThread.start();
-        errorThread.start();
+            });
+        }
+        
+        String output = "";
+        String errorOutput = "";
         try {
+            if (wait) {
+                // the process status code is not useful here
+                while (!process.waitFor(UPDATE_INTERVAL, TimeUnit.MILLISECONDS)) {
+                    if (listener != null) {
+                        listener.update();
+                    }
+                    // the workspace changes of the builds of other threads
+                    WorkspaceChanges.runPending();
+                }
+            }
             // Wait until stream read has finished
-            errorThread.join();
-            outputThread.join();
+            output = getResult(outputTask, listener);
+            if (errorTask != null) {
+                errorOutput = getResult(errorTask, listener);
+            }
+            if (output == null || errorOutput == null) {
+                // clear all output if the user aborted the build
+                output = "";
+                errorOutput = "";
+            }
         } catch (InterruptedException e) {
-            TexlipsePlugin.log("Output scanner interrupted", e);
             // Should not happen
-        }
-
-        output = thOutput.toString();
-        errorOutput = thErrorOutput.toString();
-        
-        
-        if (wait) {
-            // the process status code is not useful here
-            //int code = 
-            try {
-                process.waitFor();
-            } catch (InterruptedException e) {
-                //Should not happen
-                TexlipsePlugin.log("Process interrupted", e);                
-            }
+            TexlipsePlugin.log("Process interrupted", e);
+            Thread.currentThread().interrupt();
         }
         
-        process = null;
+        this.process = null;
         
         // combine the error output with normal output
         // to collect information from for example makeindex
@@ -243,4 +420,30 @@ public class ExternalProgram {
         }
         return output;
     }
+    
+    /**
+     * Waits for an output scanner to finish, updating the listener
+     * meanwhile.
+     * 
+     * @param task the output scanner
+     * @param listener the listener to update or null
+     * @return the output read by the scanner, or null if the user aborted
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private static String getResult(Future<String> task, OutputListener listener)
+            throws InterruptedException {
+        while (true) {
+            try {
+                return task.get(UPDATE_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (listener != null) {
+                    listener.update();
+                }
+                WorkspaceChanges.runPending();
+            } catch (ExecutionException e) {
+                TexlipsePlugin.log("Output scanner failed", e.getCause());
+                return "";
+            }
+        }
+    }
 }
@@ -0,0 +1,444 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.builder;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IFolder;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspaceRoot;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.texlipse.TexlipsePlugin;
+import org.eclipse.texlipse.properties.TexlipseProperties;
+
+/**
+ * Keeps track of the format files that the preambles of documents are
+ * dumped into with the mylatexformat package. LaTeX started with such a
+ * format skips the preamble of the document, so the packages are not
+ * loaded again on every run.
+ *
+ * A format is used as long as the preamble of the document has the same
+ * hash and the other files read while dumping it, like the packages and
+ * the class, have not changed. The format is dumped again otherwise. If
+ * dumping fails, e.g. because mylatexformat is not installed, the document
+ * is built without a format until its preamble changes.
+ *
+ * The formats are dumped into a folder of the temporary files folder of
+ * the project, or next to the document if the project has none. LaTeX
+ * finds them there through the TEXFORMATS search path.
+ */
+public class FormatCache {
+
+    /** Name of the folder in the temporary files folder for the formats */
+    public static final String FORMAT_FOLDER = "formats";
+
+    // added to the name of the document for the name of its format
+    private static final String FORMAT_SUFFIX = "-preamble";
+
+    // the files written while dumping a format
+    private static final String[] FORMAT_EXTS = { "fmt", "log", "fls" };
+
+    /**
+     * The settings and the workspace the cache works with. The cache of the
+     * plugin reads them from the preferences and the project properties.
+     */
+    public interface Context {
+
+        /**
+         * @return true, if the preambles are dumped into format files
+         */
+        public boolean isEnabled();
+
+        /**
+         * @return the extensions of the temporary files, which are not
+         *  inputs of a format
+         */
+        public String[] getTempFileExts();
+
+        /**
+         * @param resource the document
+         * @return the folder to dump the format of the document into
+         */
+        public File getFormatDir(IResource resource);
+
+        /**
+         * Brings the given files, written or deleted by a dump, up to date
+         * in the workspace.
+         *
+         * @param files the files
+         */
+        public void refresh(File[] files);
+    }
+
+    /**
+     * Runs the latex program that dumps a format.
+     */
+    public interface Runner {
+
+        /**
+         * Runs the command and waits for it to finish. Errors are handled
+         * by the runner; a failed dump is noticed by the missing format.
+         *
+         * @param command the command and its arguments
+         * @param dir the folder to run the command in
+         * @param resource the document
+         */
+        public void run(String[] command, File dir, IResource resource);
+    }
+
+    /**
+     * The context of the plugin's cache.
+     */
+    private static class PluginContext implements Context {
+
+        public boolean isEnabled() {
+            return TexlipsePlugin.getDefault().getPreferenceStore().getBoolean(
+                    TexlipseProperties.BUILDER_FORMAT_CACHE);
+        }
+
+        public String[] getTempFileExts() {
+            return TexlipsePlugin.getPreferenceArray(TexlipseProperties.TEMP_FILE_EXTS);
+        }
+
+        public File getFormatDir(IResource resource) {
+            IFolder folder = getFormatFolder(resource.getProject());
+            if (folder == null) {
+                return resource.getLocation().toFile().getParentFile();
+            }
+            return folder.getLocation().toFile();
+        }
+
+        public void refresh(final File[] files) {
+            try {
+                // made by the build thread for the further main files
+                WorkspaceChanges.run(new IWorkspaceRunnable() {
+                    public void run(IProgressMonitor monitor) {
+                        refreshFiles(files);
+                    }
+                }, null);
+            } catch (CoreException e) {
+                // refreshed with the rest of the project later
+            }
+        }
+
+        private void refreshFiles(File[] files) {
+            IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+            for (File file : files) {
+                try {
+                    // the folder may be new, too
+                    IContainer parent = root.getContainerForLocation(
+                            new Path(file.getParentFile().getAbsolutePath()));
+                    if (parent != null && !parent.exists()) {
+                        parent.refreshLocal(IResource.DEPTH_ZERO, null);
+                    }
+                    IFile resource = root.getFileForLocation(new Path(file.getAbsolutePath()));
+                    if (resource != null) {
+                        resource.refreshLocal(IResource.DEPTH_ZERO, null);
+                    }
+                } catch (CoreException e) {
+                    // refreshed with the rest of the project later
+                }
+            }
+        }
+    }
+
+    /**
+     * The preamble a format was dumped from.
+     */
+    private static class Format {
+        String program;
+        byte[] preambleHash;
+        // false if the dump failed
+        boolean dumped;
+        // the files read while dumping, or null if they are not known
+        BuildRecord inputs;
+    }
+
+    private static final FormatCache plugin = new FormatCache(new PluginContext());
+
+    private final Context context;
+
+    // absolute path of the format file -> the state of the format
+    private final Map<String, Format> formats = new HashMap<String, Format>();
+
+    /**
+     * Creates a cache.
+     *
+     * @param context the settings and the workspace of the cache
+     */
+    public FormatCache(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * @return the cache of the plugin
+     */
+    public static FormatCache getDefault() {
+        return plugin;
+    }
+
+    /**
+     * @param project the project
+     * @return the folder of the formats in the temporary files folder of
+     *  the project, or null if the project has no temporary files folder
+     */
+    public static IFolder getFormatFolder(IProject project) {
+        IFolder tempDir = TexlipseProperties.getProjectTempDir(project);
+        return tempDir != null ? tempDir.getFolder(FORMAT_FOLDER) : null;
+    }
+
+    /**
+     * @return true, if the preambles are dumped into format files
+     */
+    public boolean isEnabled() {
+        return context.isEnabled();
+    }
+
+    /**
+     * @param resource the document
+     * @return the job name of the format of the document
+     */
+    public static String getFormatName(IResource resource) {
+        String name = resource.getName();
+        String ext = resource.getFileExtension();
+        if (ext != null) {
+            name = name.substring(0, name.length() - ext.length() - 1);
+        }
+        return name + FORMAT_SUFFIX;
+    }
+
+    /**
+     * @param resource the document
+     * @return the folder the format of the document is dumped into, to be
+     *  added to the TEXFORMATS search path of LaTeX
+     */
+    public File getFormatDir(IResource resource) {
+        return context.getFormatDir(resource);
+    }
+
+    /**
+     * @param resource the document
+     * @return the format file of the document
+     */
+    public File getFormatFile(IResource resource) {
+        return new File(getFormatDir(resource), getFormatName(resource) + ".fmt");
+    }
+
+    /**
+     * Computes the hash of the part of the document that is dumped into the
+     * format: everything before <code>\endofdump</code> or
+     * <code>\begin{document}</code>.
+     *
+     * @param resource the document
+     * @return the hash or null if the document has no preamble
+     */
+    public static byte[] getPreambleHash(IResource resource) {
+        File file = resource.getLocation().toFile();
+        String text;
+        try {
+            byte[] contents = Files.readAllBytes(file.toPath());
+            try {
+                text = new String(contents, ((IFile) resource).getCharset());
+            } catch (UnsupportedEncodingException e) {
+                text = new String(contents);
+            } catch (CoreException e) {
+                text = new String(contents);
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        int end = text.indexOf("\\begin{document}");
+        if (end < 0) {
+            return null;
+        }
+        int dumpEnd = text.indexOf("\\endofdump");
+        if (dumpEnd >= 0 && dumpEnd < end) {
+            end = dumpEnd;
+        }
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(
+                    text.substring(0, end).getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        } catch (UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether the format of the document was dumped, or tried to be
+     * dumped, from the given preamble with the given program, and the files
+     * read while dumping have not changed since.
+     *
+     * @param resource the document
+     * @param program path of the latex program
+     * @param preambleHash the hash of the preamble
+     * @return true, if the format doesn't have to be dumped
+     */
+    public synchronized boolean isCurrent(IResource resource, String program,
+            byte[] preambleHash) {
+        File formatFile = getFormatFile(resource);
+        Format format = formats.get(formatFile.getAbsolutePath());
+        if (format == null || !format.program.equals(program)
+                || !Arrays.equals(format.preambleHash, preambleHash)) {
+            return false;
+        }
+        return !format.dumped || (formatFile.isFile()
+                && (format.inputs == null || format.inputs.isUpToDate()));
+    }
+
+    /**
+     * Dumps the preamble of the document into its format file and records
+     * the result. LaTeX runs in the folder of the document, so that the
+     * files of the preamble are found, and writes the format into the
+     * format folder.
+     *
+     * @param resource the document
+     * @param program path of the latex program
+     * @param baseFormat the format the program loads by default, e.g. latex
+     * @param preambleHash the hash of the dumped preamble
+     * @param runner runs the latex program
+     */
+    public void dump(IResource resource, String program, String baseFormat,
+            byte[] preambleHash, Runner runner) {
+        File sourceDir = resource.getLocation().toFile().getParentFile();
+        File formatDir = getFormatDir(resource);
+        File[] files = getFormatFiles(resource);
+        for (File file : files) {
+            file.delete();
+        }
+        formatDir.mkdirs();
+
+        String name = getFormatName(resource);
+        String[] command;
+        if (formatDir.equals(sourceDir)) {
+            command = new String[] {
+                new File(program).getAbsolutePath(), "-ini", "-interaction=nonstopmode",
+                "-recorder", "-jobname=" + name, "&" + baseFormat, "mylatexformat.ltx",
+                resource.getName()
+            };
+        } else {
+            command = new String[] {
+                new File(program).getAbsolutePath(), "-ini", "-interaction=nonstopmode",
+                "-recorder", "-output-directory=" + formatDir.getAbsolutePath(),
+                "-jobname=" + name, "&" + baseFormat, "mylatexformat.ltx",
+                resource.getName()
+            };
+        }
+        runner.run(command, sourceDir, resource);
+
+        context.refresh(files);
+        setDumped(resource, program, preambleHash);
+    }
+
+    /**
+     * Records the result of dumping the format of the document. The files
+     * read while dumping are taken from the recorder file of the dump.
+     *
+     * @param resource the document
+     * @param program path of the latex program
+     * @param preambleHash the hash of the dumped preamble
+     */
+    private synchronized void setDumped(IResource resource, String program,
+            byte[] preambleHash) {
+        File formatFile = getFormatFile(resource);
+        Format format = new Format();
+        format.program = program;
+        format.preambleHash = preambleHash;
+        format.dumped = formatFile.isFile();
+        if (format.dumped) {
+            File flsFile = new File(formatFile.getParentFile(), getFormatName(resource) + ".fls");
+            format.inputs = BuildRecord.read(flsFile, null, context.getTempFileExts());
+            if (format.inputs != null) {
+                // the document itself is covered by the preamble hash
+                format.inputs.removeInput(resource.getLocation().toFile());
+            }
+        }
+        formats.put(formatFile.getAbsolutePath(), format);
+    }
+
+    /**
+     * Forgets the format of the document.
+     *
+     * @param resource the document
+     */
+    public synchronized void remove(IResource resource) {
+        formats.remove(getFormatFile(resource).getAbsolutePath());
+    }
+
+    /**
+     * Forgets the format of the document and deletes the files of its dump.
+     * The format folder is deleted, too, once it is empty.
+     *
+     * @param resource the document
+     */
+    public void delete(IResource resource) {
+        remove(resource);
+        File[] files = getFormatFiles(resource);
+        for (File file : files) {
+            file.delete();
+        }
+        File formatDir = getFormatDir(resource);
+        if (!formatDir.equals(resource.getLocation().toFile().getParentFile())) {
+            // only succeeds if the folder is empty
+            formatDir.delete();
+        }
+        context.refresh(files);
+    }
+
+    /**
+     * @param resource the document
+     * @return the files written while dumping the format of the document
+     */
+    private File[] getFormatFiles(IResource resource) {
+        File formatDir = getFormatDir(resource);
+        String name = getFormatName(resource);
+        File[] files = new File[FORMAT_EXTS.length];
+        for (int i = 0; i < FORMAT_EXTS.length; i++) {
+            files[i] = new File(formatDir, name + '.' + FORMAT_EXTS[i]);
+        }
+        return files;
+    }
+
+    /**
+     * Returns the format to run latex with, as decided by the last
+     * {@link #dump(IResource, String, String, byte[], Runner)}.
+     *
+     * @param resource the document
+     * @param program path of the latex program
+     * @return the job name of the format or null if there is no usable format
+     */
+    public synchronized String getFormat(IResource resource, String program) {
+        File formatFile = getFormatFile(resource);
+        Format format = formats.get(formatFile.getAbsolutePath());
+        if (format == null || !format.dumped || !format.program.equals(program)
+                || !formatFile.isFile()) {
+            return null;
+        }
+        return getFormatName(resource);
+    }
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.builder;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Looks up files in a list of kpathsea search paths without starting
+ * a kpsewhich process for every file. The paths are searched in order,
+ * the first match wins. Paths marked for subdirectory search
+ * (<code>dir//</code>) are indexed by file name the first time they are
+ * needed, so later lookups only cost a hash lookup.
+ *
+ * The search paths are usually obtained once with
+ * {@link KpsewhichRunner#getSearchPaths(org.eclipse.core.resources.IResource, String)},
+ * but any directory tree laid out like a texmf tree works as well.
+ */
+public class KpathSearch {
+
+    private final Kpath[] paths;
+    private final File baseDir;
+
+    // file name -> file, one map for each recursive search path
+    private final Map<Integer, Map<String, File>> treeIndex;
+
+    /**
+     * Creates a new search over the given paths.
+     *
+     * @param paths the search paths in kpathsea order
+     * @param baseDir directory that relative search paths (like ".") are
+     *  resolved against, or null to skip relative search paths
+     */
+    public KpathSearch(Kpath[] paths, File baseDir) {
+        this.paths = paths != null ? paths : new Kpath[0];
+        this.baseDir = baseDir;
+        this.treeIndex = new HashMap<Integer, Map<String, File>>();
+    }
+
+    /**
+     * Finds the file with the given name.
+     *
+     * @param name file name including the extension, e.g. "amsmath.sty"
+     * @return the file or null if it is not in any of the search paths
+     */
+    public synchronized File findFile(String name) {
+        for (int i = 0; i < paths.length; i++) {
+            File dir = resolve(paths[i].path);
+            if (dir == null || !dir.isDirectory()) {
+                continue;
+            }
+            File f = new File(dir, name);
+            if (f.isFile()) {
+                return f;
+            }
+            if (paths[i].searchChildren) {
+                Map<String, File> index = treeIndex.get(i);
+                if (index == null) {
+                    index = new HashMap<String, File>();
+                    indexTree(dir, index);
+                    treeIndex.put(i, index);
+                }
+                f = index.get(name);
+                if (f != null) {
+                    return f;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of search paths
+     */
+    public int getPathCount() {
+        return paths.length;
+    }
+
+    /**
+     * Resolves a possibly relative search path.
+     *
+     * @param dir search path
+     * @return absolute directory or null if the path can not be resolved
+     */
+    private File resolve(File dir) {
+        if (dir.isAbsolute()) {
+            return dir;
+        }
+        return baseDir != null ? new File(baseDir, dir.getPath()) : null;
+    }
+
+    /**
+     * Recursively adds all files below the given directory to the index.
+     * Files directly in a directory take precedence over those in its
+     * subdirectories.
+     *
+     * @param dir the directory to index
+     * @param index the index to fill
+     */
+    private static void indexTree(File dir, Map<String, File> index) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.isFile() && !index.containsKey(f.getName())) {
+                index.put(f.getName(), f);
+            }
+        }
+        for (File f : files) {
+            if (f.isDirectory() && !f.getName().startsWith(".")) {
+                indexTree(f, index);
+            }
+        }
+    }
+}
@@ -57,6 +57,10 @@ public class KpsewhichRunner implements ProgramRunner {
 		return null;
 	}
 
+	public String[] getWrittenFormats() {
+		return new String[0];
+	}
+
 	public String getProgramArguments() {
 		// Not really applicable to us
 		return "(Not applicable)";
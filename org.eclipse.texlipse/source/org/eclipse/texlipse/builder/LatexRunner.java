@@ -10,15 +10,19 @@
  *******************************************************************************/
 package org.eclipse.texlipse.builder;
 
+import java.io.File;
+import java.util.Arrays;
 import java.util.Stack;
 import java.util.StringTokenizer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.texlipse.TexlipsePlugin;
@@ -35,16 +39,40 @@ import org.eclipse.texlipse.properties.TexlipseProperties;
 public class LatexRunner extends AbstractProgramRunner {
     
     private static final int MAX_LINE_LENGTH = 79;
+    
+    private static final Pattern LATEXERROR = Pattern.compile("^! LaTeX Error: (.*)$");
+    private static final Pattern LATEXCERROR = Pattern.compile("^(.+?\\.\\w{3}):(\\d+): (.+)$");
+    private static final Pattern TEXERROR = Pattern.compile("^!\\s+(.*)$");
+    private static final Pattern FULLBOX = Pattern.compile("^(?:Over|Under)full \\\\[hv]box .* at lines? (\\d+)-?-?(\\d+)?");
+    private static final Pattern WARNING = Pattern.compile("^.+[Ww]arning.*: (.*)$");
+    private static final Pattern ATLINE =  Pattern.compile("^l\\.(\\d+)(.*)$");
+    private static final Pattern ATLINE2 =  Pattern.compile(".* line (\\d+).*");
+    private static final Pattern NOBIBFILE = Pattern.compile("^No file .+\\.bbl\\.$");
+    private static final Pattern NOTOCFILE = Pattern.compile("^No file .+\\.toc\\.$");
+    
+    // what the log parser expects from the next line
+    private static final int EXPECT_NONE = 0;
+    private static final int EXPECT_ERROR_PART = 1;
+    private static final int EXPECT_WARNING_PART = 2;
+    private static final int EXPECT_FOLLOWING = 3;
+    private static final int EXPECT_SKIP = 4;
 	
 	private Stack<String> parsingStack;
     private boolean alreadyShowError;
     
+    // dumps the preamble into a format file
+    private ExternalProgram formatRun;
+    
+    // true, if the next run doesn't need to write the output
+    private boolean draft;
+    
     /**
      * Create a new ProgramRunner.
      */
     public LatexRunner() {
         super();
         this.parsingStack = new Stack<String>();
+        this.formatRun = new ExternalProgram();
     }
     
     protected String getWindowsProgramName() {
@@ -67,6 +95,206 @@ public class LatexRunner extends AbstractProgramRunner {
         return TexlipseProperties.INPUT_FORMAT_TEX;
     }
     
+    /**
+     * LaTeX runs in the folder of the document, so that the paths of the
+     * inputs are relative to it, and writes its files with the
+     * <code>-output-directory</code> option instead.
+     */
+    protected boolean runsInBuildDir() {
+        return false;
+    }
+    
+    /**
+     * Adds the <code>-recorder</code> option, so that the inputs of the
+     * build are listed in the .fls file for the up-to-date check, the
+     * output directory when building into the temporary files folder, and
+     * the format of the preamble if there is one.
+     */
+    protected String getArguments(IResource resource) {
+        String args = super.getArguments(resource);
+        if (args != null && args.indexOf("-recorder") < 0) {
+            args = "-recorder " + args;
+        }
+        String chapter = (String) TexlipseProperties.getSessionProperty(resource.getProject(),
+                TexlipseProperties.SESSION_INCLUDE_ONLY);
+        if (args != null && chapter != null) {
+            args = addIncludeOnly(args, resource, chapter);
+        }
+        if (args != null && draft) {
+            args = getDraftOption() + " " + args;
+        }
+        if (args != null && args.indexOf("-output-directory") < 0) {
+            IContainer buildDir = OutputFileManager.getBuildDir(resource);
+            if (!buildDir.equals(resource.getParent())) {
+                String option = "-output-directory="
+                        + buildDir.getLocation().toFile().getAbsolutePath();
+                if (option.indexOf(' ') >= 0) {
+                    option = "\"" + option + "\"";
+                }
+                args = option + " " + args;
+            }
+        }
+        if (args != null && args.indexOf("-fmt") < 0 && getFormatDir(resource) != null) {
+            String format = FormatCache.getDefault().getFormat(resource, getProgramPath());
+            if (format != null) {
+                String option = "-fmt=" + format;
+                if (format.indexOf(' ') >= 0) {
+                    option = "\"" + option + "\"";
+                }
+                args = option + " " + args;
+            }
+        }
+        return args;
+    }
+    
+    /**
+     * Replaces the input file in the arguments with TeX code that includes
+     * only the given chapter and then reads the input file. The job name
+     * stays the same, so the .aux files of the other chapters are read and
+     * the output replaces that of the full document.
+     * 
+     * @param args the arguments
+     * @param resource the input file
+     * @param chapter the name of the chapter as given to <code>\include</code>
+     * @return the new arguments, or the same if the input file was not found
+     */
+    private static String addIncludeOnly(String args, IResource resource, String chapter) {
+        String name = resource.getName();
+        int index = args.lastIndexOf(name);
+        if (index < 0 || (index > 0 && args.charAt(index - 1) != ' ')
+                || name.indexOf(' ') >= 0 || chapter.indexOf(' ') >= 0) {
+            return args;
+        }
+        String ext = resource.getFileExtension();
+        String jobName = ext != null ? name.substring(0, name.length() - ext.length() - 1) : name;
+        return args.substring(0, index) + "-jobname=" + jobName
+                + " \"\\includeonly{" + chapter + "}\\input{" + name + "}\""
+                + args.substring(index + name.length());
+    }
+    
+    /**
+     * Returns the option that makes the program skip writing the output
+     * and reading the images, so that a run only updates the .aux and the
+     * other files for the next run.
+     * 
+     * @return the option, or null if the program has no such option
+     */
+    protected String getDraftOption() {
+        return null;
+    }
+    
+    /**
+     * Sets whether the following runs only update the files for the next
+     * run, without writing the output.
+     * 
+     * @param draft true to skip the output, false for normal runs
+     * @return true, if the following runs are draft runs; false if the
+     *  program doesn't support them
+     */
+    public boolean setDraft(boolean draft) {
+        this.draft = draft && getDraftOption() != null;
+        return this.draft;
+    }
+    
+    /**
+     * Returns the format that the program loads by default, which the
+     * preamble is dumped on top of.
+     * 
+     * @return the name of the format, or null if the preamble can't be
+     *  dumped with this program
+     */
+    protected String getBaseFormat() {
+        return getUnixProgramName();
+    }
+    
+    /**
+     * Dumps the preamble of the document into a format file with the
+     * mylatexformat package, unless the format from an earlier build is
+     * still current. Does nothing if the format cache is disabled.
+     * 
+     * @param resource the document
+     */
+    public void updateFormat(IResource resource) {
+        FormatCache cache = FormatCache.getDefault();
+        String baseFormat = getBaseFormat();
+        if (baseFormat == null || !cache.isEnabled()) {
+            return;
+        }
+        String programPath = getProgramPath();
+        byte[] hash = FormatCache.getPreambleHash(resource);
+        if (hash == null) {
+            cache.remove(resource);
+            return;
+        }
+        if (cache.isCurrent(resource, programPath, hash)) {
+            return;
+        }
+        
+        String name = FormatCache.getFormatName(resource);
+        BuilderRegistry.printToConsole(TexlipsePlugin.getResourceString("builderFormatDump")
+                .replaceAll("%s", name));
+        cache.dump(resource, programPath, baseFormat, hash, new FormatCache.Runner() {
+            public void run(String[] command, File dir, IResource resource) {
+                runFormat(command, dir, resource);
+            }
+        });
+        if (cache.getFormat(resource, programPath) == null) {
+            BuilderRegistry.printToConsole(TexlipsePlugin.getResourceString("builderFormatDumpFailed")
+                    .replaceAll("%s", name));
+        }
+    }
+    
+    /**
+     * Runs the command that dumps the preamble, so that it can be stopped
+     * with the build.
+     * 
+     * @param command the command
+     * @param dir the folder to run the command in
+     * @param resource the document
+     */
+    private void runFormat(String[] command, File dir, IResource resource) {
+        String console = null;
+        if (TexlipsePlugin.getDefault().getPreferenceStore().getBoolean(TexlipseProperties.BUILDER_CONSOLE_OUTPUT)) {
+            console = getProgramName();
+        }
+        formatRun.setup(command, dir, console);
+        formatRun.setMergeErrors(true);
+        if (resource instanceof IFile) {
+            try {
+                formatRun.setCharset(((IFile) resource).getCharset());
+            } catch (CoreException e) {
+                // use the default charset
+            }
+        }
+        try {
+            formatRun.run();
+        } catch (Exception e) {
+            TexlipsePlugin.log("Dumping the preamble", e);
+        } finally {
+            formatRun.stop();
+        }
+    }
+    
+    /**
+     * Returns the format folder of the document, when the preambles are
+     * dumped into formats.
+     */
+    protected File getFormatDir(IResource resource) {
+        FormatCache cache = FormatCache.getDefault();
+        if (getBaseFormat() == null || !cache.isEnabled()) {
+            return null;
+        }
+        return cache.getFormatDir(resource);
+    }
+    
+    /**
+     * Kills the program, also while dumping the preamble.
+     */
+    public void stop() {
+        super.stop();
+        formatRun.stop();
+    }
+    
     /**
      * Used by the DviBuilder to figure out what the latex program produces.
      * 
@@ -139,41 +367,189 @@ public class LatexRunner extends AbstractProgramRunner {
      * @return true, if error messages were found in the output, false otherwise
      */
     protected boolean parseErrors(IResource resource, String output) {
+        // the lines of the output were not joined while it was read
+        OutputParser parser = new LogParser(resource, true);
+        StringTokenizer st = new StringTokenizer(output, "\r\n");
+        while (st.hasMoreTokens()) {
+            parser.parseLine(st.nextToken());
+        }
+        return parser.finish();
+    }
+    
+    /**
+     * Creates a parser for the output of the LaTeX program, which is fed
+     * the output while LaTeX is running.
+     * 
+     * @param resource the input file that is processed
+     * @return the parser
+     */
+    protected OutputParser createOutputParser(IResource resource) {
+        return new LogParser(resource, false);
+    }
+    
+    /**
+     * TeX wraps the lines of its output at 79 bytes, which may split a
+     * character in two.
+     */
+    protected int getLineWrapLength() {
+        return MAX_LINE_LENGTH;
+    }
+    
+    /**
+     * Parser for the output of the LaTeX program. Some messages continue
+     * on the following line; the parser remembers what it expects from the
+     * next line instead of reading ahead.
+     */
+    private class LogParser implements OutputParser {
         
-        TexlipseProperties.setSessionProperty(resource.getProject(), TexlipseProperties.SESSION_LATEX_RERUN, null);
-        TexlipseProperties.setSessionProperty(resource.getProject(), TexlipseProperties.SESSION_BIBTEX_RERUN, null);
+        private final IResource resource;
+        // false for the further main files of the project, whose builds
+        // don't share the session properties of the main document
+        private final boolean mainDocument;
         
-        parsingStack.clear();
-        boolean errorsFound = false;
-        boolean citeNotfound = false;
-        alreadyShowError = false;
-        StringTokenizer st = new StringTokenizer(output, "\r\n");
-
-        final Pattern LATEXERROR = Pattern.compile("^! LaTeX Error: (.*)$");
-        final Pattern LATEXCERROR = Pattern.compile("^(.+?\\.\\w{3}):(\\d+): (.+)$");
-        final Pattern TEXERROR = Pattern.compile("^!\\s+(.*)$");
-        final Pattern FULLBOX = Pattern.compile("^(?:Over|Under)full \\\\[hv]box .* at lines? (\\d+)-?-?(\\d+)?");
-        final Pattern WARNING = Pattern.compile("^.+[Ww]arning.*: (.*)$");
-        final Pattern ATLINE =  Pattern.compile("^l\\.(\\d+)(.*)$");
-        final Pattern ATLINE2 =  Pattern.compile(".* line (\\d+).*");
-        final Pattern NOBIBFILE = Pattern.compile("^No file .+\\.bbl\\.$");
-        final Pattern NOTOCFILE = Pattern.compile("^No file .+\\.toc\\.$");
+        private boolean errorsFound = false;
+        private boolean citeNotfound = false;
         
-        String line;
-        boolean hasProblem = false;
-        String error = null;
-        int severity = IMarker.SEVERITY_WARNING;
-        int linenr = -1;
-        String occurance = null;
+        private boolean hasProblem = false;
+        private String error = null;
+        private int severity = IMarker.SEVERITY_WARNING;
+        private int linenr = -1;
+        private String occurance = null;
         
-        while (st.hasMoreTokens()) {
-            line = st.nextToken();
+        // true, if the lines wrapped by TeX are joined by the parser
+        private final boolean joinWrapped;
+        // a line wrapped by TeX, waiting for its continuation
+        private String wrapped = null;
+        // what to do with the next line
+        private int expect = EXPECT_NONE;
+        // the line whose message continues on the next line
+        private String expectLine = null;
+        
+        /**
+         * @param resource the input file that is processed
+         * @param joinWrapped true, if the lines wrapped by TeX have not been
+         *  joined yet
+         */
+        public LogParser(IResource resource, boolean joinWrapped) {
+            this.resource = resource;
+            this.joinWrapped = joinWrapped;
+            this.mainDocument = !Arrays.asList(TexlipseProperties.getProjectBuildTargets(
+                    resource.getProject())).contains(resource);
+            setBibtexRerun(null);
+            parsingStack.clear();
+            alreadyShowError = false;
+        }
+        
+        /**
+         * Tells the builder whether bibtex has to run for the main document.
+         * The further main files decide this from their .aux files.
+         * 
+         * @param value "true" or null
+         */
+        private void setBibtexRerun(String value) {
+            if (mainDocument) {
+                TexlipseProperties.setSessionProperty(resource.getProject(),
+                        TexlipseProperties.SESSION_BIBTEX_RERUN, value);
+            }
+        }
+        
+        public void parseLine(String rawLine) {
+            // the output is tokenized at both kinds of line terminators
+            int start = 0;
+            int end;
+            while ((end = rawLine.indexOf('\r', start)) >= 0) {
+                nextToken(rawLine.substring(start, end));
+                start = end + 1;
+            }
+            nextToken(rawLine.substring(start));
+        }
+        
+        public boolean finish() {
+            if (wrapped != null) {
+                String line = wrapped;
+                wrapped = null;
+                parse(line);
+            }
+            if (hasProblem) {
+                // We have a not reported problem
+                addProblemMarker(error, occurance, linenr, severity, resource, false);
+                hasProblem = false;
+            }
+            return errorsFound;
+        }
+        
+        private void nextToken(String token) {
+            if (token.length() == 0) {
+                return;
+            }
+            if (expect != EXPECT_NONE) {
+                int e = expect;
+                expect = EXPECT_NONE;
+                continueMessage(e, token);
+                return;
+            }
+            String line = wrapped != null ? wrapped + token : token;
             //Add more lines if line length is a multiple of 79 and
             //it does not end with ...
-            while (!line.endsWith("...") && st.hasMoreTokens() 
-            		&& line.length() % MAX_LINE_LENGTH == 0) {
-            	line = line + st.nextToken();
+            if (joinWrapped && !line.endsWith("...") && line.length() % MAX_LINE_LENGTH == 0) {
+                wrapped = line;
+                return;
+            }
+            wrapped = null;
+            parse(line);
+        }
+        
+        /**
+         * Parses the line following a message that continues on it.
+         * 
+         * @param what what the line is expected to contain
+         * @param nextLine the line
+         */
+        private void continueMessage(int what, String nextLine) {
+            switch (what) {
+            case EXPECT_ERROR_PART:
+                String part2 = nextLine.trim();
+                if (part2.length() > 0 && Character.isLowerCase(part2.charAt(0))) {
+                    error += ' ' + part2;
+                }
+                updateParsedFile(part2);
+                break;
+            case EXPECT_WARNING_PART:
+                nextLine = nextLine.replaceAll(" {2,}", " ");
+                Matcher pM = ATLINE2.matcher(nextLine);
+                if (pM.matches()) {
+                    linenr = Integer.parseInt(pM.group(1));
+                }
+                updateParsedFile(nextLine);
+                error += nextLine;
+                if (linenr != -1) {
+                    addProblemMarker(expectLine, occurance, linenr, severity,
+                            resource, false);
+                    hasProblem = false;
+                    linenr = -1;
+                }
+                break;
+            case EXPECT_FOLLOWING:
+                int index = expectLine.indexOf(' ');
+                error += " " + expectLine.substring(index).trim() + " (followed by: "
+                        + nextLine.trim() + ")";
+                addProblemMarker(error, occurance, linenr, severity, resource,
+                        false);
+                linenr = -1;
+                hasProblem = false;
+                break;
+            default:
+                // the line is skipped
             }
+            expectLine = null;
+        }
+        
+        /**
+         * Parses one (unwrapped) line of the output.
+         * 
+         * @param line the line
+         */
+        private void parse(String line) {
             line = line.replaceAll(" {2,}", " ").trim();
             Matcher m = LATEXCERROR.matcher(line);
             if (m.matches()) {
@@ -184,7 +560,7 @@ public class LatexRunner extends AbstractProgramRunner {
                     //Add the file to the stack
                     parsingStack.push("(" + m.group(1));
                 }
-                continue;
+                return;
             }
             m = TEXERROR.matcher(line);
             if (m.matches() && line.toLowerCase().indexOf("warning") == -1) {
@@ -201,26 +577,19 @@ public class LatexRunner extends AbstractProgramRunner {
                 if (m2.matches()) {
                     // LaTex error
                     error = m2.group(1);
-
-        
-                    String part2 = st.nextToken().trim();
-                    
-                    if (Character.isLowerCase(part2.charAt(0))) {
-                        error += ' ' + part2;
-                    }
-                    updateParsedFile(part2);
-                    continue;
+                    expect = EXPECT_ERROR_PART;
+                    return;
                 }
                 if (line.startsWith("! Undefined control sequence.")){
                     // Undefined Control Sequence
                     error = "Undefined control sequence: ";
-                    continue;
+                    return;
                 }
                 m2 = WARNING.matcher(line);
                 if (m2.matches())
                     severity = IMarker.SEVERITY_WARNING;
                 error = m.group(1);
-                continue;
+                return;
             }
             m = WARNING.matcher(line);
             if (m.matches()){
@@ -231,61 +600,40 @@ public class LatexRunner extends AbstractProgramRunner {
                     hasProblem = false;
                 }
                 if (line.indexOf("Label(s) may have changed.") > -1) {
-                    // prepare to re-run latex
-                    TexlipseProperties.setSessionProperty(resource.getProject(),
-                            TexlipseProperties.SESSION_LATEX_RERUN, "true");
-                    continue;
+                    // the builder reruns latex when the .aux files change
+                    return;
                 }
                 else if (line.indexOf("There were undefined") > -1) {
                     if (citeNotfound) {
                         // prepare to run bibtex
-                        TexlipseProperties.setSessionProperty(resource.getProject(),
-                                TexlipseProperties.SESSION_BIBTEX_RERUN, "true");
+                        setBibtexRerun("true");
                     }
-                    continue;
+                    return;
                 }
 
                 // Ignore undefined references because they are
                 // found by the parser
                 if (line.indexOf("Warning: Reference ") > -1)
-                    continue;
+                    return;
                 if (line.indexOf("Warning: Citation ") > -1) {
                     citeNotfound = true;
-                    continue;
+                    return;
                 }
                 severity = IMarker.SEVERITY_WARNING;
                 occurance = determineSourceFile();
                 hasProblem = true;
+                error = m.group(1);
+                //Try to get the line number
+                Matcher pM = ATLINE2.matcher(line);
+                if (pM.matches()) {
+                    linenr = Integer.parseInt(pM.group(1));
+                }
                 if (line.startsWith("LaTeX Warning: ") || line.indexOf("pdfTeX warning") != -1) {
-                    error = m.group(1);
-                    //Try to get the line number
-                    Matcher pM = ATLINE2.matcher(line);
-                    if (pM.matches()) {
-                        linenr = Integer.parseInt(pM.group(1));
-                    }
-                    String nextLine = st.nextToken().replaceAll(" {2,}", " ");
-                    pM = ATLINE2.matcher(nextLine);
-                    if (pM.matches()) {
-                        linenr = Integer.parseInt(pM.group(1));
-                    }
-                    updateParsedFile(nextLine);
-                    error += nextLine;
-                    if (linenr != -1) {
-                        addProblemMarker(line, occurance, linenr, severity,
-                                resource, false);
-                        hasProblem = false;
-                        linenr = -1;
-                    }
-                    continue;
-                } else {
-                    error = m.group(1);
-                    //Try to get the line number
-                    Matcher pM = ATLINE2.matcher(line);
-                    if (pM.matches()) {
-                        linenr = Integer.parseInt(pM.group(1));
-                    }
-                    continue;
+                    // the message continues on the next line
+                    expect = EXPECT_WARNING_PART;
+                    expectLine = line;
                 }
+                return;
             }
             m = FULLBOX.matcher(line);
             if (m.matches()) {
@@ -304,36 +652,30 @@ public class LatexRunner extends AbstractProgramRunner {
                         true);
                 hasProblem = false;
                 linenr = -1;
-                continue;
+                return;
             }
             m = NOBIBFILE.matcher(line);
             if (m.matches()){
                 // prepare to run bibtex
-                TexlipseProperties.setSessionProperty(resource.getProject(),
-                        TexlipseProperties.SESSION_BIBTEX_RERUN, "true");
-                continue;
+                setBibtexRerun("true");
+                return;
             }
             m = NOTOCFILE.matcher(line);
             if (m.matches()){
-                // prepare to re-run latex
-                TexlipseProperties.setSessionProperty(resource.getProject(),
-                        TexlipseProperties.SESSION_LATEX_RERUN, "true");
-                continue;
+                // the builder reruns latex when the .toc file changes
+                return;
             }
             m = ATLINE.matcher(line);
             if (hasProblem && m.matches()) {
                 linenr = Integer.parseInt(m.group(1));
-                String part2 = st.nextToken();
-                int index = line.indexOf(' ');
-                if (index > -1) {
-	                error += " " + line.substring(index).trim() + " (followed by: "
-	                        + part2.trim() + ")";
-	                addProblemMarker(error, occurance, linenr, severity, resource,
-	                        false);
-	                linenr = -1;
-	                hasProblem = false;
-	                continue;
+                if (line.indexOf(' ') > -1) {
+                    // the error is reported with the following line
+                    expect = EXPECT_FOLLOWING;
+                    expectLine = line;
+                    return;
                 }
+                // the following line is not used
+                expect = EXPECT_SKIP;
             }
             m = ATLINE2.matcher(line);
             if (hasProblem && m.matches()) {
@@ -342,15 +684,10 @@ public class LatexRunner extends AbstractProgramRunner {
                         false);
                 linenr = -1;
                 hasProblem = false;
-                continue;
+                return;
             }
             updateParsedFile(line);
         }
-        if (hasProblem) {
-            // We have a not reported problem
-            addProblemMarker(error, occurance, linenr, severity, resource, false);
-        }
-        return errorsFound;
     }
     
     /**
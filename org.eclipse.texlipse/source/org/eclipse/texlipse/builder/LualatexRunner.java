@@ -34,6 +34,21 @@ public class LualatexRunner extends LatexRunner {
         return "lualatex";
     }
     
+    /**
+     * mylatexformat can't dump the preamble with LuaTeX, since the state
+     * of the Lua interpreter is not saved in formats.
+     */
+    protected String getBaseFormat() {
+        return null;
+    }
+    
+    /**
+     * Neither the PDF is written nor the images read.
+     */
+    protected String getDraftOption() {
+        return "-draftmode";
+    }
+    
     public String getDescription() {
         return "LuaLatex program";
     }
@@ -47,6 +47,10 @@ public class MakeindexNomenclRunner extends AbstractProgramRunner {
     public String getOutputFormat() {
     	return TexlipseProperties.OUTPUT_FORMAT_NOMENCL;
     }
+
+    public String[] getWrittenFormats() {
+        return new String[] { TexlipseProperties.OUTPUT_FORMAT_NOMENCL, "nlg" };
+    }
     
     /**
      * Parse the output of the makeindex program.
@@ -71,6 +71,10 @@ public class MakeindexRunner extends AbstractProgramRunner {
     public String getOutputFormat() {
         return TexlipseProperties.OUTPUT_FORMAT_IDX;
     }
+
+    public String[] getWrittenFormats() {
+        return new String[] { TexlipseProperties.OUTPUT_FORMAT_IDX, "ilg" };
+    }
     
     /**
      * Parse the output of the makeindex program.
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.builder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * Collects the markers reported by an external program and creates them
+ * in one workspace operation.
+ *
+ * A marker is skipped if the resource already has a marker of the same
+ * type with the same line, severity and message, or if one was already
+ * added to the sink. The existing markers of a resource are read once,
+ * when the first marker for it is added.
+ *
+ * When a project has several documents, the markers are tagged with the
+ * document whose build reported them, so that each build only replaces its
+ * own markers. Only the markers of the same document are then compared.
+ */
+public class MarkerSink {
+
+    /**
+     * A marker to create.
+     */
+    private static class PendingMarker {
+        IResource resource;
+        String type;
+        Map<String, Object> attributes;
+    }
+
+    // keys of the existing and the collected markers
+    private final Set<String> known;
+    // resource path and marker type of the resources whose markers are read
+    private final Set<String> loaded;
+    private final List<PendingMarker> pending;
+    // full path of the document being built without the file extension,
+    // or null
+    private final String target;
+
+    /**
+     * Creates a new empty sink.
+     */
+    public MarkerSink() {
+        this(null);
+    }
+
+    /**
+     * Creates a new empty sink for the markers of the given document.
+     *
+     * @param target full path of the document being built without the file
+     *  extension, or null to not tag the markers
+     */
+    public MarkerSink(String target) {
+        this.target = target;
+        known = new HashSet<String>();
+        loaded = new HashSet<String>();
+        pending = new ArrayList<PendingMarker>();
+    }
+
+    /**
+     * Adds a marker, unless an equal one exists already.
+     *
+     * @param resource the file where the problem occurred
+     * @param lineNumber line number or null
+     * @param message error message
+     * @param markerType the type of the marker
+     * @param severity severity of the marker
+     * @throws CoreException if the existing markers can't be read
+     */
+    public synchronized void add(IResource resource, Integer lineNumber, String message,
+            String markerType, int severity) throws CoreException {
+        if (resource == null) {
+            return;
+        }
+        String prefix = resource.getFullPath() + "\0" + markerType;
+        if (loaded.add(prefix) && resource.exists()) {
+            for (IMarker marker : resource.findMarkers(markerType, true, IResource.DEPTH_ZERO)) {
+                if (target != null && !target.equals(
+                        marker.getAttribute(TexlipseBuilder.MARKER_BUILD_TARGET, null))) {
+                    continue;
+                }
+                known.add(getKey(prefix, marker.getAttribute(IMarker.LINE_NUMBER, -1),
+                        marker.getAttribute(IMarker.SEVERITY, -1),
+                        marker.getAttribute(IMarker.MESSAGE, "")));
+            }
+        }
+        if (!known.add(getKey(prefix, lineNumber != null ? lineNumber : -1, severity, message))) {
+            return;
+        }
+
+        PendingMarker marker = new PendingMarker();
+        marker.resource = resource;
+        marker.type = markerType;
+        marker.attributes = new HashMap<String, Object>();
+        marker.attributes.put(IMarker.MESSAGE, message);
+        marker.attributes.put(IMarker.SEVERITY, Integer.valueOf(severity));
+        if (lineNumber != null) {
+            marker.attributes.put(IMarker.LINE_NUMBER, lineNumber);
+        }
+        if (target != null) {
+            marker.attributes.put(TexlipseBuilder.MARKER_BUILD_TARGET, target);
+        }
+        pending.add(marker);
+    }
+
+    /**
+     * Creates the collected markers. The sink can be used again after
+     * this, the markers already created are still known to it.
+     *
+     * @throws CoreException if the markers can't be created
+     */
+    public void flush() throws CoreException {
+        final List<PendingMarker> markers;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            markers = new ArrayList<PendingMarker>(pending);
+            pending.clear();
+        }
+        final IWorkspaceRunnable create = new IWorkspaceRunnable() {
+            public void run(IProgressMonitor monitor) throws CoreException {
+                for (PendingMarker m : markers) {
+                    if (m.resource.exists()) {
+                        m.resource.createMarker(m.type).setAttributes(m.attributes);
+                    }
+                }
+            }
+        };
+        // made by the build thread for the further main files
+        WorkspaceChanges.run(new IWorkspaceRunnable() {
+            public void run(IProgressMonitor monitor) throws CoreException {
+                ResourcesPlugin.getWorkspace().run(create, null, IWorkspace.AVOID_UPDATE, null);
+            }
+        }, null);
+    }
+
+    private static String getKey(String prefix, int line, int severity, String message) {
+        return prefix + "\0" + line + "\0" + severity + "\0" + message;
+    }
+}
@@ -10,23 +10,36 @@
  *******************************************************************************/
 package org.eclipse.texlipse.builder;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IFolder;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.IResourceProxy;
+import org.eclipse.core.resources.IResourceProxyVisitor;
+import org.eclipse.core.resources.IWorkspaceRoot;
 import org.eclipse.core.resources.IWorkspaceRunnable;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
@@ -47,20 +60,150 @@ public class OutputFileManager {
 
     private final IProject project;
     private final ProjectFileTracking tracking;
+    // the main file of a further build target, or null
+    private final IFile target;
 
     private IContainer sourceDir;
     private IFolder outputDir;
     private IFolder tempDir;
+    // true, if LaTeX writes its files straight into the temp folder
+    private boolean buildInTemp;
     private String format;
     private IFile sourceFile;
     private IFile currentSourceFile;
 
     private Set<IPath> movedFiles;
 
+    // extensions of the files that may be inputs of a document
+    private static final String[] INPUT_EXTS = {
+        "tex", "ltx", "bib", "sty", "cls", "bst", "png", "jpg", "jpeg", "pdf", "eps"
+    };
+
+    /**
+     * Moves a file in the file system. The file is renamed if possible, and
+     * copied and deleted otherwise, e.g. when moved to another file system.
+     * An existing destination file is replaced.
+     * 
+     * @param source the file to move
+     * @param dest the new location of the file
+     * @throws IOException if the file can't be moved
+     */
+    private static void moveLocalFile(File source, File dest) throws IOException {
+        try {
+            Files.move(source.toPath(), dest.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Replaces the contents of a file with those of another file, leaving
+     * the file itself in place.
+     * 
+     * @param source the file to copy
+     * @param dest the file to overwrite
+     * @throws IOException if the file can't be copied
+     */
+    private static void copyContents(File source, File dest) throws IOException {
+        FileChannel in = new FileInputStream(source).getChannel();
+        try {
+            FileChannel out = new FileOutputStream(dest).getChannel();
+            try {
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Brings the given files and folders, which have been changed in the
+     * file system, up to date in the workspace. Folders are refreshed before
+     * the files in them.
+     * 
+     * @param resources the changed files and folders
+     * @param monitor progress monitor
+     * @throws CoreException if an error occurs
+     */
+    private static void refreshResources(Collection<? extends IResource> resources,
+            IProgressMonitor monitor) throws CoreException {
+        IResource[] sorted = resources.toArray(new IResource[resources.size()]);
+        Arrays.sort(sorted, new Comparator<IResource>() {
+            public int compare(IResource o1, IResource o2) {
+                return o1.getFullPath().segmentCount() - o2.getFullPath().segmentCount();
+            }
+        });
+        for (IResource res : sorted) {
+            res.refreshLocal(IResource.DEPTH_ZERO, monitor);
+        }
+    }
+
     /**
-     * Moves a file to the output directory with a new name.
+     * Checks whether the documents of a project are built straight into the
+     * temporary files folder, using the <code>-output-directory</code>
+     * option of LaTeX. The temporary files then stay in that folder, and
+     * only the output files are moved after a build.
+     * 
+     * @param project current project
+     * @return true, if the option is enabled and the project has a
+     *  temporary files folder
+     */
+    public static boolean usesBuildDir(IProject project) {
+        return TexlipsePlugin.getDefault().getPreferenceStore().getBoolean(
+                TexlipseProperties.BUILDER_OUTPUT_DIRECTORY)
+                && TexlipseProperties.getProjectTempDir(project) != null;
+    }
+
+    /**
+     * Returns the folder, where the programs of a build write the files of
+     * a document. The further main files of a project are always built into
+     * their own temporary files folders, since they are built at the same
+     * time and may include the same files.
+     * 
+     * @param resource the file being built
+     * @return the temporary files folder of the document when building into
+     *  it, the folder of the file otherwise
+     */
+    public static IContainer getBuildDir(IResource resource) {
+        IProject project = resource.getProject();
+        if (TexlipseProperties.getProjectTempDir(project) == null) {
+            return resource.getParent();
+        }
+        if (resource instanceof IFile && Arrays.asList(TexlipseProperties
+                .getProjectBuildTargets(project)).contains(resource)) {
+            return TexlipseProperties.getTargetTempDir(project, (IFile) resource);
+        }
+        if (!usesBuildDir(project)) {
+            return resource.getParent();
+        }
+        return TexlipseProperties.getProjectTempDir(project);
+    }
+
+    /**
+     * Returns a file written by the build of a document, e.g. its .aux or
+     * .fls file.
+     * 
+     * @param resource the file being built
+     * @param ext the file extension without the dot
+     * @return the file named after the resource in the build folder
+     */
+    public static File getBuildFile(IResource resource, String ext) {
+        IPath name = new Path(resource.getName()).removeFileExtension().addFileExtension(ext);
+        return getBuildDir(resource).getLocation().append(name).toFile();
+    }
+
+    /**
+     * Moves a file to the output directory with a new name. The file is
+     * moved in the file system only, the caller has to refresh the source
+     * and the returned file.
      * 
-     * @param project the current project
      * @param sourceFile output file to be moved
      * @param destDir the destination directory of the file
      * @param destName the new name of the file
@@ -68,41 +211,35 @@ public class OutputFileManager {
      * @throws CoreException if an error occurs
      * @return file in the new location
      */
-    private static IFile moveFile(IProject project, IFile sourceFile,
+    private static IFile moveFile(IFile sourceFile,
     		IContainer destContainer, String destName,
     		IProgressMonitor monitor) throws CoreException {
     	if (sourceFile != null && sourceFile.exists() && destName != null) {
     	    final IPath destRelPath = new Path(destName);
             final IFile dest = destContainer.getFile(destRelPath);
+            File outFile = sourceFile.getLocation().toFile();
+            File destFile = dest.getLocation().toFile();
 
-            if (dest.exists()) {
-                File outFile = new File(sourceFile.getLocationURI());
-                File destFile = new File(dest.getLocationURI());
-                try {
-                    // Try to move the content instead of deleting the old file
-                    // and replace it by the new one. This is better for some
-                    // viewers like Sumatrapdf
-                    FileOutputStream out = new FileOutputStream(destFile);
-                    out.getChannel().tryLock();
-                    BufferedInputStream in = new BufferedInputStream(new FileInputStream(outFile));
-
-                    byte[] buf = new byte[4096];
-                    int l;
-                    while ((l = in.read(buf)) != -1) {
-                        out.write(buf, 0, l);
+            try {
+                if (destFile.isFile()) {
+                    try {
+                        // Try to move the content instead of deleting the old file
+                        // and replace it by the new one. This is better for some
+                        // viewers like Sumatrapdf
+                        copyContents(outFile, destFile);
+                        Files.delete(outFile.toPath());
+                    } catch (IOException e) {
+                        // try to replace the file
+                        moveLocalFile(outFile, destFile);
                     }
-                    in.close();
-                    out.close();
-                    sourceFile.delete(true, monitor);
-                } catch (IOException e) {
-                    // try to delete and move the file
-                    dest.delete(true, monitor);
-                    sourceFile.move(dest.getFullPath(), true, monitor);
                 }
-            }
-            else {
-                // move the file
-                sourceFile.move(dest.getFullPath(), true, monitor);
+                else {
+                    // move the file
+                    moveLocalFile(outFile, destFile);
+                }
+            } catch (IOException e) {
+                throw new CoreException(TexlipsePlugin.stat("Moving " + sourceFile.getName()
+                        + " to " + dest.getFullPath() + " failed", e));
             }
             monitor.worked(1);
             return dest;
@@ -120,7 +257,26 @@ public class OutputFileManager {
      * @return current output file, or null if not selected
      */
     private IFile getSelectedOutputFile() {
-        String fileName = TexlipseProperties.getOutputFileName(project);
+        return getOutputFile(target);
+    }
+
+    /**
+     * Retrieves an IFile object of the output file of the project's main
+     * file or of a further build target, no matter if the file actually
+     * exists.
+     *
+     * @param target the main file of the build target, or null for the
+     *  project's main file
+     * @return output file, or null if not selected
+     */
+    private IFile getOutputFile(IFile target) {
+        String fileName;
+        if (target != null) {
+            fileName = stripFileExt(target.getName(), null) + '.' + format;
+        }
+        else {
+            fileName = TexlipseProperties.getOutputFileName(project);
+        }
         if (fileName != null) {
             if (outputDir == null) {
                 return project.getFile(fileName);
@@ -260,44 +416,66 @@ public class OutputFileManager {
                 }
             });
 
-            for (IPath filePath : sortedNames) {
-                if (sourcePath.isPrefixOf(filePath)) {
-                    IFile currentFile = project.getFile(filePath);
-                    if (moveFiles) {
-                        // Generate new path
-                        IPath destFilePath = destPath.append(filePath.removeFirstSegments(sourceSeg));
-                        IFile destFile = project.getFile(destFilePath);
-                        if (currentFile.exists() && (force || !destFile.exists())) {
-                            // Retrieve destination parent folder
-                            IContainer destFolder = destFile.getParent();
-                            if (destFolder instanceof IFolder && !destFolder.exists()
-                                    && force) {
-                                // Create destination folder if necessary
-                                ((IFolder) destFolder).create(true, true, monitor);
-                                if (markAsDerived) {
-                                    destFolder.setDerived(true);
-                                }
-                            }
-                            if (destFolder.exists()) {
-                                // Move file
-                                if (destFile.exists() && force) {
-                                    destFile.delete(true, monitor);
+            // The files are moved in the file system, and the workspace is
+            // refreshed once for all of them afterwards
+            Set<IResource> changed = new HashSet<IResource>();
+            Set<IContainer> newFolders = new HashSet<IContainer>();
+            List<IFile> destFiles = new ArrayList<IFile>();
+            try {
+                for (IPath filePath : sortedNames) {
+                    if (sourcePath.isPrefixOf(filePath)) {
+                        IFile currentFile = project.getFile(filePath);
+                        if (moveFiles) {
+                            // Generate new path
+                            IPath destFilePath = destPath.append(filePath.removeFirstSegments(sourceSeg));
+                            IFile destFile = project.getFile(destFilePath);
+                            File currentLocal = currentFile.getLocation().toFile();
+                            File destLocal = destFile.getLocation().toFile();
+                            if (currentLocal.isFile() && (force || !destLocal.exists())) {
+                                // Retrieve destination parent folder
+                                IContainer destFolder = destFile.getParent();
+                                if (!destLocal.getParentFile().isDirectory() && force) {
+                                    // Create destination folders if necessary
+                                    for (IContainer folder = destFolder; folder.getType() == IResource.FOLDER
+                                            && !folder.getLocation().toFile().isDirectory(); folder = folder.getParent()) {
+                                        newFolders.add(folder);
+                                    }
+                                    destLocal.getParentFile().mkdirs();
                                 }
-                                currentFile.move(destFile.getFullPath(), true, monitor);
-                                if (markAsDerived && destFile.exists()) {
-                                    destFile.setDerived(true);
+                                if (destLocal.getParentFile().isDirectory()) {
+                                    // Move file
+                                    moveLocalFile(currentLocal, destLocal);
+                                    changed.add(currentFile);
+                                    changed.add(destFile);
+                                    destFiles.add(destFile);
+                                    // Store path for later reversal
+                                    newNames.add(destFilePath);
                                 }
-                                // Store path for later reversal
-                                newNames.add(destFilePath);
                             }
                         }
-                    }
-                    else {
-                        if (markAsDerived && currentFile.exists()) {
-                            currentFile.setDerived(true);
+                        else {
+                            if (markAsDerived && currentFile.exists()) {
+                                currentFile.setDerived(true);
+                            }
                         }
+                        monitor.worked(1);
+                    }
+                }
+            } catch (IOException e) {
+                throw new CoreException(TexlipsePlugin.stat("Moving files to "
+                        + destPath + " failed", e));
+            } finally {
+                changed.addAll(newFolders);
+                refreshResources(changed, monitor);
+            }
+            if (markAsDerived) {
+                for (IContainer folder : newFolders) {
+                    folder.setDerived(true);
+                }
+                for (IFile file : destFiles) {
+                    if (file.exists()) {
+                        file.setDerived(true);
                     }
-                    monitor.worked(1);
                 }
             }
         }
@@ -363,7 +541,9 @@ public class OutputFileManager {
                 TexlipseProperties.DERIVED_FILES);
 
         final IFile aSourceFile = getActualSourceFile();
-        final IContainer aSourceContainer = getActualSourceContainer();
+        // LaTeX writes the output files next to the temporary files
+        final IContainer aSourceContainer = aSourceFile != null && buildInTemp
+                ? getBuildDir(aSourceFile) : getActualSourceContainer();
         final IFile sOutputFile = getSelectedOutputFile();
         final IContainer sOutputContainer = getSelectedOutputContainer(markAsDerived,
                 monitor);
@@ -392,26 +572,42 @@ public class OutputFileManager {
 
             project.getWorkspace().run(new IWorkspaceRunnable() {
                 public void run(IProgressMonitor monitor) throws CoreException {
-                    // Move files to destination folder and rename
-                    for (Entry<IPath, String> entry : outputFiles.entrySet()) {
-                        IFile currentFile = project.getFile(entry.getKey());
-                        if (moveFiles) {
-                            // Determine new file name
-                            String destName = outputBaseName + entry.getValue();
-                            // Move file
-                            IFile dest = moveFile(project, currentFile, sOutputContainer,
-                                    destName, monitor);
-                            if (dest != null && markAsDerived) {
-                                dest.setDerived(true);
+                    // Move files to destination folder and rename, and
+                    // refresh them together afterwards
+                    List<IResource> changed = new ArrayList<IResource>();
+                    List<IFile> destFiles = new ArrayList<IFile>();
+                    try {
+                        for (Entry<IPath, String> entry : outputFiles.entrySet()) {
+                            IFile currentFile = project.getFile(entry.getKey());
+                            if (moveFiles) {
+                                // Determine new file name
+                                String destName = outputBaseName + entry.getValue();
+                                // Move file
+                                IFile dest = moveFile(currentFile, sOutputContainer,
+                                        destName, monitor);
+                                if (dest != null) {
+                                    changed.add(currentFile);
+                                    changed.add(dest);
+                                    destFiles.add(dest);
+                                    movedFiles.add(dest.getProjectRelativePath());
+                                }
+                            }
+                            else {
+                                // Possibly mark as derived
+                                if (markAsDerived) {
+                                    currentFile.setDerived(true);
+                                }
+                                movedFiles.add(entry.getKey());
                             }
-                            movedFiles.add(dest.getProjectRelativePath());
                         }
-                        else {
-                            // Possibly mark as derived
-                            if (markAsDerived) {
-                                currentFile.setDerived(true);
+                    } finally {
+                        refreshResources(changed, monitor);
+                    }
+                    if (markAsDerived) {
+                        for (IFile dest : destFiles) {
+                            if (dest.exists()) {
+                                dest.setDerived(true);
                             }
-                            movedFiles.add(entry.getKey());
                         }
                     }
                 }
@@ -442,15 +638,23 @@ public class OutputFileManager {
      */
     private void moveTempFiles(final Set<IPath> excludes, IProgressMonitor monitor)
             throws CoreException {
+        final boolean markAsDerived = "true".equals(
+                TexlipseProperties.getProjectProperty(project,
+                        TexlipseProperties.MARK_TEMP_DERIVED_PROPERTY));
+        if (buildInTemp) {
+            // the temporary files have been written into their folder
+            if (markAsDerived && tempDir.exists()) {
+                tempDir.setDerived(true);
+            }
+            return;
+        }
+
         final IContainer aSourceContainer = getActualSourceContainer();
         if (tracking.isInitial() || aSourceContainer == null
                 || !aSourceContainer.exists()) {
             return;
         }
 
-        final boolean markAsDerived = "true".equals(
-                TexlipseProperties.getProjectProperty(project,
-                        TexlipseProperties.MARK_TEMP_DERIVED_PROPERTY));
         final String[] tempExts = TexlipsePlugin.getPreferenceArray(
                 TexlipseProperties.TEMP_FILE_EXTS);
 
@@ -472,12 +676,35 @@ public class OutputFileManager {
                     if (excludes != null) {
                         newTempNames.removeAll(excludes);
                     }
+                    if (target != null) {
+                        retainTargetFiles(newTempNames);
+                    }
                     moveFiles(sourceDir, tempDir, newTempNames, markAsDerived, true, monitor);
                 }
             }, monitor);
         }
     }
 
+    /**
+     * Removes the files of the other build targets, which are built at the
+     * same time, from a set of new temporary files. A build target owns the
+     * files named after its main file, and the files that LaTeX recorded as
+     * its outputs, like the .aux files of included files.
+     *
+     * @param names set of new temporary files
+     */
+    private void retainTargetFiles(Set<IPath> names) {
+        final String prefix = stripFileExt(target.getName(), null) + '.';
+        final Set<String> outputs = BuildRecord.getOutputs(getBuildFile(target, "fls"));
+        for (Iterator<IPath> it = names.iterator(); it.hasNext();) {
+            IPath name = it.next();
+            if (!name.lastSegment().startsWith(prefix) && !outputs.contains(
+                    project.getFile(name).getLocation().toFile().getAbsolutePath())) {
+                it.remove();
+            }
+        }
+    }
+
     /**
      * Moves all files currently located in the temporary files folder into the
      * build directory
@@ -501,6 +728,135 @@ public class OutputFileManager {
         }, monitor);
     }
 
+    /**
+     * Creates the temporary files folder in the file system for a build
+     * with <code>-output-directory</code>, together with the subfolders of
+     * the source folder. LaTeX writes the .aux file of an included file
+     * into the same subfolder of the output directory, but doesn't create
+     * the subfolder. The folders are added to the workspace when the view
+     * is refreshed after the build.
+     *
+     * @throws CoreException if the source folder can't be visited
+     */
+    private void createBuildFolders() throws CoreException {
+        final IFile aSourceFile = getActualSourceFile();
+        if (aSourceFile == null) {
+            return;
+        }
+        final IPath buildPath = getBuildDir(aSourceFile).getLocation();
+        final IPath sourcePath = sourceDir.getLocation();
+        final IFolder projectTempDir = TexlipseProperties.getProjectTempDir(project);
+        buildPath.toFile().mkdirs();
+        if (!sourceDir.exists()) {
+            return;
+        }
+        // the folders are known to the workspace, there is no need to
+        // list the file system
+        sourceDir.accept(new IResourceProxyVisitor() {
+            public boolean visit(IResourceProxy proxy) throws CoreException {
+                if (proxy.getType() == IResource.FILE) {
+                    return false;
+                }
+                if (proxy.getType() != IResource.FOLDER) {
+                    return true;
+                }
+                IResource folder = proxy.requestResource();
+                if (folder.equals(outputDir) || folder.equals(projectTempDir)
+                        || proxy.isDerived()) {
+                    return false;
+                }
+                buildPath.append(folder.getLocation().makeRelativeTo(sourcePath))
+                        .toFile().mkdirs();
+                return true;
+            }
+        }, IResource.NONE);
+    }
+
+    /**
+     * Brings the files written by the build up to date in the workspace, so
+     * that the methods determining and moving files find them. These are the
+     * files that LaTeX listed as its outputs in the recorder file, and the
+     * files named after the source file with a temporary, derived or output
+     * file extension, which are written by the other programs of the build.
+     * Only these files and their new folders are refreshed, instead of the
+     * whole source folder, and the files that are added or changed are
+     * passed to the file tracking. Without a recorder file, e.g. when LaTeX
+     * could not be run, the view is refreshed as a whole and no changes are
+     * recorded.
+     *
+     * @param monitor progress monitor
+     * @throws CoreException if an error occurs
+     */
+    private void refreshBuildFiles(IProgressMonitor monitor) throws CoreException {
+        final IFile aSourceFile = getActualSourceFile();
+        final File flsFile = aSourceFile != null ? getBuildFile(aSourceFile, "fls") : null;
+        if (flsFile == null || !flsFile.isFile()) {
+            refreshView(monitor);
+            return;
+        }
+
+        final IWorkspaceRoot root = project.getWorkspace().getRoot();
+        final Set<IResource> changed = new HashSet<IResource>();
+        addBuildFile(root.getFileForLocation(new Path(flsFile.getAbsolutePath())), changed);
+        for (String name : BuildRecord.getOutputs(flsFile)) {
+            addBuildFile(root.getFileForLocation(new Path(name)), changed);
+        }
+
+        final IContainer buildDir = getBuildDir(aSourceFile);
+        final String baseName = stripFileExt(aSourceFile.getName(), null);
+        final List<String> exts = new ArrayList<String>();
+        exts.addAll(Arrays.asList(TexlipsePlugin.getPreferenceArray(
+                TexlipseProperties.TEMP_FILE_EXTS)));
+        exts.addAll(Arrays.asList(TexlipsePlugin.getPreferenceArray(
+                TexlipseProperties.DERIVED_FILES)));
+        exts.add('.' + format);
+        exts.add(".dvi");
+        exts.add(".ps");
+        // the files of the other programs, like BibTeX and makeindex,
+        // which are not recorded in the .fls
+        for (int i = 0; i < BuilderRegistry.getNumberOfRunners(); i++) {
+            for (String ext : BuilderRegistry.getRunner(i).getWrittenFormats()) {
+                exts.add('.' + ext);
+            }
+        }
+        for (String ext : exts) {
+            addBuildFile(buildDir.getFile(new Path(baseName + ext)), changed);
+        }
+
+        refreshResources(changed, monitor);
+        // the tracking picks those written since the build started
+        final List<IFile> changedFiles = new ArrayList<IFile>();
+        for (IResource res : changed) {
+            if (res.getType() == IResource.FILE && res.exists()) {
+                changedFiles.add((IFile) res);
+            }
+        }
+        tracking.addChangedFiles(changedFiles);
+    }
+
+    /**
+     * Adds a file of the project to the resources to refresh, if it exists
+     * in the file system or in the workspace, together with its folders that
+     * the workspace doesn't know yet.
+     *
+     * @param file the file, or null
+     * @param changed the resources to refresh
+     */
+    private void addBuildFile(IFile file, Set<IResource> changed) {
+        if (file == null || !project.equals(file.getProject())
+                || file.getLocation() == null) {
+            return;
+        }
+        if (!file.exists() && !file.getLocation().toFile().isFile()) {
+            return;
+        }
+        changed.add(file);
+        for (IContainer folder = file.getParent(); folder.getType() == IResource.FOLDER
+                && !folder.exists(); folder = folder.getParent()) {
+            changed.add(folder);
+        }
+    }
+
     /**
      * Utility method for refreshing the current view on all relevant input and
      * output folders. This makes sure, that methods determining and moving files
@@ -571,8 +927,24 @@ public class OutputFileManager {
      */
     public OutputFileManager(final IProject project,
             final ProjectFileTracking tracking) {
+        this(project, tracking, null);
+    }
+
+    /**
+     * Constructor for the files of a further build target of the project.
+     * Its output file is named after its main file and its temporary files
+     * are kept in a folder of their own.
+     *
+     * @param project current project
+     * @param tracking file tracking for the build target
+     * @param target the main file of the build target, or null for the
+     *  project's main file
+     */
+    public OutputFileManager(final IProject project,
+            final ProjectFileTracking tracking, final IFile target) {
         this.project = project;
         this.tracking = tracking;
+        this.target = target;
         this.init();
     }
 
@@ -583,27 +955,98 @@ public class OutputFileManager {
     public void init() {
         sourceDir = TexlipseProperties.getProjectSourceDir(project);
         outputDir = TexlipseProperties.getProjectOutputDir(project);
-        tempDir = TexlipseProperties.getProjectTempDir(project);
         format = TexlipseProperties.getProjectProperty(project,
                 TexlipseProperties.OUTPUT_FORMAT);
-        sourceFile = TexlipseProperties.getProjectSourceFile(project);
+        if (target != null) {
+            tempDir = TexlipseProperties.getTargetTempDir(project, target);
+            sourceFile = target;
+        }
+        else {
+            tempDir = TexlipseProperties.getProjectTempDir(project);
+            sourceFile = TexlipseProperties.getProjectSourceFile(project);
+        }
+        buildInTemp = target != null ? tempDir != null : usesBuildDir(project);
+    }
+
+    /**
+     * @return true, if this manages the files of a further build target
+     *  instead of the project's main file
+     */
+    public boolean isBuildTarget() {
+        return target != null;
+    }
+
+    /**
+     * Retrieves the record of the inputs of the last full build.
+     *
+     * @return the record, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public BuildRecord getBuildRecord() {
+        if (target == null) {
+            return (BuildRecord) TexlipseProperties.getSessionProperty(project,
+                    TexlipseProperties.SESSION_BUILD_RECORD);
+        }
+        Map<IFile, BuildRecord> records = (Map<IFile, BuildRecord>) TexlipseProperties
+                .getSessionProperty(project, TexlipseProperties.SESSION_TARGET_RECORDS);
+        return records != null ? records.get(target) : null;
+    }
+
+    /**
+     * Stores the record of the inputs of a build for the next up-to-date
+     * check.
+     *
+     * @param record the record, or null if the build is not to be compared
+     *  by its inputs
+     */
+    @SuppressWarnings("unchecked")
+    public void setBuildRecord(BuildRecord record) {
+        if (target == null) {
+            TexlipseProperties.setSessionProperty(project,
+                    TexlipseProperties.SESSION_BUILD_RECORD, record);
+            return;
+        }
+        synchronized (OutputFileManager.class) {
+            Map<IFile, BuildRecord> records = (Map<IFile, BuildRecord>) TexlipseProperties
+                    .getSessionProperty(project, TexlipseProperties.SESSION_TARGET_RECORDS);
+            if (records == null) {
+                records = new ConcurrentHashMap<IFile, BuildRecord>();
+                TexlipseProperties.setSessionProperty(project,
+                        TexlipseProperties.SESSION_TARGET_RECORDS, records);
+            }
+            if (record != null) {
+                records.put(target, record);
+            }
+            else {
+                records.remove(target);
+            }
+        }
     }
 
     /**
      * Performs actions before a LaTeX document is built; namely:
      * <ul>
-     * <li>memorizing which files are present in the temporary and build source
-     *  folder, and</li>
+     * <li>memorizing which files are present in the temporary files folder,
+     *  and</li>
      * <li>moving temporary files from their folder into the build folder, so
      *  the build process has access to them.</li>
      * </ul>
+     * When building into the temporary files folder, only the folders for
+     * the files of LaTeX are created.
      *
      * @param monitor progress monitor
      * @throws CoreException if an error occurs
      */
     public void performBeforeBuild(IProgressMonitor monitor) throws CoreException {
-        // capture current state of build and temp folder
-        tracking.refreshSnapshots(sourceDir, monitor);
+        if (buildInTemp) {
+            // nothing is moved in, the build reads and writes the temp folder
+            movedFiles = new HashSet<IPath>();
+            createBuildFolders();
+            return;
+        }
+
+        // capture current state of the temp folder
+        tracking.refreshSnapshots(monitor);
 
         // use temp files from previous build
         restoreTempFiles(monitor);
@@ -631,9 +1074,9 @@ public class OutputFileManager {
         // to still perform following steps
         CoreException ex = null;
 
-        // make sure this has access to all files (if this fails, it means trouble to
-        // all following steps)
-        refreshView(monitor);
+        // make sure this has access to all files written by the build (if this
+        // fails, it means trouble to all following steps)
+        refreshBuildFiles(monitor);
 
         Set<IPath> outputFiles = null;
         try { // possibly move output files away from the source dir and mark as derived
@@ -654,14 +1097,7 @@ public class OutputFileManager {
             }
         }
 
-        try {
-            refreshView(monitor);
-        } catch (CoreException e) {
-            // this is not irrelevant, but not as severe as the others
-            if (ex == null) {
-                ex = e;
-            }
-        }
+        // the files have been refreshed when they were moved
 
         tracking.clearSnapshots();
         // now throw any pending exception, after cleaning up
@@ -712,11 +1148,27 @@ public class OutputFileManager {
      * Determines, if the current output file is up to date (i.e. all source
      * files are older). This method is aware of partial builds.
      * 
+     * After a full build, the inputs recorded by LaTeX are compared by their
+     * contents instead. Otherwise the project files are compared to the
+     * time stamp of the output file.
+     * 
+     * @param delta the changes of the project since its last build, or null
+     *  if they are not known
      * @return true, if the output file does not need to be rebuilt; false
      *  if it should
+     * @throws CoreException if the changes can't be read
      */
-    public boolean isUpToDate() {
+    public boolean isUpToDate(IResourceDelta delta) throws CoreException {
         long lastBuildStamp = getOutputFileDate();
+        if (lastBuildStamp == -1) {
+            return false;
+        }
+
+        BuildRecord record = getBuildRecord();
+        if (record != null && (target != null || TexlipseProperties.getProjectProperty(project,
+                TexlipseProperties.PARTIAL_BUILD_PROPERTY) == null)) {
+            return record.isUpToDate() && !hasNewFiles(record, delta);
+        }
 
         IResource[] files = TexlipseProperties.getAllProjectFiles(project);
         for (int i = 0; i < files.length; i++) {
@@ -729,6 +1181,67 @@ public class OutputFileManager {
         return true;
     }
 
+    /**
+     * Checks whether files that could be inputs of the document have been
+     * added since the build, without being recorded as its inputs. LaTeX
+     * doesn't record the files it fails to open, like an image that didn't
+     * exist yet. The added files are taken from the resource delta of the
+     * project, so the folders are not scanned. The output and temporary
+     * files of the project are not checked.
+     *
+     * @param record the record of the last build
+     * @param delta the changes of the project since its last build, or
+     *  null if they are not known
+     * @return true, if there is such a file, or the changes are not known
+     * @throws CoreException if the delta can't be visited
+     */
+    private boolean hasNewFiles(final BuildRecord record, IResourceDelta delta)
+            throws CoreException {
+        if (delta == null) {
+            return true;
+        }
+        final Set<IFile> outputs = new HashSet<IFile>();
+        outputs.add(getOutputFile(null));
+        for (IFile file : TexlipseProperties.getProjectBuildTargets(project)) {
+            outputs.add(getOutputFile(file));
+        }
+        final List<IPath> excludes = new ArrayList<IPath>();
+        if (outputDir != null) {
+            excludes.add(outputDir.getFullPath());
+        }
+        IFolder projectTempDir = TexlipseProperties.getProjectTempDir(project);
+        if (projectTempDir != null) {
+            excludes.add(projectTempDir.getFullPath());
+        }
+        final IPath sourcePath = sourceDir.getFullPath();
+        final boolean[] found = new boolean[1];
+        delta.accept(new IResourceDeltaVisitor() {
+            public boolean visit(IResourceDelta change) {
+                IResource res = change.getResource();
+                IPath path = res.getFullPath();
+                if (found[0] || !(path.isPrefixOf(sourcePath) || sourcePath.isPrefixOf(path))) {
+                    return false;
+                }
+                for (IPath exclude : excludes) {
+                    if (exclude.isPrefixOf(path)) {
+                        return false;
+                    }
+                }
+                if (res.getType() != IResource.FILE) {
+                    return true;
+                }
+                if (change.getKind() == IResourceDelta.ADDED
+                        && Arrays.asList(INPUT_EXTS).contains(res.getFileExtension())
+                        && !outputs.contains(res) && res.getLocation() != null
+                        && record.isNewFile(res.getLocation().toFile())) {
+                    found[0] = true;
+                }
+                return false;
+            }
+        });
+        return found[0];
+    }
+
     /**
      * Retrieves the currently set source file.
      *
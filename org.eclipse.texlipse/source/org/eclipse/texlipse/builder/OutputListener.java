@@ -0,0 +1,30 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.builder;
+
+/**
+ * Receives the output of an external program while the program is running.
+ */
+public interface OutputListener {
+
+    /**
+     * Called for each line of the standard output of the program, in the
+     * thread reading the output.
+     * 
+     * @param line the line without the line terminator
+     */
+    public void lineRead(String line);
+
+    /**
+     * Called regularly in the thread waiting for the program to finish.
+     */
+    public void update();
+}
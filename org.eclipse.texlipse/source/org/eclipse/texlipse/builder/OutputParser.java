@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.builder;
+
+/**
+ * Parses the output of an external program line by line, so that the
+ * errors can be reported while the program is still running.
+ */
+public interface OutputParser {
+
+    /**
+     * Parses the next line of the output.
+     * 
+     * @param line the line without the line terminator
+     */
+    public void parseLine(String line);
+
+    /**
+     * Called after the last line of the output.
+     * 
+     * @return true, if error messages were found in the output
+     */
+    public boolean finish();
+}
@@ -10,10 +10,14 @@
  *******************************************************************************/
 package org.eclipse.texlipse.builder;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.texlipse.TexlipsePlugin;
@@ -27,12 +31,25 @@ import org.eclipse.texlipse.actions.InputQueryDialog;
  */
 public class OutputScanner {
 
+    // number of characters read at a time
+    private static final int BUFFER_SIZE = 8192;
+    
+    // the longest question shown to the user
+    private static final int MAX_QUESTION_LENGTH = 4096;
+    
+    // characters the program may print after a trigger string, e.g. the
+    // space after a prompt
+    private static final int TRIGGER_SLACK = 80;
+    
     // input stream to scan
-    private BufferedInputStream in;
+    private InputStream in;
     
     // output stream to write user's responses
     private OutputStream out;
     
+    // the charset of the program's input and output
+    private Charset charset;
+    
     // the trigger strings to scan for
     private String[] triggerString;
     
@@ -42,14 +59,33 @@ public class OutputScanner {
     // the text that the user wrote to the dialog
     private String query;
     
-    // the scanned input
+    // the scanned input, not kept if there is a listener
     private StringBuilder sb;
     
+    // the output since the last error message, for the query dialog
+    private StringBuilder question;
+    
     // the length of the occured trigger string
     protected int currentTriggerStringLength;
 
     // output messages to console
     private String consoleOutput;
+    
+    // receives the output line by line, or null
+    private OutputListener listener;
+    
+    // the length at which the program wraps its lines, or 0
+    private int wrapLength;
+    
+    // true, if the wrap length counts bytes instead of characters
+    private boolean wrapBytes;
+    
+    // the bytes of the current line
+    private byte[] line = new byte[256];
+    private int lineLength;
+    
+    // where the part of the current line after the last wrap starts
+    private int segmentStart;
 
     /**
      * Create new OutputProducer.
@@ -60,13 +96,47 @@ public class OutputScanner {
      * @param console
      */
     public OutputScanner(InputStream in, OutputStream out, String[] trig, String console) {
-        this.in = new BufferedInputStream(in);
+        this(in, out, trig, console, null, null);
+    }
+
+    /**
+     * Create new OutputProducer that passes the output line by line to
+     * the given listener instead of keeping it.
+     * 
+     * @param in
+     * @param out
+     * @param trig
+     * @param console
+     * @param listener the listener or null to keep the output in the buffer
+     * @param charset the charset of the program's input and output, or
+     *  null for the platform default
+     */
+    public OutputScanner(InputStream in, OutputStream out, String[] trig, String console,
+            OutputListener listener, Charset charset) {
+        this.charset = charset != null ? charset : Charset.defaultCharset();
+        this.in = in;
         this.out = out;
         this.triggerString = trig;
         this.okPressed = false;
         this.query = null;
         this.sb = new StringBuilder();
+        this.question = new StringBuilder();
         this.consoleOutput = console;
+        this.listener = listener;
+    }
+
+    /**
+     * Makes the scanner join the lines that the program has wrapped at the
+     * given length, before they are passed on. The lines are joined before
+     * they are decoded, since a wrap at a byte count may split a character.
+     * 
+     * @param length the length of the wrapped lines, or 0 to not join lines
+     * @param bytes true, if the length counts bytes; false, if it counts
+     *  characters
+     */
+    public void setLineWrap(int length, boolean bytes) {
+        this.wrapLength = length;
+        this.wrapBytes = bytes;
     }
 
     /**
@@ -80,18 +150,15 @@ public class OutputScanner {
      * Read output from the stream and save it into a buffer.
      * If the trigger string occurs in the stream, a question dialog will be popped up.
      * 
-     * Reading is done byte-by-byte because we don't know when the stream is
-     * going to pause. Reading by buffers would mean that we could end up waiting
-     * input from the program when the program is waiting input from us, i.e. a deadlock.
+     * A read returns whatever the program has written so far, so that we
+     * don't end up waiting input from the program when the program is
+     * waiting input from us. The trigger strings are only searched for in
+     * the tail of the output when there is nothing more to read.
      * 
      * @return true if the output was read successfully into the buffer
      */
     public boolean scanOutput() {
         try {
-            // this was the index we had parsed the output to
-            // when the user pressed ok on our dialog
-            int startOfLine = 0;
-            int okIndex = 0;
             int maxLength = 0;
             if (triggerString != null) {
                 //determine max length of a triggerString
@@ -100,22 +167,71 @@ public class OutputScanner {
                         maxLength = triggerString[i].length();
                 }
             }
-            int avail = 0;
-            while (true) {
+            maxLength += TRIGGER_SLACK;
+            // the last maxLength characters of the output
+            StringBuilder tail = new StringBuilder();
+            // number of characters read and the index we had parsed the
+            // output to when the user pressed ok on our dialog
+            long total = 0;
+            long okIndex = 0;
+            
+            // the lines are split and decoded from the bytes, the rest of
+            // the output is decoded as it comes
+            CharsetDecoder decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE + 16);
+            CharBuffer chars = CharBuffer.allocate(
+                    (int) Math.ceil(bytes.capacity() * decoder.maxCharsPerByte()));
+            byte[] buff = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = in.read(buff)) != -1) {
                 
-                int nextByte = in.read();
-                if (nextByte == -1) break;
-                sb.append((char)nextByte);
+                for (int i = 0; i < len; i++) {
+                    if (buff[i] == '\n') {
+                        lineEnded();
+                    } else {
+                        appendToLine(buff[i]);
+                    }
+                }
                 
-                avail--;                
-                if (avail <= 0) avail = in.available();
+                bytes.put(buff, 0, len);
+                bytes.flip();
+                chars.clear();
+                decoder.decode(bytes, chars, false);
+                bytes.compact();
+                chars.flip();
+                int count = chars.remaining();
+                for (int i = 0; i < count; i++) {
+                    char c = chars.get(i);
+                    if (c == '!') {
+                        question.setLength(0);
+                    } else {
+                        question.append(c);
+                    }
+                }
+                if (question.length() > MAX_QUESTION_LENGTH) {
+                    question.delete(0, question.length() - MAX_QUESTION_LENGTH);
+                }
+                if (listener == null) {
+                    sb.append(chars);
+                }
+                total += count;
                 
-                //TriggerStrings can only occur if the program is waiting for input => in.available() == 0
-                if (triggerString != null && avail == 0) {
+                if (triggerString == null) {
+                    continue;
+                }
+                tail.append(chars);
+                if (tail.length() > maxLength) {
+                    tail.delete(0, tail.length() - maxLength);
+                }
+                
+                //TriggerStrings can only occur if the program is waiting for input => nothing to read
+                if (in.available() == 0) {
+                    long tailStart = total - tail.length();
+                    int from = (int) Math.max(0, okIndex - tailStart);
                     for (int i = 0; i < triggerString.length; i++) {
-                        if (sb.length() > maxLength)
-                            okIndex = sb.length() - maxLength;
-                        int foundIndex = sb.indexOf(triggerString[i], okIndex);
+                        int foundIndex = tail.indexOf(triggerString[i], from);
                         if (foundIndex >= 0) {
                             currentTriggerStringLength = triggerString[i].length();
                             
@@ -123,30 +239,88 @@ public class OutputScanner {
                             if (!retry) {
                                 return false;
                             } else {
-                                okIndex = foundIndex+1;
+                                okIndex = tailStart + foundIndex + 1;
                                 break;
                             }
                         }
                     }
                 }
-                
-                if (consoleOutput != null && (char)nextByte == '\n') {
-                    
-                    int lf = 1;
-                    if (sb.charAt(sb.length()-2) == '\r') { // fix for windows linefeeds
-                        lf++;
-                    }
-                    // don't print the whole buffer as the printToConsole() outputs a linefeed
-                    BuilderRegistry.printToConsole(consoleOutput + "> " + sb.substring(startOfLine, sb.length()-lf));
-                    startOfLine = sb.length();
-                }
-                
+            }
+            if (lineLength > 0) {
+                lineRead(new String(line, 0, lineLength, charset));
+            }
+            if (listener == null) {
+                bytes.flip();
+                chars.clear();
+                decoder.decode(bytes, chars, true);
+                decoder.flush(chars);
+                chars.flip();
+                sb.append(chars);
             }
         } catch (IOException e) {
         }
         return true;
     }
     
+    /**
+     * Adds a byte of output to the current line.
+     * 
+     * @param b the byte
+     */
+    private void appendToLine(byte b) {
+        if (lineLength == line.length) {
+            byte[] n = new byte[line.length * 2];
+            System.arraycopy(line, 0, n, 0, lineLength);
+            line = n;
+        }
+        line[lineLength++] = b;
+    }
+    
+    /**
+     * Called at the end of a line of output. The line is passed on, unless
+     * it was wrapped by the program, in which case the next line is
+     * appended to it.
+     */
+    private void lineEnded() {
+        if (lineLength > 0 && line[lineLength - 1] == '\r') { // fix for windows linefeeds
+            lineLength--;
+        }
+        if (wrapLength > 0 && lineLength > segmentStart && !endsWithEllipsis()) {
+            int length = wrapBytes ? lineLength
+                    : new String(line, 0, lineLength, charset).length();
+            if (length % wrapLength == 0) {
+                segmentStart = lineLength;
+                return;
+            }
+        }
+        String text = new String(line, 0, lineLength, charset);
+        lineLength = 0;
+        segmentStart = 0;
+        lineRead(text);
+    }
+    
+    /**
+     * @return true, if the current line ends with "..."
+     */
+    private boolean endsWithEllipsis() {
+        return lineLength >= 3 && line[lineLength - 1] == '.'
+                && line[lineLength - 2] == '.' && line[lineLength - 3] == '.';
+    }
+    
+    /**
+     * Passes a line of output to the console and the listener.
+     * 
+     * @param line the line without the line terminator
+     */
+    private void lineRead(String line) {
+        if (consoleOutput != null) {
+            BuilderRegistry.printToConsole(consoleOutput + "> " + line);
+        }
+        if (listener != null) {
+            listener.lineRead(line);
+        }
+    }
+    
     /**
      * Create the build error input query dialog.
      * @param message
@@ -169,13 +343,7 @@ public class OutputScanner {
         
         display.syncExec(new Runnable() {
             public void run() {
-                int i = sb.lastIndexOf("!");
-                if (i < 0) {
-                    i = currentTriggerStringLength;
-                } else {
-                    i+=2;
-                }
-                InputQueryDialog dlg = createQueryDialog(sb.substring(i));
+                InputQueryDialog dlg = createQueryDialog(question.toString().trim());
                 okPressed = (dlg.open() == 0);
                 query = dlg.getInput();
             }});
@@ -188,7 +356,7 @@ public class OutputScanner {
                 }
                 
                 query += System.getProperty("line.separator");
-                out.write(query.getBytes());
+                out.write(query.getBytes(charset));
                 out.flush();
                 
             } catch (IOException e) {
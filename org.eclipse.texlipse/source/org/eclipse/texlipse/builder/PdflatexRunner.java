@@ -34,6 +34,13 @@ public class PdflatexRunner extends LatexRunner {
         return "pdflatex";
     }
     
+    /**
+     * Neither the PDF is written nor the images read.
+     */
+    protected String getDraftOption() {
+        return "-draftmode";
+    }
+    
     public String getDescription() {
         return "PdfLatex program";
     }
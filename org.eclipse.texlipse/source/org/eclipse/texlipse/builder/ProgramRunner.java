@@ -73,5 +73,13 @@ public interface ProgramRunner {
      * @return the output file format of this program
      */
     public String getOutputFormat();
+
+    /**
+     * Returns the formats of the files this program writes for a document,
+     * named after the document, e.g. its output and log files.
+     * 
+     * @return the file extensions without the dots
+     */
+    public String[] getWrittenFormats();
     
 }
\ No newline at end of file
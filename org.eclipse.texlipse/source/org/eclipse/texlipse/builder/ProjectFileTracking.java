@@ -10,10 +10,10 @@
  *******************************************************************************/
 package org.eclipse.texlipse.builder;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 import org.eclipse.core.resources.IContainer;
@@ -31,19 +31,27 @@ import org.eclipse.texlipse.properties.TexlipseProperties;
  * Tracks project files for maintaining information about user or LaTeX build
  * generated files, as well as the changes therein.
  *
+ * The files added or changed by a build are recorded when the build brings
+ * them up to date in the workspace, so the source folder is not scanned
+ * before and after each build. Only the temporary files folder is listed.
+ *
  * @author Matthias Erll
  *
  */
 public class ProjectFileTracking {
 
     private final IProject project;
+    private final IFile target;
     private final Set<IFolder> excludeFolders;
 
     private IFolder outputDir;
     private IFolder tempDir;
 
     private Set<IPath> tempDirNames;
-    private Map<IPath, Long> buildDirNames;
+    // files added or changed since the snapshot
+    private Set<IPath> changedNames;
+    // the time of the snapshot, in whole seconds
+    private long snapshotTime;
 
     /**
      * Checks if the given file name has any of the extensions in
@@ -120,19 +128,19 @@ public class ProjectFileTracking {
     }
 
     /**
-     * Checks if the given time stamp is newer than the reference time stamp
-     * recorded in the snapshot of the build directory. The file is also
-     * considered newer, if it had not been recorded before.
+     * Checks if the given file is inside one of the folders, whose files are
+     * not tracked, like the output and temporary files folders.
      *
-     * @param name IPath reference to the file
-     * @param currentTimestamp current time stamp of the file
-     * @return true, if the file is new or newer than the snapshot; false
-     *  otherwise
+     * @param name project relative path of the file
+     * @return true, if the file is in an excluded folder
      */
-    private boolean isNewer(IPath name, long currentTimestamp) {
-        Long prevTimestamp = buildDirNames.get(name);
-        return prevTimestamp == null
-                || (prevTimestamp.longValue() < currentTimestamp);
+    private boolean isExcluded(IPath name) {
+        for (IFolder folder : excludeFolders) {
+            if (folder.getProjectRelativePath().isPrefixOf(name)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -214,7 +222,20 @@ public class ProjectFileTracking {
      * @param project current project
      */
     public ProjectFileTracking(final IProject project) {
+        this(project, null);
+    }
+
+    /**
+     * Constructor for tracking the files of a further build target of the
+     * project, whose temporary files are kept in a folder of their own.
+     *
+     * @param project current project
+     * @param target the main file of the build target, or null for the
+     *  project's main file
+     */
+    public ProjectFileTracking(final IProject project, final IFile target) {
         this.project = project;
+        this.target = target;
         this.excludeFolders = new HashSet<IFolder>();
         init();
     }
@@ -226,7 +247,7 @@ public class ProjectFileTracking {
     public void init() {
         excludeFolders.clear();
         tempDirNames = null;
-        buildDirNames = null;
+        changedNames = null;
         outputDir = TexlipseProperties.getProjectOutputDir(project);
         tempDir = TexlipseProperties.getProjectTempDir(project);
         if (outputDir != null) {
@@ -234,6 +255,16 @@ public class ProjectFileTracking {
         }
         if (tempDir != null) {
             excludeFolders.add(tempDir);
+            // the temporary files of the build targets are not files of
+            // the main document or of the other targets
+            for (IFile file : TexlipseProperties.getProjectBuildTargets(project)) {
+                excludeFolders.add(TexlipseProperties.getTargetTempDir(project, file));
+            }
+            // the dumped preambles are kept apart from the temporary files
+            excludeFolders.add(FormatCache.getFormatFolder(project));
+            if (target != null) {
+                tempDir = TexlipseProperties.getTargetTempDir(project, target);
+            }
         }
     }
 
@@ -243,7 +274,7 @@ public class ProjectFileTracking {
      * @return true if snapshots exist, false otherwise
      */
     public boolean isInitial() {
-        return tempDirNames == null || buildDirNames == null;
+        return tempDirNames == null || changedNames == null;
     }
 
     /**
@@ -277,7 +308,7 @@ public class ProjectFileTracking {
      * within the source container during the last build. Temporary files
      * are defined by the file extensions given in <code>tempExts</code>.
      *
-     * @param container source container to scan for new files
+     * @param container source container to look for new files in
      * @param tempExts extensions of temporary files
      * @param monitor progress monitor
      * @return set of new temporary files
@@ -287,15 +318,17 @@ public class ProjectFileTracking {
             final String[] tempExts, final String format,
             IProgressMonitor monitor) throws CoreException {
         Set<IPath> newNames = new HashSet<IPath>();
-        Map<IPath, Long> currentNames = new HashMap<IPath, Long>();
-        // Scan for current files in the build folder
-        recursiveScanFiles(container, currentNames, monitor);
-        for (Entry<IPath, Long> names : currentNames.entrySet()) {
-            // Check which of the files are new, and if they are temporary files
-            IPath name = names.getKey();
-            Long timestamp = names.getValue();
-            if (isTempFile(name.lastSegment(), tempExts, format)
-                    && isNewer(name, timestamp.longValue())) {
+        if (changedNames == null) {
+            return newNames;
+        }
+        IPath containerPath = container.getProjectRelativePath();
+        for (IPath name : changedNames) {
+            // Check which of the changed files are temporary files
+            String fileName = name.lastSegment();
+            if (containerPath.isPrefixOf(name) && !isExcluded(name)
+                    && !isProjectFile(fileName)
+                    && isTempFile(fileName, tempExts, format)
+                    && project.getFile(name).exists()) {
                 newNames.add(name);
             }
             monitor.worked(1);
@@ -304,35 +337,51 @@ public class ProjectFileTracking {
     }
 
     /**
-     * Memorizes two sets of files:
-     * <ul>
-     * <li>temporary files currently located in the temp. files folder</li>
-     * <li>all files currently located in the source container</li>
-     * </ul>
+     * Records the files that have been added or changed during the build.
+     * This is called with the files the build may have written, once they
+     * have been brought up to date in the workspace. A file counts as
+     * changed, if it was modified in the file system after the snapshot.
+     * The workspace's modification stamps are not compared, since a file
+     * refreshed during the build already has its new stamp.
+     *
+     * @param files the files the build may have written
+     */
+    public void addChangedFiles(Collection<IFile> files) {
+        if (changedNames == null) {
+            return;
+        }
+        for (IFile file : files) {
+            IPath location = file.getLocation();
+            if (location != null
+                    && location.toFile().lastModified() >= snapshotTime) {
+                changedNames.add(file.getProjectRelativePath());
+            }
+        }
+    }
+
+    /**
+     * Memorizes the temporary files currently located in the temp. files
+     * folder, and starts recording the files added or changed from now on.
      * These can later be used to determine, which temporary files have been
      * added during a LaTeX build process.
      *
-     * @param container source container
      * @param monitor progress monitor
      * @throws CoreException if an error occurs
      */
-    public void refreshSnapshots(final IContainer container,
-            IProgressMonitor monitor) throws CoreException {
+    public void refreshSnapshots(IProgressMonitor monitor) throws CoreException {
         tempDirNames = getTempFolderNames(monitor);
-
-        final Map<IPath, Long> newBuildDirFiles = new HashMap<IPath, Long>();
-        if (container != null && container.exists()) {
-            recursiveScanFiles(container, newBuildDirFiles, monitor);
-        }
-        buildDirNames = newBuildDirFiles;
+        changedNames = new HashSet<IPath>();
+        // file systems may only keep whole seconds
+        snapshotTime = System.currentTimeMillis() / 1000 * 1000;
     }
 
     /**
-     * Drops the snapshots of the temporary files directory and build directory.
+     * Drops the snapshots of the temporary files directory and the recorded
+     * changes.
      */
     public void clearSnapshots() {
         tempDirNames = null;
-        buildDirNames = null;
+        changedNames = null;
     }
 
 }
@@ -34,6 +34,14 @@ public class PslatexRunner extends LatexRunner {
         return "pslatex";
     }
     
+    /**
+     * pslatex is a script around latex, which doesn't pass on the options
+     * for dumping a format.
+     */
+    protected String getBaseFormat() {
+        return null;
+    }
+    
     public String getDescription() {
         return "PsLatex program";
     }
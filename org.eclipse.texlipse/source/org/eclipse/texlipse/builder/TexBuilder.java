@@ -11,13 +11,25 @@
 package org.eclipse.texlipse.builder;
 
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.text.StyledEditorKit.BoldAction;
 
-import org.eclipse.core.resources.IContainer;
-import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
@@ -42,6 +54,31 @@ import org.eclipse.texlipse.viewer.ViewerManager;
  */
 public class TexBuilder extends AbstractBuilder implements AdaptableBuilder {
 
+    // files that latex reads back on the next run, a change means another run is needed
+    private static final String[] RERUN_EXTS = {
+        ".aux", ".toc", ".lof", ".lot", ".out", ".idx", ".nlo"
+    };
+
+    // bibtex, makeindex and the nomenclature run at most at the same time
+    private static final int MAX_TOOL_THREADS = 3;
+
+    // runs the programs between the latex runs, shared by all builds
+    private static final ThreadPoolExecutor toolExecutor = createToolExecutor();
+
+    private static ThreadPoolExecutor createToolExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_TOOL_THREADS, MAX_TOOL_THREADS,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "TeXlipse auxiliary tools");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     private boolean biblatexMode;
     private String biblatexBackend;
     private ProgramRunner latex;
@@ -166,24 +203,26 @@ public class TexBuilder extends AbstractBuilder implements AdaptableBuilder {
     
     /**
      * Calculates the name of the root aux-file to be used by the 
-     * <code>AuxFileParser</code>.
+     * <code>AuxFileParser</code>. It is written into the build folder of
+     * the file being built, which is the temporary file of a partial build
+     * or a further main file of the project.
      * 
-     * @param project
-     * @return
+     * @param resource the file being built
+     * @return the project relative path of the aux-file
      */
-    private String getAuxFileName(IProject project) {
-        // evaluate the .aux file
-        String auxFileName = TexlipseProperties.getProjectProperty(project, TexlipseProperties.MAINFILE_PROPERTY);
-        //Check for partial build
-        Object s = TexlipseProperties.getProjectProperty(project, TexlipseProperties.PARTIAL_BUILD_PROPERTY);
-        if (s != null) {
-            IFile tmpFile = (IFile)TexlipseProperties.getSessionProperty(project, TexlipseProperties.PARTIAL_BUILD_FILE);
-            if (tmpFile != null) {
-                auxFileName = tmpFile.getProjectRelativePath().toPortableString();
-            }
-        }
-        auxFileName = auxFileName.replaceFirst("\\.tex$", "\\.aux");
-        return auxFileName;
+    private String getAuxFileName(IResource resource) {
+        return OutputFileManager.getBuildDir(resource).getProjectRelativePath()
+                .append(getBuildFile(resource, "aux").getName()).toPortableString();
+    }
+
+    /**
+     * @param resource the file being built
+     * @return true, if the file is a further main file of the project, and
+     *  the bibliography and labels of the project are not those of the file
+     */
+    private static boolean isBuildTarget(IResource resource) {
+        return Arrays.asList(TexlipseProperties.getProjectBuildTargets(
+                resource.getProject())).contains(resource);
     }
     
     /**
@@ -217,12 +256,11 @@ public class TexBuilder extends AbstractBuilder implements AdaptableBuilder {
 	 * Clears errors and warnings from the problem view. If LaTeX runs more than once, this
 	 * makes sure, the view only shows the messages of the last run, which are still valid.
 	 *
-	 * @param project the project
+	 * @param resource the file being built
 	 */
-	private void clearMarkers(IProject project) {
+	private void clearMarkers(IResource resource) {
         try {
-            project.deleteMarkers(TexlipseBuilder.MARKER_TYPE, false, IResource.DEPTH_INFINITE);
-            project.deleteMarkers(TexlipseBuilder.LAYOUT_WARNING_TYPE, false, IResource.DEPTH_INFINITE);
+            TexlipseBuilder.deleteMarkers(resource.getProject(), resource);
         } catch (CoreException e) {
         }
 	}
@@ -235,226 +273,328 @@ public class TexBuilder extends AbstractBuilder implements AdaptableBuilder {
         //boolean error = false;
 		stopped = false;
         // Make sure we close the output document first 
-    	// (using DDE on Win32)
-    	if (Platform.getOS().equals(Platform.OS_WIN32)) {
+    	// (using DDE on Win32), the viewer shows the main document
+    	if (Platform.getOS().equals(Platform.OS_WIN32) && !isBuildTarget(resource)) {
     		monitor.subTask("Closing output document");    	
     		ViewerManager.closeOutputDocument();
     		monitor.worked(5);    		
     	}
     	
     	IProject project = resource.getProject();
-    	boolean parseAuxFiles = TexlipsePlugin.getDefault().getPreferenceStore().getBoolean(TexlipseProperties.BUILDER_PARSE_AUX_FILES);
-    	String auxFileName = getAuxFileName(project);
-		IResource auxFile = project.getFile(auxFileName);
-    	List<String> oldCitations = null;
+    	// the session properties of the project describe its main document
+    	boolean target = isBuildTarget(resource);
+    	boolean parseAuxFiles = target || TexlipsePlugin.getDefault().getPreferenceStore().getBoolean(TexlipseProperties.BUILDER_PARSE_AUX_FILES);
+    	String auxFileName = getAuxFileName(resource);
+    	AuxFileParser oldAfp = null;
     
-		if (!biblatexMode && parseAuxFiles && auxFile.exists()) {
-			// read all citations from the aux-files and save them for later
-			AuxFileParser afp = new AuxFileParser(project, auxFileName);
-			oldCitations = afp.getCitations();
+		if (!biblatexMode && parseAuxFiles && getBuildFile(resource, "aux").isFile()) {
+			// read the bibliography from the aux-files and save it for later
+			oldAfp = new AuxFileParser(project, auxFileName);
 		}		
     	
+    	if (latex instanceof LatexRunner) {
+    	    // load the packages of the preamble from a format
+    	    ((LatexRunner) latex).updateFormat(resource);
+    	    if (stopped)
+    	        return;
+    	}
+    	
     	monitor.subTask("Building document");
-        try {
-            latex.run(resource);
-        } catch (BuilderCoreException ex) {
-            //Don't stop here, we will ask the user later
-            //TODO: Error managment
-            //error = true;
-        }
+    	Map<String, ByteBuffer> hashes = getRerunHashes(resource);
+        int maxRuns = TexlipsePlugin.getDefault().getPreferenceStore().getInt(TexlipseProperties.BUILDER_MAX_RUNS);
+        boolean draftRuns = TexlipsePlugin.getDefault().getPreferenceStore().getBoolean(TexlipseProperties.BUILDER_DRAFT_PASSES);
+        // latex always runs again in the first build of a document, since
+        // it writes a new .aux file
+        boolean draft = runLatex(resource, draftRuns && maxRuns > 1
+                && !getBuildFile(resource, "aux").isFile());
+        int runs = 1;
         monitor.worked(10);
         if (stopped)
             return;
         
-        String runBib = (String) TexlipseProperties.getSessionProperty(project, TexlipseProperties.SESSION_BIBTEX_RERUN);
-        Boolean bibChange = (Boolean) TexlipseProperties.getSessionProperty(project, TexlipseProperties.BIBFILES_CHANGED);
-        IResource runIdx = findIndex(project, resource);
-        IResource runNomencl = findNomencl(project, resource);
+        String runBib = null;
+        Boolean bibChange = null;
+        if (!target) {
+            runBib = (String) TexlipseProperties.getSessionProperty(project, TexlipseProperties.SESSION_BIBTEX_RERUN);
+            bibChange = (Boolean) TexlipseProperties.getSessionProperty(project, TexlipseProperties.BIBFILES_CHANGED);
+        }
         
-        // if bibtex is not used, maybe the references need to be updated in the main document
-        String rerun = (String) TexlipseProperties.getSessionProperty(resource.getProject(), TexlipseProperties.SESSION_LATEX_RERUN);
+        // latex needs to be run again, if it changed the files it reads back
+        Map<String, ByteBuffer> newHashes = getRerunHashes(resource);
+        boolean rerun = !newHashes.equals(hashes);
         
-		if (parseAuxFiles && auxFile.exists()) {
+        boolean hasBibliography = false;
+		if (parseAuxFiles && getBuildFile(resource, "aux").isFile()) {
 			AuxFileParser afp = new AuxFileParser(project, auxFileName);
 
 			if (!biblatexMode) {
     			// check whether a new bibtex run is required
-    			List<String> newCitations = afp.getCitations();
-    			if (!newCitations.equals(oldCitations))
+    			if (!afp.hasSameBibliography(oldAfp))
     				bibChange = new Boolean(true);
 			}
 
-			// add the labels defined in the .aux-file to the label container
-			extractLabels(afp);
+			if (target) {
+			    hasBibliography = !afp.getBibData().isEmpty();
+			} else {
+			    // add the labels defined in the .aux-file to the label container
+			    extractLabels(afp);
+			}
 		}
         
         // if bibtex is used, the bibliography might be changed
-        String[] bibs = (String[]) TexlipseProperties.getSessionProperty(project, TexlipseProperties.BIBFILE_PROPERTY);
+        if (!target) {
+            String[] bibs = (String[]) TexlipseProperties.getSessionProperty(project, TexlipseProperties.BIBFILE_PROPERTY);
+            hasBibliography = bibs != null && bibs.length > 0;
+        }
         
-        if (bibs != null && bibs.length > 0 && (runBib != null || bibChange != null)) {
-            
-/*            if (error) {
-                if (askUserForContinue(project) == false) {
-                    throw new BuilderCoreException(TexlipsePlugin.stat("Errors during build. See the problems dialog."));
-                }
-            }*/
-            
-            bibtex.run(resource);
-            if (stopped)
-                return;
-            monitor.worked(10);
-            
-            TexlipseProperties.setSessionProperty(project, TexlipseProperties.SESSION_BIBTEX_RERUN, null);
-            TexlipseProperties.setSessionProperty(project, TexlipseProperties.BIBFILES_CHANGED, null);
-            
-            if (runIdx != null) {
-                makeIndex.run(resource);
-                if (stopped)
-                    return;
-                monitor.worked(10);
-            }
-            
-            if (runNomencl != null)
-            {
-                // Running makeindex to build nomenclature index
-                // when %input.nlo file is detected
-                makeIndexNomencl.run(resource);
-                if (stopped)
-                    return;
-                monitor.worked(10);
-            }
-              
-            try {
-                latex.run(resource);
-            } catch (BuilderCoreException ex) {
-                //if (!error)
-                //    throw ex;
+        boolean runBibtex = hasBibliography && (runBib != null || bibChange != null);
+        
+/*        if (runBibtex && error) {
+            if (askUserForContinue(project) == false) {
+                throw new BuilderCoreException(TexlipsePlugin.stat("Errors during build. See the problems dialog."));
             }
+        }*/
+        
+        List<ProgramRunner> tools = new ArrayList<ProgramRunner>();
+        if (runBibtex) {
+            tools.add(bibtex);
+        }
+        // the indexes are also made if they are missing, e.g. after a clean
+        addIndexers(tools, resource, hashes, newHashes, true);
+        if (!tools.isEmpty()) {
+            runTools(resource, tools);
             if (stopped)
                 return;
-            monitor.worked(10);
-            clearMarkers(project);
-            try {
-                latex.run(resource);
-            } catch (BuilderCoreException ex) {
-                //if (!error)
-                //    throw ex;
+            if (runBibtex && !target) {
+                TexlipseProperties.setSessionProperty(project, TexlipseProperties.SESSION_BIBTEX_RERUN, null);
+                TexlipseProperties.setSessionProperty(project, TexlipseProperties.BIBFILES_CHANGED, null);
             }
+            rerun = true;
+        }
+        boolean toolsRan = !tools.isEmpty();
+        
+        // run latex until the files it reads back don't change anymore
+        while (rerun && runs < maxRuns) {
+            hashes = newHashes;
+            clearMarkers(resource);
+            // after bibtex or makeindex, latex usually runs once for reading
+            // their output and once more for the references to it
+            draft = runLatex(resource, draftRuns && toolsRan && runs + 1 < maxRuns);
+            runs++;
             if (stopped)
                 return;
             monitor.worked(10);
             
-        } else if (rerun != null || runIdx != null || runNomencl != null) {
-
-/*            if (error) {
-                if (askUserForContinue(project) == false) {
-                    throw new BuilderCoreException(TexlipsePlugin.stat("Errors during build. See the problems dialog."));
+            newHashes = getRerunHashes(resource);
+            rerun = !newHashes.equals(hashes);
+            toolsRan = false;
+            if (rerun && runs < maxRuns) {
+                tools.clear();
+                addIndexers(tools, resource, hashes, newHashes, false);
+                if (!tools.isEmpty()) {
+                    runTools(resource, tools);
+                    if (stopped)
+                        return;
+                    toolsRan = true;
                 }
-            }*/
-            
-            if (runIdx != null) {
-                makeIndex.run(resource);
-                if (stopped)
-                    return;
-                monitor.worked(10);
-            }
-            
-            if (runNomencl != null)
-            {
-                // Running makeindex to build nomenclature index
-                // when %input.nlo file is detected
-                makeIndexNomencl.run(resource);
-                if (stopped)
-                    return;
-                monitor.worked(10);
-            }
-            
-            try {
-                latex.run(resource);
-            } catch (BuilderCoreException ex) {
-                //if (!error)
-                    //throw ex;
             }
+        }
+        
+        if (draft) {
+            // the last run didn't write the output
+            clearMarkers(resource);
+            runLatex(resource, false);
             if (stopped)
                 return;
             monitor.worked(10);
-            
-            TexlipseProperties.setSessionProperty(resource.getProject(), TexlipseProperties.SESSION_LATEX_RERUN, null);
         }
     }
 
-    public void updateBuilder(IProject project) {
-        // Check if runners need to be updated due to changes in BibTeX / BibLaTeX settings
-        Boolean newBiblatexMode = (Boolean) TexlipseProperties.getSessionProperty(project,
-                TexlipseProperties.SESSION_BIBLATEXMODE_PROPERTY);
-        String newBiblatexBackend = (String) TexlipseProperties.getSessionProperty(project,
-                TexlipseProperties.SESSION_BIBLATEXBACKEND_PROPERTY);
-        boolean blModeVal = newBiblatexMode != null;
-        String blBEVal = newBiblatexBackend != null ? newBiblatexBackend : ""; 
-        if (blModeVal != biblatexMode || (biblatexMode && !blBEVal.equals(biblatexBackend))) {
-            bibtex = null;
-            // isValid will later re-assign the runners
+    /**
+     * Runs latex once. Errors in the document don't stop the build.
+     * 
+     * @param resource the file being built
+     * @param draft true, if the output of this run is not needed because
+     *  latex will be run again
+     * @return true, if the run didn't write the output
+     * @throws CoreException if latex can't be run
+     */
+    private boolean runLatex(IResource resource, boolean draft) throws CoreException {
+        boolean drafted = latex instanceof LatexRunner && ((LatexRunner) latex).setDraft(draft);
+        try {
+            latex.run(resource);
+        } catch (BuilderCoreException ex) {
+            // the errors are reported as markers, the build goes on
+        } finally {
+            if (drafted) {
+                ((LatexRunner) latex).setDraft(false);
+            }
         }
-        biblatexMode = blModeVal;
-        biblatexBackend = newBiblatexBackend;
+        return drafted;
     }
 
     /**
-     * Find a handle to the index file of this project.
-     * @param project the current project
-     * @param source buildable resource inside project 
-     * @return handle to index file or null if not found.
-     *         Returns null also if the index file is older than the current output file
+     * Adds makeindex for the index and the nomenclature to the programs
+     * to run, if latex has changed their input files.
+     * 
+     * @param tools the programs to run
+     * @param resource the file being built
+     * @param before hashes of the files before the latex run
+     * @param after hashes of the files after the latex run
+     * @param ifMissing also run if the output of makeindex doesn't exist
      */
-    private IResource findIndex(IProject project, IResource source) {
-        
-        IContainer srcDir = TexlipseProperties.getProjectSourceDir(project);
-        if (srcDir == null) {
-            srcDir = project;
+    private void addIndexers(List<ProgramRunner> tools, IResource resource,
+            Map<String, ByteBuffer> before, Map<String, ByteBuffer> after, boolean ifMissing) {
+        if (needsIndex(resource, TexlipseProperties.INPUT_FORMAT_IDX,
+                TexlipseProperties.OUTPUT_FORMAT_IDX, before, after, ifMissing)) {
+            tools.add(makeIndex);
         }
-        
-        String name = source.getName();
-        String idxName = name.substring(0, name.length() - source.getFileExtension().length()) + TexlipseProperties.INPUT_FORMAT_IDX;
-        IResource idxFile = srcDir.findMember(idxName);
-        if (idxFile == null) {
-            return null;
+        if (needsIndex(resource, TexlipseProperties.INPUT_FORMAT_NOMENCL,
+                TexlipseProperties.OUTPUT_FORMAT_NOMENCL, before, after, ifMissing)) {
+            // Running makeindex to build nomenclature index
+            // when %input.nlo file is detected
+            tools.add(makeIndexNomencl);
+        }
+    }
+
+    /**
+     * Runs the given programs at the same time, as they read and write
+     * different files. The console output of each program is collected
+     * and printed in the order of the list when all of them have finished.
+     * 
+     * @param resource the file being built
+     * @param tools the programs to run
+     * @throws CoreException the failure of the first program in the list
+     *  that failed
+     */
+    private void runTools(final IResource resource, List<ProgramRunner> tools) throws CoreException {
+        if (tools.size() == 1) {
+            tools.get(0).run(resource);
+            monitor.worked(10);
+            return;
         }
         
-        IResource outFile = TexlipseProperties.getProjectOutputFile(project);
-        if (outFile.getLocalTimeStamp() > idxFile.getLocalTimeStamp()) {
-            return null;
+        List<Future<Object>> results = new ArrayList<Future<Object>>();
+        List<StringBuffer> outputs = new ArrayList<StringBuffer>();
+        for (final ProgramRunner tool : tools) {
+            final StringBuffer console = new StringBuffer();
+            outputs.add(console);
+            results.add(toolExecutor.submit(new Callable<Object>() {
+                public Object call() throws CoreException {
+                    BuilderRegistry.setConsoleBuffer(console);
+                    try {
+                        tool.run(resource);
+                    } finally {
+                        BuilderRegistry.setConsoleBuffer(null);
+                    }
+                    return null;
+                }
+            }));
         }
         
-        return idxFile;
+        CoreException failure = null;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                results.get(i).get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof CoreException ? (CoreException) e.getCause()
+                            : new CoreException(TexlipsePlugin.stat(e.getCause().toString(), e.getCause()));
+                }
+            } catch (InterruptedException e) {
+                // the build was canceled, the programs are stopped and the
+                // rest of the build is skipped
+                Thread.currentThread().interrupt();
+                stopRunners();
+                return;
+            }
+            StringBuffer console = outputs.get(i);
+            if (console.length() > 0) {
+                BuilderRegistry.printToConsole(console.substring(0, console.length() - 1));
+            }
+            monitor.worked(10);
+        }
+        if (failure != null) {
+            throw failure;
+        }
     }
-    
+
     /**
-     * Find a handle to the index file of this project.
-     * @param project the current project
-     * @param source buildable resource inside project 
-     * @return handle to index file or null if not found.
-     *         Returns null also if the index file is older than the current output file
+     * Checks whether an index has to be made from the given index file.
+     * 
+     * @param resource the file being built
+     * @param inputExt extension of the index file written by latex
+     * @param outputExt extension of the file written by makeindex
+     * @param before hashes of the files before the latex run
+     * @param after hashes of the files after the latex run
+     * @param ifMissing also true if the file written by makeindex doesn't exist
+     * @return true, if makeindex should be run
      */
-    private IResource findNomencl(IProject project, IResource source) {
-        
-        IContainer srcDir = TexlipseProperties.getProjectSourceDir(project);
-        if (srcDir == null) {
-            srcDir = project;
+    private static boolean needsIndex(IResource resource, String inputExt, String outputExt,
+            Map<String, ByteBuffer> before, Map<String, ByteBuffer> after, boolean ifMissing) {
+        File idxFile = getBuildFile(resource, inputExt);
+        String key = idxFile.getAbsolutePath();
+        if (!after.containsKey(key)) {
+            return false;
         }
+        return !after.get(key).equals(before.get(key))
+                || (ifMissing && !getBuildFile(resource, outputExt).exists());
+    }
 
-        String name = source.getName();
-        String nomenclName = name.substring(0, name.length() - source.getFileExtension().length()) + TexlipseProperties.INPUT_FORMAT_NOMENCL;
-        IResource idxFile = srcDir.findMember(nomenclName);
-    
-        if (idxFile == null) {
-            return null;
+    /**
+     * @param resource the file being built
+     * @param ext a file extension without the dot
+     * @return the file in the build folder with the given extension
+     */
+    private static File getBuildFile(IResource resource, String ext) {
+        return OutputFileManager.getBuildFile(resource, ext);
+    }
+
+    /**
+     * Computes the hashes of the files that latex writes and reads back on
+     * the next run. Besides the files of the main document, these include
+     * the .aux files of included files, which are found from the recorder
+     * file of the last run.
+     * 
+     * @param resource the file being built
+     * @return the absolute paths of the existing files and their hashes
+     */
+    private static Map<String, ByteBuffer> getRerunHashes(IResource resource) {
+        Set<String> names = new HashSet<String>();
+        for (String ext : RERUN_EXTS) {
+            names.add(getBuildFile(resource, ext.substring(1)).getAbsolutePath());
         }
-        
-        IResource outFile = TexlipseProperties.getProjectOutputFile(project);
-        if (outFile.getLocalTimeStamp() > idxFile.getLocalTimeStamp()) {
-            return null;
+        for (String name : BuildRecord.getOutputs(getBuildFile(resource, "fls"))) {
+            if (name.endsWith(".aux")) {
+                names.add(name);
+            }
         }
-        
-        return idxFile;
+        Map<String, ByteBuffer> hashes = new HashMap<String, ByteBuffer>();
+        for (String name : names) {
+            File file = new File(name);
+            if (file.isFile()) {
+                byte[] hash = BuildRecord.getHash(file);
+                if (hash != null) {
+                    hashes.put(name, ByteBuffer.wrap(hash));
+                }
+            }
+        }
+        return hashes;
+    }
+
+    public void updateBuilder(IProject project) {
+        // Check if runners need to be updated due to changes in BibTeX / BibLaTeX settings
+        Boolean newBiblatexMode = (Boolean) TexlipseProperties.getSessionProperty(project,
+                TexlipseProperties.SESSION_BIBLATEXMODE_PROPERTY);
+        String newBiblatexBackend = (String) TexlipseProperties.getSessionProperty(project,
+                TexlipseProperties.SESSION_BIBLATEXBACKEND_PROPERTY);
+        boolean blModeVal = newBiblatexMode != null;
+        String blBEVal = newBiblatexBackend != null ? newBiblatexBackend : ""; 
+        if (blModeVal != biblatexMode || (biblatexMode && !blBEVal.equals(biblatexBackend))) {
+            bibtex = null;
+            // isValid will later re-assign the runners
+        }
+        biblatexMode = blModeVal;
+        biblatexBackend = newBiblatexBackend;
     }
 }
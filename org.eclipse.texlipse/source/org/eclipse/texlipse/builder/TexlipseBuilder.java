@@ -12,20 +12,43 @@ package org.eclipse.texlipse.builder;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IWorkspaceRunnable;
 import org.eclipse.core.resources.IncrementalProjectBuilder;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.ProgressMonitorWrapper;
 import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
 import org.eclipse.texlipse.TexlipsePlugin;
+import org.eclipse.texlipse.model.OutlineNode;
 import org.eclipse.texlipse.model.TexDocumentModel;
+import org.eclipse.texlipse.model.TexProjectParser;
 import org.eclipse.texlipse.properties.TexlipseProperties;
 import org.eclipse.texlipse.texparser.LatexParserUtils;
 import org.eclipse.texlipse.viewer.ViewerManager;
@@ -51,6 +74,29 @@ public class TexlipseBuilder extends IncrementalProjectBuilder {
     // marker type for builder layout warnings
     public static final String LAYOUT_WARNING_TYPE = TexlipseProperties.PACKAGE_NAME + ".layoutproblem";
 
+    // marker attribute for the document whose build reported the problem
+    public static final String MARKER_BUILD_TARGET = "buildTarget";
+
+    // the further main files of a project are built at most at the same time
+    private static final int MAX_TARGET_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    // builds the further main files of the projects, shared by all builds
+    private static final ThreadPoolExecutor targetExecutor = createTargetExecutor();
+
+    private static ThreadPoolExecutor createTargetExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_TARGET_THREADS, MAX_TARGET_THREADS,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "TeXlipse build targets");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     // minimum number of characters that a valid latex document can have
     private static final int validDocumentLimit = 10;
     
@@ -67,6 +113,26 @@ public class TexlipseBuilder extends IncrementalProjectBuilder {
 	        IProgressMonitor monitor) throws CoreException {
 
         final IProject project = getProject();
+        
+        // in continuous mode, an automatic build is given up as soon as
+        // the workspace is changed again, e.g. by another save; the
+        // changes are then built together by the next automatic build
+        final boolean continuous = kind == AUTO_BUILD && TexlipsePlugin.getDefault()
+                .getPreferenceStore().getBoolean(TexlipseProperties.BUILDER_CONTINUOUS);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        final IProgressMonitor buildMonitor = monitor;
+        if (continuous) {
+            monitor = new ProgressMonitorWrapper(monitor) {
+                public boolean isCanceled() {
+                    // also called by the build monitor thread
+                    if (isInterrupted()) {
+                        interrupted.set(true);
+                    }
+                    return interrupted.get() || super.isCanceled();
+                }
+            };
+        }
+        
         final ProjectFileTracking fileTracking = new ProjectFileTracking(project);
         final OutputFileManager fileManager = new OutputFileManager(project, fileTracking);
 
@@ -88,22 +154,66 @@ public class TexlipseBuilder extends IncrementalProjectBuilder {
             }
         }
 
-        if (rebuild == null && fileManager.isUpToDate()) {
+        if (continuous && monitor.isCanceled()) {
+            // a newer change is waiting, build that instead
+            TexlipseProperties.setSessionProperty(project, TexlipseProperties.FORCED_REBUILD, Boolean.TRUE);
             return null;
         }
 
-        BuilderRegistry.clearConsole();
-
         Object s = TexlipseProperties.getProjectProperty(project,
                 TexlipseProperties.PARTIAL_BUILD_PROPERTY);
-		if (s != null) {
-			partialBuild(project, fileManager, monitor);
-		} else {
-			buildFile(project, null, fileManager, monitor);
+        // the files added since the last build are taken from the delta
+        final IResourceDelta delta = getDelta(project);
+        boolean upToDate = rebuild == null && fileManager.isUpToDate(delta);
+        // the further main files are left alone by partial builds
+        List<IFile> targets = new ArrayList<IFile>();
+        if (s == null) {
+            for (IFile target : TexlipseProperties.getProjectBuildTargets(project)) {
+                if (rebuild != null || !new OutputFileManager(project,
+                        new ProjectFileTracking(project, target), target).isUpToDate(delta)) {
+                    targets.add(target);
+                }
+            }
+        }
+        if (upToDate && targets.isEmpty()) {
+            return null;
+        }
+
+        BuilderRegistry.clearConsole();
+
+		// the further main files are not interrupted by the continuous mode
+		TargetBuilds targetBuilds = new TargetBuilds(project, targets, buildMonitor);
+		targetBuilds.start();
+		boolean chapterBuilt = false;
+		boolean built = false;
+		try {
+		    if (upToDate) {
+		        // only further main files have changed
+		    } else if (s != null) {
+		        chapterBuilt = partialBuild(project, fileManager, monitor);
+		    } else {
+		        buildFile(project, null, fileManager, monitor);
+		    }
+		    built = true;
+		} finally {
+		    // the started builds are waited for in any case, as their
+		    // workspace changes are made by this thread
+		    if (built) {
+		        targetBuilds.finish(!monitor.isCanceled());
+		    } else {
+		        try {
+		            targetBuilds.finish(false);
+		        } catch (CoreException e) {
+		            // the failure of the main document is reported instead
+		        }
+		    }
 		}
 
-		TexlipseProperties.setSessionProperty(project,
-		        TexlipseProperties.FORCED_REBUILD, null);
+		// the output of a chapter build lacks the other chapters, and an
+		// interrupted build may have left the output incomplete, so the
+		// next build must not be skipped as up to date
+		TexlipseProperties.setSessionProperty(project, TexlipseProperties.FORCED_REBUILD,
+		        chapterBuilt || interrupted.get() ? Boolean.TRUE : null);
 
 		return null;
 	}
@@ -123,9 +233,10 @@ public class TexlipseBuilder extends IncrementalProjectBuilder {
         BuilderRegistry.clearConsole();
 
         // reset session variables
-        TexlipseProperties.setSessionProperty(project, TexlipseProperties.SESSION_LATEX_RERUN, null);
         TexlipseProperties.setSessionProperty(project, TexlipseProperties.SESSION_BIBTEX_RERUN, null);
         TexlipseProperties.setSessionProperty(project, TexlipseProperties.BIBFILES_CHANGED, null);
+        TexlipseProperties.setSessionProperty(project, TexlipseProperties.SESSION_BUILD_RECORD, null);
+        TexlipseProperties.setSessionProperty(project, TexlipseProperties.SESSION_TARGET_RECORDS, null);
 
         // check main file
         String mainFile = TexlipseProperties.getProjectProperty(project, TexlipseProperties.MAINFILE_PROPERTY);
@@ -136,6 +247,17 @@ public class TexlipseBuilder extends IncrementalProjectBuilder {
 
         fileManager.cleanTempFiles(monitor);
         fileManager.cleanOutputFile(monitor);
+        IFile mainResource = TexlipseProperties.getProjectSourceFile(project);
+        if (mainResource != null) {
+            FormatCache.getDefault().delete(mainResource);
+        }
+        for (IFile target : TexlipseProperties.getProjectBuildTargets(project)) {
+            OutputFileManager targetManager = new OutputFileManager(project,
+                    new ProjectFileTracking(project, target), target);
+            targetManager.cleanTempFiles(monitor);
+            targetManager.cleanOutputFile(monitor);
+            FormatCache.getDefault().delete(target);
+        }
 
         monitor.subTask(TexlipsePlugin.getResourceString("builderSubTaskCleanMarkers"));
 
@@ -150,9 +272,10 @@ public class TexlipseBuilder extends IncrementalProjectBuilder {
      * @param project current project
      * @param fileManager output file manager instance
      * @param monitor progress monitor
+     * @return true, if only a chapter of the main document was built
      * @throws CoreException if an error occurs
      */
-    private void partialBuild(final IProject project,
+    private boolean partialBuild(final IProject project,
             final OutputFileManager fileManager,
             final IProgressMonitor monitor) throws CoreException {
 
@@ -165,7 +288,7 @@ public class TexlipseBuilder extends IncrementalProjectBuilder {
         if (res == null || res.getType() != IResource.FILE || !res.getProject().equals(project)) {
             // No file is selected, so user must be browsing 
             // with the navigator. Don't build anything yet.
-            return;            
+            return false;            
         }
         String resourceName = res.getName();
         int extIndex = resourceName.lastIndexOf('.');
@@ -180,7 +303,7 @@ public class TexlipseBuilder extends IncrementalProjectBuilder {
         String content = doc.get();
         if (content.indexOf(NO_PARTIAL_BUILD) >= 0) {
             //Do not build this file or anything else
-            return;
+            return false;
         }
         else if (resourceName.equals(TexlipseProperties.getProjectProperty(project, TexlipseProperties.MAINFILE_PROPERTY))
                 || (!ext.equals("tex") && !ext.equals("ltx"))) {
@@ -189,19 +312,33 @@ public class TexlipseBuilder extends IncrementalProjectBuilder {
             // also, bib file changes need full build
             TexlipseProperties.setSessionProperty(project, TexlipseProperties.PARTIAL_BUILD_FILE, null);
         	buildFile(project, null, fileManager, monitor);
-        	return;
+        	return false;
         } else if (LatexParserUtils.findCommand(content, "\\documentclass", 0) != -1
                 || LatexParserUtils.findCommand(content, "\\documentstyle", 0) != -1
                 || LatexParserUtils.findBeginEnvironment(content, "document", 0) != null) {
             // A complete tex file (just build it)
             TexlipseProperties.setSessionProperty(project, TexlipseProperties.PARTIAL_BUILD_FILE, file);
             buildFile(project, file, fileManager, monitor);
-            return;
+            return false;
+        }
+        String chapter = findChapter(project, file);
+        if (chapter != null) {
+            // build the main document with only this chapter, the .aux files
+            // of the other chapters keep their references and page numbers
+            IFile mainFile = TexlipseProperties.getProjectSourceFile(project);
+            TexlipseProperties.setSessionProperty(project, TexlipseProperties.PARTIAL_BUILD_FILE, mainFile);
+            TexlipseProperties.setSessionProperty(project, TexlipseProperties.SESSION_INCLUDE_ONLY, chapter);
+            try {
+                buildFile(project, mainFile, fileManager, monitor);
+            } finally {
+                TexlipseProperties.setSessionProperty(project, TexlipseProperties.SESSION_INCLUDE_ONLY, null);
+            }
+            return true;
         }
         String tempFileContents = getTempFileContents(file, project, monitor);
         if (tempFileContents == null) {
             //Can not create a valid tmp file
-            return;
+            return false;
         }
         //The temp file should be in the main folder
         IContainer folder = TexlipseProperties.getProjectSourceDir(project);
@@ -223,8 +360,100 @@ public class TexlipseBuilder extends IncrementalProjectBuilder {
         
         // build temp file
         buildFile(project, tmpFile, fileManager, monitor);
+        return false;
     }
     
+    /**
+     * Finds the chapter of the main document that the given file belongs
+     * to. A chapter is a file included with <code>\include</code> in the
+     * main file, and the file belongs to it if it is the chapter itself or
+     * is input by the chapter, directly or through other files.
+     * 
+     * @param project the current project
+     * @param file the file to build
+     * @return the name of the chapter as given to <code>\include</code>, or
+     *  null if the file is not in a chapter or the main file already uses
+     *  <code>\includeonly</code>
+     */
+    private String findChapter(IProject project, IFile file) {
+        IFile mainFile = TexlipseProperties.getProjectSourceFile(project);
+        if (mainFile == null || !mainFile.exists() || mainFile.getName().indexOf(' ') >= 0) {
+            return null;
+        }
+        String content;
+        try {
+            content = TexlipseProperties.getFileContents(mainFile);
+        } catch (IOException e) {
+            return null;
+        }
+        if (content == null || LatexParserUtils.findCommand(content, "\\includeonly", 0) != -1) {
+            return null;
+        }
+        
+        Map<String, IFile> chapters = new LinkedHashMap<String, IFile>();
+        int index = LatexParserUtils.findCommand(content, "\\include", 0);
+        while (index != -1) {
+            IRegion arg = LatexParserUtils.getCommandArgument(content, index);
+            if (arg != null) {
+                String name = content.substring(arg.getOffset(), arg.getOffset() + arg.getLength()).trim();
+                IFile chapterFile = TexProjectParser.findIFile(name, mainFile, project);
+                if (file.equals(chapterFile)) {
+                    return name;
+                }
+                if (chapterFile != null) {
+                    chapters.put(name, chapterFile);
+                }
+            }
+            index = LatexParserUtils.findCommand(content, "\\include", index + 1);
+        }
+        
+        // look for the file among the inputs of the chapters
+        TexProjectParser parser = new TexProjectParser(project);
+        Set<IFile> visited = new HashSet<IFile>();
+        for (Map.Entry<String, IFile> e : chapters.entrySet()) {
+            if (isInput(parser, mainFile, e.getValue(), file, visited)) {
+                return e.getKey();
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Checks whether a file is input by another file, directly or through
+     * other files.
+     * 
+     * @param parser the parser for the project
+     * @param mainFile the main file, the names of the inputs are relative to
+     * @param from the file whose inputs are searched
+     * @param file the file to look for
+     * @param visited the files already searched, which are not searched again
+     * @return true, if the file is input by <code>from</code>
+     */
+    private boolean isInput(TexProjectParser parser, IFile mainFile, IFile from,
+            IFile file, Set<IFile> visited) {
+        if (!visited.add(from)) {
+            return false;
+        }
+        List<OutlineNode> inputs;
+        try {
+            parser.parseFile(from);
+            inputs = new ArrayList<OutlineNode>(parser.getInputs());
+        } catch (IOException e) {
+            return false;
+        }
+        for (OutlineNode node : inputs) {
+            IFile input = TexProjectParser.findIFile(node.getName(), mainFile, mainFile.getProject());
+            if (input == null) {
+                input = TexProjectParser.findIFile(node.getName(), from, mainFile.getProject());
+            }
+            if (input != null && (input.equals(file)
+                    || isInput(parser, mainFile, input, file, visited))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Generate temp file contents. Therefore it includes 
      * the full preamble + \include{file} + bibtex settings
@@ -328,7 +557,7 @@ public class TexlipseBuilder extends IncrementalProjectBuilder {
                     throws CoreException {
 
         //load settings, if changed on disk
-        if (TexlipseProperties.isProjectPropertiesFileChanged(project)) {
+        if (!fileManager.isBuildTarget() && TexlipseProperties.isProjectPropertiesFileChanged(project)) {
             TexlipseProperties.loadProjectProperties(project);
         }
         
@@ -355,7 +584,7 @@ public class TexlipseBuilder extends IncrementalProjectBuilder {
         // number 100 is just some kind of guess of how much work there is
         monitor.beginTask(TexlipsePlugin.getResourceString("builderSubTaskBuild"), 100);
 
-        this.deleteMarkers(project);
+        deleteMarkers(project, resource);
         monitor.worked(1);
 
         // reset builder instance to startable state
@@ -363,21 +592,231 @@ public class TexlipseBuilder extends IncrementalProjectBuilder {
 
         // run file processes before build (e.g. moving temp files in)
         fileManager.setCurrentSourceFile(resource);
-        fileManager.performBeforeBuild(monitor);
+        WorkspaceChanges.run(new IWorkspaceRunnable() {
+            public void run(IProgressMonitor monitor) throws CoreException {
+                fileManager.performBeforeBuild(monitor);
+            }
+        }, monitor);
+
+        // the recorder file of an earlier build must not be taken for
+        // this one, e.g. if latex could not be started
+        File flsFile = OutputFileManager.getBuildFile(resource, "fls");
+        long flsModified = flsFile.lastModified();
 
         // start the build
+        boolean failed = false;
         try {
             builder.build(resource);
         } catch (BuilderCoreException e) {
+            failed = true;
+        }
+
+        // remember the inputs of a full build for the up-to-date check; the
+        // files that latex failed to open are not among them, so a build
+        // with errors is not recorded
+        BuildRecord record = null;
+        if (!failed && !monitor.isCanceled() && (fileManager.isBuildTarget()
+                || resource.equals(TexlipseProperties.getProjectSourceFile(project)))
+                && TexlipseProperties.getSessionProperty(project, TexlipseProperties.SESSION_INCLUDE_ONLY) == null
+                && flsFile.lastModified() != flsModified && !hasErrors(project, resource)) {
+            record = recordBuild(project, resource);
         }
 
         // run file processes after build (e.g. moving files out)
-        fileManager.performAfterBuild(monitor);
+        try {
+            WorkspaceChanges.run(new IWorkspaceRunnable() {
+                public void run(IProgressMonitor monitor) throws CoreException {
+                    fileManager.performAfterBuild(monitor);
+                }
+            }, monitor);
+        } finally {
+            // files changed after this are newer than the build
+            if (record != null) {
+                record.setTime(System.currentTimeMillis());
+            }
+            fileManager.setBuildRecord(record);
+        }
 
         monitor.done();
     }
 
 
+    /**
+     * Builds further main files of the project. Each of them is built with
+     * builders and runners of its own into its own temporary files folder,
+     * and its console output is printed when all of them have finished, in
+     * the order of the files.
+     *
+     * With a temporary files folder, they are built by other threads at the
+     * same time as the main document, and their workspace changes are made
+     * by the thread of the project build, which holds the scheduling rule.
+     * Without one, they are built one after another after the main
+     * document, since they would write their files into the same folder.
+     */
+    private class TargetBuilds {
+
+        private final IProject project;
+        private final List<IFile> targets;
+        private final IProgressMonitor monitor;
+        private final boolean parallel;
+        private final WorkspaceChanges changes;
+        private final List<Future<Object>> results;
+        private final List<StringBuffer> outputs;
+
+        /**
+         * @param project the current project
+         * @param targets the main files to build
+         * @param monitor progress monitor of the project build
+         */
+        TargetBuilds(IProject project, List<IFile> targets, IProgressMonitor monitor) {
+            this.project = project;
+            this.targets = targets;
+            this.monitor = monitor;
+            this.parallel = TexlipseProperties.getProjectTempDir(project) != null;
+            this.changes = new WorkspaceChanges();
+            this.results = new ArrayList<Future<Object>>();
+            this.outputs = new ArrayList<StringBuffer>();
+        }
+
+        /**
+         * Starts the builds, if they are built at the same time as the
+         * main document. The current thread then runs their workspace
+         * changes until {@link #finish()}.
+         */
+        void start() {
+            if (!parallel) {
+                return;
+            }
+            WorkspaceChanges.setOwner(changes);
+            for (IFile target : targets) {
+                results.add(targetExecutor.submit(createTask(target, changes)));
+            }
+        }
+
+        private Callable<Object> createTask(final IFile target,
+                final WorkspaceChanges handOver) {
+            final StringBuffer console = new StringBuffer();
+            outputs.add(console);
+            return new Callable<Object>() {
+                public Object call() throws CoreException {
+                    BuilderRegistry.setConsoleBuffer(console);
+                    BuilderRegistry.setIsolated(true);
+                    WorkspaceChanges.setHandOver(handOver);
+                    try {
+                        buildTarget(project, target, monitor);
+                    } finally {
+                        WorkspaceChanges.setHandOver(null);
+                        BuilderRegistry.setIsolated(false);
+                        BuilderRegistry.setConsoleBuffer(null);
+                    }
+                    return null;
+                }
+            };
+        }
+
+        /**
+         * Waits for the builds to finish, or builds the files now if they
+         * are built one after another.
+         *
+         * @param build true to build the files that haven't been built
+         *  yet, false if the build was canceled
+         * @throws CoreException the failure of the first file in the list
+         *  that failed
+         */
+        void finish(boolean build) throws CoreException {
+            if (!parallel && build) {
+                for (IFile target : targets) {
+                    FutureTask<Object> future = new FutureTask<Object>(createTask(target, null));
+                    future.run();
+                    results.add(future);
+                }
+            }
+
+            CoreException failure = null;
+            boolean interrupted = false;
+            try {
+                for (int i = 0; i < results.size(); i++) {
+                    try {
+                        changes.runUntilDone(results.get(i));
+                        results.get(i).get();
+                    } catch (ExecutionException e) {
+                        if (failure == null) {
+                            failure = e.getCause() instanceof CoreException ? (CoreException) e.getCause()
+                                    : new CoreException(TexlipsePlugin.stat(e.getCause().toString(), e.getCause()));
+                        }
+                    } catch (InterruptedException e) {
+                        // the builds see the canceled monitor and stop, but
+                        // their workspace changes are still made until then
+                        interrupted = true;
+                        monitor.setCanceled(true);
+                        i--;
+                        continue;
+                    }
+                    StringBuffer console = outputs.get(i);
+                    BuilderRegistry.printToConsole(TexlipsePlugin.getResourceString("builderBuildTarget")
+                            .replaceAll("%s", targets.get(i).getName()));
+                    if (console.length() > 0) {
+                        BuilderRegistry.printToConsole(console.substring(0, console.length() - 1));
+                    }
+                }
+            } finally {
+                WorkspaceChanges.setOwner(null);
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Builds a further main file of the project.
+     *
+     * @param project the current project
+     * @param target the main file to build
+     * @param monitor progress monitor of the project build
+     * @throws CoreException if an error occurs
+     */
+    private void buildTarget(IProject project, IFile target,
+            final IProgressMonitor monitor) throws CoreException {
+        if (!target.exists()) {
+            BuilderRegistry.printToConsole(TexlipsePlugin.getResourceString("builderErrorTargetNotFound")
+                    .replaceAll("%s", target.getProjectRelativePath().toString()));
+            return;
+        }
+        OutputFileManager fileManager = new OutputFileManager(project,
+                new ProjectFileTracking(project, target), target);
+        // the progress of the project build is not shown for the targets
+        buildFile(project, target, fileManager, new NullProgressMonitor() {
+            public boolean isCanceled() {
+                return super.isCanceled() || monitor.isCanceled();
+            }
+        });
+    }
+
+    /**
+     * Reads the inputs of the build from the recorder file of LaTeX. The
+     * BibTeX databases of the project are added, as they are read by
+     * BibTeX and not by LaTeX.
+     * 
+     * @param project the current project
+     * @param resource the file that was built
+     * @return the record or null if LaTeX didn't write a recorder file
+     */
+    private BuildRecord recordBuild(IProject project, IFile resource) {
+        File flsFile = OutputFileManager.getBuildFile(resource, "fls");
+        List<File> bibFiles = new ArrayList<File>();
+        IContainer sourceDir = TexlipseProperties.getProjectSourceDir(project);
+        for (IResource bib : TexlipseProperties.getAllMemberFiles(sourceDir,
+                new String[] { TexlipseProperties.INPUT_FORMAT_BIB })) {
+            bibFiles.add(bib.getLocation().toFile());
+        }
+        return BuildRecord.read(flsFile, bibFiles,
+                TexlipsePlugin.getPreferenceArray(TexlipseProperties.TEMP_FILE_EXTS));
+    }
+
     /**
      * Check that the filename settings are correct.
      * 
@@ -461,6 +900,69 @@ public class TexlipseBuilder extends IncrementalProjectBuilder {
         return builder;
     }
 
+    /**
+     * Delete the build errors and layout markers of a document. The build of
+     * a further main file only deletes the markers it created itself, the
+     * build of the main file, also a partial one, those of all the other
+     * builds.
+     * 
+     * @param project the current project
+     * @param resource the file being built
+     * @throws CoreException if the markers can't be deleted
+     */
+    static void deleteMarkers(final IProject project, IResource resource) throws CoreException {
+        IFile[] targets = TexlipseProperties.getProjectBuildTargets(project);
+        if (targets.length == 0) {
+            project.deleteMarkers(MARKER_TYPE, false, IResource.DEPTH_INFINITE);
+            project.deleteMarkers(LAYOUT_WARNING_TYPE, false, IResource.DEPTH_INFINITE);
+            return;
+        }
+        // the markers are only read here, they are deleted by the thread
+        // holding the rule of the project
+        Set<String> names = new HashSet<String>();
+        for (IFile target : targets) {
+            names.add(target.getFullPath().removeFileExtension().toString());
+        }
+        String name = resource.getFullPath().removeFileExtension().toString();
+        boolean isTarget = names.contains(name);
+        List<IMarker> markers = new ArrayList<IMarker>();
+        for (String type : new String[] { MARKER_TYPE, LAYOUT_WARNING_TYPE }) {
+            for (IMarker marker : project.findMarkers(type, false, IResource.DEPTH_INFINITE)) {
+                String markerTarget = marker.getAttribute(MARKER_BUILD_TARGET, null);
+                if (isTarget ? name.equals(markerTarget) : !names.contains(markerTarget)) {
+                    markers.add(marker);
+                }
+            }
+        }
+        if (!markers.isEmpty()) {
+            final IMarker[] deleted = markers.toArray(new IMarker[markers.size()]);
+            WorkspaceChanges.run(new IWorkspaceRunnable() {
+                public void run(IProgressMonitor monitor) throws CoreException {
+                    project.getWorkspace().deleteMarkers(deleted);
+                }
+            }, null);
+        }
+    }
+
+    /**
+     * Checks whether the build of a document reported errors.
+     * 
+     * @param project the current project
+     * @param resource the file that was built
+     * @return true, if there are error markers of the document
+     * @throws CoreException if the markers can't be read
+     */
+    private static boolean hasErrors(IProject project, IResource resource) throws CoreException {
+        String name = resource.getFullPath().removeFileExtension().toString();
+        for (IMarker marker : project.findMarkers(MARKER_TYPE, false, IResource.DEPTH_INFINITE)) {
+            if (marker.getAttribute(IMarker.SEVERITY, -1) == IMarker.SEVERITY_ERROR
+                    && name.equals(marker.getAttribute(MARKER_BUILD_TARGET, null))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Delete old build errors and layout markers from project
      * @param project
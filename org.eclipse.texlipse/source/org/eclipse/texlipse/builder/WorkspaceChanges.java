@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.builder;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.texlipse.TexlipsePlugin;
+
+/**
+ * Hands the workspace changes of the threads building the further main
+ * files of a project to the thread of the project build. Only that thread
+ * holds the scheduling rule of the project, so the files and markers of
+ * the further main files are changed by it, too, and other workspace
+ * operations can't run in between.
+ *
+ * The build thread runs the handed over changes while it waits for its
+ * own external programs and while it waits for the other threads to
+ * finish. Threads that don't hand over their changes run them themselves.
+ */
+public class WorkspaceChanges {
+
+    // how long the build thread waits for changes at a time, in milliseconds
+    private static final long POLL_INTERVAL = 100;
+
+    // the changes the current thread runs for other threads, or null
+    private static final ThreadLocal<WorkspaceChanges> owned = new ThreadLocal<WorkspaceChanges>();
+
+    // the changes the current thread hands its changes over to, or null
+    private static final ThreadLocal<WorkspaceChanges> handedOver = new ThreadLocal<WorkspaceChanges>();
+
+    private final BlockingQueue<FutureTask<Object>> queue = new LinkedBlockingQueue<FutureTask<Object>>();
+
+    /**
+     * Makes the current thread run the changes handed over to the given
+     * queue, while it waits for its external programs.
+     *
+     * @param changes the queue or null to stop running its changes
+     */
+    public static void setOwner(WorkspaceChanges changes) {
+        owned.set(changes);
+    }
+
+    /**
+     * Makes the current thread hand its changes over to the given queue.
+     *
+     * @param changes the queue or null to run the changes on this thread
+     */
+    public static void setHandOver(WorkspaceChanges changes) {
+        handedOver.set(changes);
+    }
+
+    /**
+     * Runs a change of the workspace, on the build thread if the current
+     * thread hands its changes over, and waits for it to finish.
+     *
+     * @param action the change
+     * @param monitor progress monitor
+     * @throws CoreException if the change fails
+     */
+    public static void run(final IWorkspaceRunnable action, final IProgressMonitor monitor)
+            throws CoreException {
+        WorkspaceChanges changes = handedOver.get();
+        if (changes == null) {
+            action.run(monitor);
+            return;
+        }
+
+        FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+            public Object call() throws CoreException {
+                action.run(monitor);
+                return null;
+            }
+        });
+        changes.queue.add(task);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    task.get();
+                    return;
+                } catch (InterruptedException e) {
+                    // the change may be running already, so it is waited for
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof CoreException) {
+                        throw (CoreException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new CoreException(TexlipsePlugin.stat(cause.toString(), cause));
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Runs the changes handed over to the queue of the current thread so
+     * far. Does nothing if the current thread doesn't own a queue.
+     */
+    public static void runPending() {
+        WorkspaceChanges changes = owned.get();
+        if (changes != null) {
+            FutureTask<Object> task;
+            while ((task = changes.queue.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * Runs the changes handed over to this queue until the given build has
+     * finished.
+     *
+     * @param build the build of another thread
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public void runUntilDone(Future<?> build) throws InterruptedException {
+        while (!build.isDone()) {
+            FutureTask<Object> task = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+            if (task != null) {
+                task.run();
+            }
+        }
+    }
+}
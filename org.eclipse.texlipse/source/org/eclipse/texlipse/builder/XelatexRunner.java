@@ -34,10 +34,24 @@ public class XelatexRunner extends LatexRunner {
         return "xelatex";
     }
     
+    /**
+     * XeTeX writes only the .xdv file, without converting it to PDF.
+     */
+    protected String getDraftOption() {
+        return "-no-pdf";
+    }
+    
     public String getDescription() {
         return "XeLatex program";
     }
     
+    /**
+     * XeTeX counts characters when it wraps the lines of its output.
+     */
+    protected boolean isLineWrapInBytes() {
+        return false;
+    }
+    
     /**
      * Enable SyncTeX
      */
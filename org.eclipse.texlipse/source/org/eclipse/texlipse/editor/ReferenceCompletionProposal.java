@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.editor;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.ITextViewer;
+import org.eclipse.jface.text.contentassist.ICompletionProposal;
+import org.eclipse.jface.text.contentassist.ICompletionProposalExtension2;
+import org.eclipse.jface.text.contentassist.IContextInformation;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.Point;
+import org.eclipse.texlipse.model.ReferenceEntry;
+
+/**
+ * A completion proposal for a BibTeX entry or a label. The proposal is
+ * only a view over the ReferenceEntry, the additional info is formatted
+ * when the viewer asks for it. As the proposal validates itself against
+ * the typed prefix, the popup filters the proposals itself while typing
+ * instead of computing them again.
+ */
+public class ReferenceCompletionProposal implements ICompletionProposal,
+        ICompletionProposalExtension2 {
+
+    private ReferenceEntry fentry;
+    private int fReplacementOffset;
+    private int fReplacementLength;
+
+    /**
+     * Constructs a new completion proposal for a reference
+     *
+     * @param entry The reference entry
+     * @param replacementOffset Offset of where it is to be replaced
+     * @param replacementLength The length of the replacement
+     */
+    public ReferenceCompletionProposal(ReferenceEntry entry, int replacementOffset, int replacementLength) {
+        fentry = entry;
+        fReplacementOffset = replacementOffset;
+        fReplacementLength = replacementLength;
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.jface.text.contentassist.ICompletionProposal#apply(org.eclipse.jface.text.IDocument)
+     */
+    public void apply(IDocument document) {
+        try {
+            document.replace(fReplacementOffset, fReplacementLength, fentry.key);
+        } catch (BadLocationException x) {}
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.jface.text.contentassist.ICompletionProposalExtension2#apply(org.eclipse.jface.text.ITextViewer, char, int, int)
+     */
+    public void apply(ITextViewer viewer, char trigger, int stateMask, int offset) {
+        // the prefix may have grown since the proposal was created
+        if (offset > fReplacementOffset) {
+            fReplacementLength = offset - fReplacementOffset;
+        }
+        apply(viewer.getDocument());
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.jface.text.contentassist.ICompletionProposal#getSelection(org.eclipse.jface.text.IDocument)
+     */
+    public Point getSelection(IDocument document) {
+        return new Point(fReplacementOffset + fentry.key.length(), 0);
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.jface.text.contentassist.ICompletionProposal#getAdditionalProposalInfo()
+     */
+    public String getAdditionalProposalInfo() {
+        if (fentry.info == null) {
+            return null;
+        }
+        return (fentry.info.length() > TexCompletionProcessor.assistLineLength ?
+                TexCompletionProcessor.wrapString(fentry.info, TexCompletionProcessor.assistLineLength)
+                : fentry.info);
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.jface.text.contentassist.ICompletionProposal#getDisplayString()
+     */
+    public String getDisplayString() {
+        return fentry.key;
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.jface.text.contentassist.ICompletionProposal#getImage()
+     */
+    public Image getImage() {
+        return null;
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.jface.text.contentassist.ICompletionProposal#getContextInformation()
+     */
+    public IContextInformation getContextInformation() {
+        return null;
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.jface.text.contentassist.ICompletionProposalExtension2#selected(org.eclipse.jface.text.ITextViewer, boolean)
+     */
+    public void selected(ITextViewer viewer, boolean smartToggle) {
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.jface.text.contentassist.ICompletionProposalExtension2#unselected(org.eclipse.jface.text.ITextViewer)
+     */
+    public void unselected(ITextViewer viewer) {
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.jface.text.contentassist.ICompletionProposalExtension2#validate(org.eclipse.jface.text.IDocument, int, org.eclipse.jface.text.DocumentEvent)
+     */
+    public boolean validate(IDocument document, int offset, DocumentEvent event) {
+        if (offset < fReplacementOffset) {
+            return false;
+        }
+        try {
+            // same case insensitive prefix match as the ReferenceManager
+            String prefix = document.get(fReplacementOffset, offset - fReplacementOffset);
+            return fentry.key.regionMatches(true, 0, prefix, 0, prefix.length());
+        } catch (BadLocationException e) {
+            return false;
+        }
+    }
+}
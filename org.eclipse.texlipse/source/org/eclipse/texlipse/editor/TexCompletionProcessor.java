@@ -12,6 +12,14 @@ package org.eclipse.texlipse.editor;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -20,7 +28,7 @@ import org.eclipse.core.runtime.IConfigurationElement;
 import org.eclipse.core.runtime.Platform;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.IDocument;
-import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.IDocumentExtension4;
 import org.eclipse.jface.text.ITextViewer;
 import org.eclipse.jface.text.contentassist.CompletionProposal;
 import org.eclipse.jface.text.contentassist.ContextInformation;
@@ -31,6 +39,7 @@ import org.eclipse.jface.text.contentassist.IContextInformation;
 import org.eclipse.jface.text.contentassist.IContextInformationValidator;
 import org.eclipse.jface.text.source.ISourceViewer;
 import org.eclipse.swt.graphics.Point;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.texlipse.TexlipsePlugin;
 import org.eclipse.texlipse.extension.BibProvider;
 import org.eclipse.texlipse.model.ReferenceEntry;
@@ -41,8 +50,6 @@ import org.eclipse.texlipse.model.TexStyleCompletionManager;
 import org.eclipse.texlipse.spelling.SpellChecker;
 import org.eclipse.texlipse.templates.TexContextType;
 import org.eclipse.texlipse.templates.TexTemplateCompletion;
-import org.eclipse.texlipse.texparser.LatexParserUtils;
-import org.eclipse.ui.texteditor.HippieProposalProcessor;
 
 /**
  * Implements a LaTeX-content assistant for displaying a list of completions for
@@ -63,7 +70,43 @@ public class TexCompletionProcessor implements IContentAssistProcessor {
 
 	public static final int assistLineLength = 60;
 
-	private final HippieProposalProcessor hippie = new HippieProposalProcessor();
+	/**
+	 * The maximum number of word completions
+	 */
+	private static final int MAX_WORD_COMPLETIONS = 50;
+
+	/**
+	 * Time in milliseconds the content assist waits for the reference and
+	 * spelling proposals before opening without them.
+	 */
+	private static final long COMPLETION_BUDGET = 150;
+
+	/**
+	 * Computes the slow proposals in the background, shared by all editors.
+	 */
+	private static final ExecutorService executor = Executors.newSingleThreadExecutor(
+			new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "TeXlipse completion");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	/**
+	 * The last background computation and the position it was started for
+	 */
+	private volatile Future<SlowProposals> pending;
+	private int pendingOffset;
+	private long pendingStamp;
+
+	/**
+	 * Result of the background computation.
+	 */
+	private static class SlowProposals {
+		/** The proposals or null if there were none */
+		ICompletionProposal[] proposals;
+	}
 
 	/**
 	 * A regexp pattern for resolving the command used for referencing (in the 1st
@@ -134,38 +177,33 @@ public class TexCompletionProcessor implements IContentAssistProcessor {
 					String replacement = seqStart.substring(1);
 					proposals = computeCommandCompletions(offset, replacement.length(), replacement);
 				} 
-				else if (seqStart.startsWith("{"))
+				else if (seqStart.length() > 0)
 				{
-					proposals = resolveReferenceCompletions(lineStart, offset, seqStart);
-					if (proposals == null)
+					if (seqStart.startsWith("{"))
 					{
-						// Maybe there is a wrong spelled word here (e.g.
-						// \section{Wroang ...})
-						proposals = SpellChecker.getSpellingProposal(offset, fviewer);
-						if (proposals != null && proposals.length > 0)
-						{
-							return proposals;
-						} else
+						// references can be slow, they are computed in the
+						// background within a time budget
+						SlowProposals slow = computeSlowProposals(doc, offset,
+								lineStart, seqStart);
+						if (slow == null)
 						{
-							// Hippie!!
-							proposals = hippie.computeCompletionProposals(fviewer, offset);
+							// not ready yet, the popup is reopened when they are
+							return templateProposals;
 						}
-
+						proposals = slow.proposals;
 					}
-				} 
-				else if (seqStart.length() > 0)
-				{
-					// ---------------------spell-checking-code-starts----------------------
-					// spell checking can't help with words not starting with a
-					// letter...
-					proposals = SpellChecker.getSpellingProposal(offset, fviewer);
-					if (proposals != null && proposals.length > 0)
+					if (proposals == null)
 					{
-						return proposals;
+						// Maybe there is a wrong spelled word here (e.g.
+						// \section{Wroang ...}); the markers and their positions
+						// in the viewer are read on this thread
+						ICompletionProposal[] spelling = SpellChecker.getSpellingProposal(offset, fviewer);
+						if (spelling != null && spelling.length > 0)
+						{
+							return spelling;
+						}
+						proposals = computeWordCompletions(offset, lineStart);
 					}
-					// if there is no spelling corrections, use the
-					// HippieProposal
-					proposals = hippie.computeCompletionProposals(fviewer, offset);
 				}
 			}
 
@@ -191,6 +229,105 @@ public class TexCompletionProcessor implements IContentAssistProcessor {
 		}
 	}
 
+	/**
+	 * Computes the reference completions (for a '{') at the given offset
+	 * in the background. Waits at most
+	 * <code>COMPLETION_BUDGET</code> milliseconds for the result. If the
+	 * computation takes longer, it is left running and the content assist
+	 * is reopened when it has finished and the cursor has not moved; the
+	 * reopened assist then picks up the finished result.
+	 * 
+	 * @param doc
+	 *            The document
+	 * @param offset
+	 *            Current cursor offset
+	 * @param lineStart
+	 *            The line up to the cursor
+	 * @param seqStart
+	 *            The last part of the line, containing the partial match
+	 * @return The proposals or null if they are not ready yet
+	 */
+	private SlowProposals computeSlowProposals(IDocument doc, final int offset,
+			final String lineStart, final String seqStart) {
+		final long stamp = doc instanceof IDocumentExtension4
+				? ((IDocumentExtension4) doc).getModificationStamp()
+				: IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+
+		Future<SlowProposals> future = pending;
+		if (future == null || pendingOffset != offset || pendingStamp != stamp
+				|| stamp == IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP) {
+			if (future != null) {
+				future.cancel(true);
+			}
+			future = executor.submit(new Callable<SlowProposals>() {
+				public SlowProposals call() {
+					SlowProposals result = new SlowProposals();
+					result.proposals = resolveReferenceCompletions(lineStart, offset, seqStart);
+					return result;
+				}
+			});
+			pending = future;
+			pendingOffset = offset;
+			pendingStamp = stamp;
+		}
+
+		try {
+			SlowProposals result = future.get(COMPLETION_BUDGET, TimeUnit.MILLISECONDS);
+			pending = null;
+			return result;
+		} catch (TimeoutException e) {
+			model.setStatusLineErrorMessage(" Computing completions...");
+			reopenWhenDone(future, offset, stamp);
+			return null;
+		} catch (InterruptedException e) {
+			pending = null;
+			return new SlowProposals();
+		} catch (ExecutionException e) {
+			pending = null;
+			TexlipsePlugin.log("TexCompletionProcessor: ", e.getCause());
+			return new SlowProposals();
+		}
+	}
+
+	/**
+	 * Reopens the content assist after the given computation has finished,
+	 * if it was not cancelled and the cursor and document are unchanged.
+	 * 
+	 * @param future
+	 *            The running computation
+	 * @param offset
+	 *            The offset the computation was started for
+	 * @param stamp
+	 *            The modification stamp of the document at that time
+	 */
+	private void reopenWhenDone(final Future<SlowProposals> future,
+			final int offset, final long stamp) {
+		// the executor has a single thread, so this runs after the computation
+		executor.execute(new Runnable() {
+			public void run() {
+				if (future.isCancelled() || future != pending) {
+					return;
+				}
+				Display.getDefault().asyncExec(new Runnable() {
+					public void run() {
+						if (future != pending || fviewer.getTextWidget() == null
+								|| fviewer.getTextWidget().isDisposed()) {
+							return;
+						}
+						IDocument doc = fviewer.getDocument();
+						if (fviewer.getSelectedRange().x != offset
+								|| !(doc instanceof IDocumentExtension4)
+								|| ((IDocumentExtension4) doc).getModificationStamp() != stamp) {
+							return;
+						}
+						fviewer.getTextOperationTarget().doOperation(
+								ISourceViewer.CONTENTASSIST_PROPOSALS);
+					}
+				});
+			}
+		});
+	}
+
 	/**
 	 * (non-Javadoc)
 	 * 
@@ -315,10 +452,71 @@ public class TexCompletionProcessor implements IContentAssistProcessor {
 		} else if (command.indexOf("ref") > -1) {
 			proposals = computeRefCompletions(offset, replacement.length(),
 					replacement);
+		} else if (command.equals("begin")) {
+			proposals = computeEnvCompletions(offset, replacement.length(),
+					replacement);
 		}
 		return proposals;
 	}
 
+	/**
+	 * Computes and returns the completions for the word before the cursor
+	 * from the words of all the project files, the most frequent first.
+	 * 
+	 * @param offset
+	 *            Current cursor offset
+	 * @param lineStart
+	 *            The line up to the cursor
+	 * @return An array of completion proposals to use directly or null
+	 */
+	private ICompletionProposal[] computeWordCompletions(int offset, String lineStart) {
+		int start = lineStart.length();
+		while (start > 0 && Character.isLetter(lineStart.charAt(start - 1)))
+			start--;
+		String prefix = lineStart.substring(start);
+		if (prefix.length() == 0)
+			return null;
+
+		List<String> words = refManager.getCompletionsWord(prefix, MAX_WORD_COMPLETIONS);
+		if (words == null)
+			return null;
+
+		ICompletionProposal[] result = new ICompletionProposal[words.size()];
+		for (int i = 0; i < words.size(); i++) {
+			String word = words.get(i);
+			result[i] = new CompletionProposal(word, offset - prefix.length(),
+					prefix.length(), word.length());
+		}
+		return result;
+	}
+
+	/**
+	 * Computes and returns the completions for the environments defined
+	 * by the packages the document uses.
+	 * 
+	 * @param offset
+	 *            Current cursor offset
+	 * @param replacementLength
+	 *            The length of the string to be replaced
+	 * @param prefix
+	 *            The already typed prefix of the environment name
+	 * @return An array of completion proposals to use directly or null
+	 */
+	private ICompletionProposal[] computeEnvCompletions(int offset,
+			int replacementLength, String prefix) {
+		List<String> envs = refManager.getCompletionsEnv(prefix);
+		if (envs == null)
+			return null;
+
+		ICompletionProposal[] result = new ICompletionProposal[envs.size()];
+		for (int i = 0; i < envs.size(); i++) {
+			String env = envs.get(i);
+			result[i] = new CompletionProposal(env, offset - replacementLength,
+					replacementLength, env.length());
+		}
+		return result;
+	}
+
 	/**
 	 * Computes and returns BibTeX-proposals.
 	 * 
@@ -333,18 +531,14 @@ public class TexCompletionProcessor implements IContentAssistProcessor {
 	private ICompletionProposal[] computeBibCompletions(int offset,
 			int replacementLength, String prefix) {
 
-		List<ICompletionProposal> resultAsList = new ArrayList<ICompletionProposal>();
 		List<ReferenceEntry> bibEntries = refManager.getCompletionsBib(prefix);
+		List<ICompletionProposal> resultAsList = new ArrayList<ICompletionProposal>(
+				bibEntries != null ? bibEntries.size() : 0);
 		//add the entries of the .bib file(s) to the results
 		if (bibEntries != null) {
 			for (int i = 0; i < bibEntries.size(); i++) {
-				ReferenceEntry bib = bibEntries.get(i);
-				String infoText = bib.info.length() > assistLineLength ? wrapString(
-						bib.info, assistLineLength)
-						: bib.info;
-						resultAsList.add(new CompletionProposal(bib.key, offset
-								- replacementLength, replacementLength, bib.key.length(),
-								null, bib.key, null, infoText));
+				resultAsList.add(new ReferenceCompletionProposal(bibEntries.get(i),
+						offset - replacementLength, replacementLength));
 			}
 		}
 		//the extension points
@@ -396,57 +590,12 @@ public class TexCompletionProcessor implements IContentAssistProcessor {
 				.size()];
 
 		for (int i = 0; i < refEntries.size(); i++) {
-
-			String infoText = null;
-			ReferenceEntry ref = refEntries.get(i);
-
-			if (ref.info != null) {
-				infoText = (ref.info.length() > assistLineLength) ? wrapString(
-						ref.info, assistLineLength) : ref.info;
-			}
-
-			result[i] = new CompletionProposal(ref.key, offset
-					- replacementLength, replacementLength, ref.key.length(),
-					null, ref.key, null, infoText);
+			result[i] = new ReferenceCompletionProposal(refEntries.get(i),
+					offset - replacementLength, replacementLength);
 		}
 		return result;
 	}
 
-	/**
-	 * Returns a replacement String for an ICompleteProposal if there is an open
-	 * environment
-	 * 
-	 * @param doc
-	 *            IDocument.get()
-	 * @param offset
-	 *            current offset
-	 * @return null if no open environment was found, else end{+name+}
-	 */
-	static String environmentEnd(String doc, int offset) {
-		int o = offset;
-		while ((o = doc.lastIndexOf("\\begin", o)) >= 0) {
-			IRegion r = LatexParserUtils.getCommand(doc, o + 1);
-			if (r != null) {
-				String command = doc.substring(r.getOffset(), r.getOffset()
-						+ r.getLength());
-				if ("\\begin".equals(command)) {
-					IRegion r2 = LatexParserUtils.getCommandArgument(doc, o);
-					if (r2 != null) {
-						String envName = doc.substring(r2.getOffset(), r2
-								.getOffset()
-								+ r2.getLength());
-						if (TexAutoIndentStrategy.needsEnd(envName, doc, r
-								.getOffset())) {
-							return "end{" + envName + "}";
-						}
-					}
-				}
-			}
-			o--;
-		}
-		return null;
-	}
-
 	/**
 	 * Computes and returns command-proposals
 	 * 
@@ -457,7 +606,9 @@ public class TexCompletionProcessor implements IContentAssistProcessor {
 	 */
 	private ICompletionProposal[] computeCommandCompletions(int offset, int replacementLength, String prefix)
 	{
-		List<TexCommandEntry> comEntries = refManager.getCompletionsCom(prefix, TexCommandEntry.NORMAL_CONTEXT);
+		// the partition can lag behind the parsed environments while typing
+		int context = model.isMath(offset) ? TexCommandEntry.MATH_CONTEXT : TexCommandEntry.NORMAL_CONTEXT;
+		List<TexCommandEntry> comEntries = refManager.getCompletionsCom(prefix, context);
 		
 		if (comEntries == null)
 			return null;
@@ -465,9 +616,12 @@ public class TexCompletionProcessor implements IContentAssistProcessor {
 		CompletionProposal cp = null;
 		if ("\\".equals(prefix) || "end".startsWith(prefix))
 		{
-			String endString = environmentEnd(fviewer.getDocument().get(), offset);
-			if (endString != null)
+			String envName = model.getOpenEnvironment(offset);
+			if (envName != null)
+			{
+				String endString = "end{" + envName + "}";
 				cp = new CompletionProposal(endString, offset - replacementLength, replacementLength, endString.length());
+			}
 		}
 
 		int start;
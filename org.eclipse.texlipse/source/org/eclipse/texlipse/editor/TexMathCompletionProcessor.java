@@ -89,8 +89,9 @@ public class TexMathCompletionProcessor implements IContentAssistProcessor {
                 
                 CompletionProposal cp = null;
                 if ("\\".equals(command) || "end".startsWith(command)) {
-                    String endString = TexCompletionProcessor.environmentEnd(doc.get(), offset);
-                    if (endString != null) {
+                    String envName = model.getOpenEnvironment(offset);
+                    if (envName != null) {
+                        String endString = "end{" + envName + "}";
                         cp = new CompletionProposal("\\"+endString, 
                                 offset - replacement.length(), 
                                 replacement.length(), endString.length()+1);
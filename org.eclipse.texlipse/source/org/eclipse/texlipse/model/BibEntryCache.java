@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.eclipse.texlipse.bibparser.BibParser;
+
+/**
+ * Workspace wide cache of parsed BibTeX files. Projects using the same
+ * BibTeX file share one parsed entry list, which is only parsed again when
+ * the modification time or the size of the file changes.
+ *
+ * A file is parsed by the first project that asks for it; other projects
+ * asking for the same file meanwhile wait for that parse, while the
+ * lookups of other files are not held up.
+ *
+ * The lists handed out are unmodifiable and shared between projects, so
+ * the entries must not be changed either; in particular their
+ * <code>fileName</code> is not set (see
+ * {@link ReferenceContainer#addSharedRefSource(String, List)}).
+ */
+public class BibEntryCache {
+
+    private static BibEntryCache theInstance;
+
+    /**
+     * A parse of a file in the state it had when it was parsed.
+     */
+    private static class CachedBib {
+        final long modified;
+        final long length;
+        // the entries may be dropped if no project uses them anymore
+        final FutureTask<SoftReference<List<ReferenceEntry>>> parse;
+
+        CachedBib(long modified, long length, final String filepath) {
+            this.modified = modified;
+            this.length = length;
+            this.parse = new FutureTask<SoftReference<List<ReferenceEntry>>>(
+                    new Callable<SoftReference<List<ReferenceEntry>>>() {
+                public SoftReference<List<ReferenceEntry>> call() throws IOException {
+                    List<ReferenceEntry> entries = new BibParser(filepath).getEntries();
+                    if (entries == null) {
+                        return null;
+                    }
+                    // pre-sorted, so sorting in the reference containers is cheap
+                    Collections.sort(entries, ReferenceContainer.KEY_ORDER);
+                    return new SoftReference<List<ReferenceEntry>>(
+                            Collections.unmodifiableList(entries));
+                }
+            });
+        }
+    }
+
+    // canonical path -> latest parse of the file
+    private final ConcurrentMap<String, CachedBib> cache;
+
+    private BibEntryCache() {
+        cache = new ConcurrentHashMap<String, CachedBib>();
+    }
+
+    /**
+     * Returns the instance of the BibTeX cache
+     *
+     * @return The singleton instance
+     */
+    public static synchronized BibEntryCache getInstance() {
+        if (theInstance == null) {
+            theInstance = new BibEntryCache();
+        }
+        return theInstance;
+    }
+
+    /**
+     * Returns the entries of the given BibTeX file, parsing it if it is not
+     * cached or has changed since it was parsed. If another project is
+     * currently parsing the same file, waits for that instead of parsing
+     * it twice.
+     *
+     * @param filepath Path to the BibTeX file
+     * @return An unmodifiable list of the entries sorted case insensitively,
+     *  or null if the file contains fatal errors
+     * @throws IOException if the file can't be read
+     */
+    public List<ReferenceEntry> getEntries(String filepath) throws IOException {
+        File file = new File(filepath);
+        String key = file.getCanonicalPath();
+        long modified = file.lastModified();
+        long length = file.length();
+        while (true) {
+            CachedBib cached = cache.get(key);
+            if (cached == null || cached.modified != modified || cached.length != length) {
+                // start a new parse, unless another project just did
+                CachedBib parse = new CachedBib(modified, length, filepath);
+                if (cached == null ? cache.putIfAbsent(key, parse) != null
+                        : !cache.replace(key, cached, parse)) {
+                    continue;
+                }
+                cached = parse;
+                cached.parse.run();
+            }
+
+            SoftReference<List<ReferenceEntry>> ref;
+            try {
+                ref = cached.parse.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                cache.remove(key, cached);
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                } else if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+            if (ref == null) {
+                cache.remove(key, cached);
+                return null;
+            }
+            List<ReferenceEntry> entries = ref.get();
+            if (entries != null) {
+                return entries;
+            }
+            // the entries have been dropped, parse the file again
+            cache.remove(key, cached);
+        }
+    }
+}
@@ -10,13 +10,19 @@
  *******************************************************************************/
 package org.eclipse.texlipse.model;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.texlipse.TexlipsePlugin;
@@ -27,13 +33,34 @@ import org.eclipse.ui.texteditor.MarkerUtilities;
 /**
  * Handles creation and deletion of document markers for parsing errors.
  * 
+ * While the markers of a resource are being updated (see
+ * {@link #beginUpdate(ITextEditor)}), the markers created for it are only
+ * collected. When the update ends, they are compared to the existing
+ * problem and task markers of the resource and only the differences are
+ * applied, in one workspace operation.
+ * 
  * @author Oskar Ojala
  */
 public class MarkerHandler {
 
     private static MarkerHandler theInstance;
     
+    // the marker types replaced by an update
+    private static final String[] UPDATED_TYPES = {IMarker.PROBLEM, IMarker.TASK};
+    
+    /**
+     * A marker to create.
+     */
+    private static class MarkerInfo {
+        String type;
+        Map<String, Object> attributes;
+    }
+    
+    // resource -> markers collected during an update
+    private final Map<IResource, List<MarkerInfo>> updates;
+    
     private MarkerHandler() {
+        updates = new HashMap<IResource, List<MarkerInfo>>();
     }
 
     /**
@@ -85,7 +112,7 @@ public class MarkerHandler {
             try {
                 int beginOffset = document.getLineOffset(msg.getLine() - 1) + msg.getPos();
                 
-                Map<String, ? super Object> map = new HashMap<String, Object>();
+                Map<String, Object> map = new HashMap<String, Object>();
                 map.put(IMarker.LINE_NUMBER, Integer.valueOf(msg.getLine()));
                 map.put(IMarker.CHAR_START, Integer.valueOf(beginOffset));
                 map.put(IMarker.CHAR_END, Integer.valueOf(beginOffset + msg.getLength()));
@@ -98,7 +125,7 @@ public class MarkerHandler {
                 if (IMarker.TASK == markerType)
                     map.put(IMarker.PRIORITY, Integer.valueOf(msg.getSeverity()));
                 
-                MarkerUtilities.createMarker(resource, map, markerType);
+                createMarker(resource, map, markerType);
             } catch (CoreException ce) {
                 TexlipsePlugin.log("Creating marker", ce);
             } catch (BadLocationException ble) {
@@ -123,14 +150,14 @@ public class MarkerHandler {
             try {
                 int beginOffset = document.getLineOffset(msg.getLine() - 1) + msg.getPos();
                 
-                Map<String, ? super Object> map = new HashMap<String, Object>();
+                Map<String, Object> map = new HashMap<String, Object>();
                 map.put(IMarker.LINE_NUMBER, Integer.valueOf(msg.getLine()));
                 map.put(IMarker.CHAR_START, Integer.valueOf(beginOffset));
                 map.put(IMarker.CHAR_END, Integer.valueOf(beginOffset + msg.getLength()));
                 map.put(IMarker.MESSAGE, "Key " + msg.getKey() + " is undefined");
                 map.put(IMarker.SEVERITY, Integer.valueOf(IMarker.SEVERITY_WARNING));
                 
-                MarkerUtilities.createMarker(resource, map, IMarker.PROBLEM);
+                createMarker(resource, map, IMarker.PROBLEM);
             } catch (CoreException ce) {
                 TexlipsePlugin.log("Creating marker", ce);
             } catch (BadLocationException ble) {
@@ -150,11 +177,11 @@ public class MarkerHandler {
         if (resource == null) return;
         //IDocument document = editor.getDocumentProvider().getDocument(editor.getEditorInput());
         try {
-            Map<String, ? super Object> map = new HashMap<String, Object>();
+            Map<String, Object> map = new HashMap<String, Object>();
             map.put(IMarker.MESSAGE, error);
             map.put(IMarker.SEVERITY, Integer.valueOf(IMarker.SEVERITY_ERROR));
             
-            MarkerUtilities.createMarker(resource, map, IMarker.PROBLEM);
+            createMarker(resource, map, IMarker.PROBLEM);
         } catch (CoreException ce) {
             TexlipsePlugin.log("Creating marker", ce);
         }
@@ -171,6 +198,7 @@ public class MarkerHandler {
         // -> we should somehow inform the user
         IResource resource = (IResource) editor.getEditorInput().getAdapter(IResource.class);
         if (resource == null) return;
+        if (clearCollected(resource, IMarker.PROBLEM)) return;
 
         try {
             // TODO what should we clear and when?
@@ -190,6 +218,7 @@ public class MarkerHandler {
      * @param resource The resource whose markers to clear
      */
     public void clearProblemMarkers(IResource resource) {
+        if (clearCollected(resource, IMarker.PROBLEM)) return;
         try {
             resource.deleteMarkers(IMarker.PROBLEM, false, IResource.DEPTH_INFINITE);
         } catch (CoreException e) {
@@ -205,6 +234,7 @@ public class MarkerHandler {
     public void clearTaskMarkers(ITextEditor editor) {
         IResource resource = (IResource) editor.getEditorInput().getAdapter(IResource.class);
         if (resource == null) return;
+        if (clearCollected(resource, IMarker.TASK)) return;
         try {
             resource.deleteMarkers(IMarker.TASK, false, IResource.DEPTH_INFINITE);
         } catch (CoreException e) {
@@ -221,16 +251,174 @@ public class MarkerHandler {
      */
     public void createErrorMarker(IResource resource, String message, int lineNumber) {
         try {
-            Map<String, ? super Object> map = new HashMap<String, Object>();
+            Map<String, Object> map = new HashMap<String, Object>();
             map.put(IMarker.LINE_NUMBER, Integer.valueOf(lineNumber));
             map.put(IMarker.MESSAGE, message);
             
             map.put(IMarker.SEVERITY, Integer.valueOf(IMarker.SEVERITY_ERROR));
             
-            MarkerUtilities.createMarker(resource, map, IMarker.PROBLEM);
+            createMarker(resource, map, IMarker.PROBLEM);
         } catch (CoreException ce) {
             TexlipsePlugin.log("Creating marker", ce);
         }
     }
-    
+
+    /**
+     * Starts updating the problem and task markers of the editor's file.
+     * Until the update ends, markers created for the file are collected
+     * instead of created, and clearing them only drops the collected ones.
+     * 
+     * @param editor The editor whose markers to update
+     */
+    public void beginUpdate(ITextEditor editor) {
+        IResource resource = (IResource) editor.getEditorInput().getAdapter(IResource.class);
+        if (resource == null) return;
+        synchronized (updates) {
+            updates.put(resource, new ArrayList<MarkerInfo>());
+        }
+    }
+
+    /**
+     * Ends updating the markers of the editor's file. If the update is
+     * applied, the problem and task markers of the file are replaced by the
+     * collected ones: existing markers with the same type, line and message
+     * are kept, the others are deleted and the missing ones created.
+     * Does nothing if no update was started.
+     * 
+     * @param editor The editor whose markers were updated
+     * @param apply False to keep the old markers, e.g. when the parse was
+     *  cancelled
+     */
+    public void endUpdate(ITextEditor editor, boolean apply) {
+        IResource resource = (IResource) editor.getEditorInput().getAdapter(IResource.class);
+        if (resource == null) return;
+        List<MarkerInfo> markers;
+        synchronized (updates) {
+            markers = updates.remove(resource);
+        }
+        if (markers == null || !apply || !resource.exists()) return;
+        try {
+            applyMarkers(resource, markers);
+        } catch (CoreException ce) {
+            TexlipsePlugin.log("Updating markers", ce);
+        }
+    }
+
+    /**
+     * Creates a marker, or collects it if the markers of the resource are
+     * being updated.
+     * 
+     * @param resource The resource to create the marker to
+     * @param attributes The attributes of the marker
+     * @param markerType The type of the marker
+     * @throws CoreException
+     */
+    private void createMarker(IResource resource, Map<String, Object> attributes,
+            String markerType) throws CoreException {
+        synchronized (updates) {
+            List<MarkerInfo> markers = updates.get(resource);
+            if (markers != null) {
+                MarkerInfo info = new MarkerInfo();
+                info.type = markerType;
+                info.attributes = attributes;
+                markers.add(info);
+                return;
+            }
+        }
+        MarkerUtilities.createMarker(resource, attributes, markerType);
+    }
+
+    /**
+     * Drops the collected markers of the given type if the markers of the
+     * resource are being updated.
+     * 
+     * @param resource The resource
+     * @param markerType The type of the markers to drop
+     * @return True if the resource is being updated
+     */
+    private boolean clearCollected(IResource resource, String markerType) {
+        synchronized (updates) {
+            List<MarkerInfo> markers = updates.get(resource);
+            if (markers == null) {
+                return false;
+            }
+            for (Iterator<MarkerInfo> iter = markers.iterator(); iter.hasNext();) {
+                if (iter.next().type.equals(markerType)) {
+                    iter.remove();
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Replaces the problem and task markers of the resource with the given
+     * markers, changing only the markers that differ.
+     * 
+     * @param resource The resource
+     * @param markers The new markers
+     * @throws CoreException
+     */
+    private void applyMarkers(final IResource resource, List<MarkerInfo> markers)
+            throws CoreException {
+        // key -> new markers with that key
+        Map<String, LinkedList<MarkerInfo>> added = new HashMap<String, LinkedList<MarkerInfo>>();
+        for (MarkerInfo info : markers) {
+            String key = getKey(info.type, info.attributes.get(IMarker.LINE_NUMBER),
+                    info.attributes.get(IMarker.MESSAGE));
+            LinkedList<MarkerInfo> same = added.get(key);
+            if (same == null) {
+                same = new LinkedList<MarkerInfo>();
+                added.put(key, same);
+            }
+            same.add(info);
+        }
+
+        final List<IMarker> removed = new ArrayList<IMarker>();
+        final Map<IMarker, Map<String, Object>> changed = new HashMap<IMarker, Map<String, Object>>();
+        for (String type : UPDATED_TYPES) {
+            for (IMarker marker : resource.findMarkers(type, false, IResource.DEPTH_ZERO)) {
+                String key = getKey(type, marker.getAttribute(IMarker.LINE_NUMBER),
+                        marker.getAttribute(IMarker.MESSAGE));
+                LinkedList<MarkerInfo> same = added.get(key);
+                if (same == null || same.isEmpty()) {
+                    removed.add(marker);
+                    continue;
+                }
+                MarkerInfo info = same.removeFirst();
+                for (Map.Entry<String, Object> e : info.attributes.entrySet()) {
+                    if (!e.getValue().equals(marker.getAttribute(e.getKey()))) {
+                        changed.put(marker, info.attributes);
+                        break;
+                    }
+                }
+            }
+        }
+        final List<MarkerInfo> created = new ArrayList<MarkerInfo>();
+        for (LinkedList<MarkerInfo> same : added.values()) {
+            created.addAll(same);
+        }
+        if (removed.isEmpty() && changed.isEmpty() && created.isEmpty()) {
+            return;
+        }
+
+        IWorkspace workspace = resource.getWorkspace();
+        workspace.run(new IWorkspaceRunnable() {
+            public void run(IProgressMonitor monitor) throws CoreException {
+                for (IMarker marker : removed) {
+                    marker.delete();
+                }
+                for (Map.Entry<IMarker, Map<String, Object>> e : changed.entrySet()) {
+                    e.getKey().setAttributes(e.getValue());
+                }
+                for (MarkerInfo info : created) {
+                    resource.createMarker(info.type).setAttributes(info.attributes);
+                }
+            }
+        }, workspace.getRuleFactory().markerRule(resource), IWorkspace.AVOID_UPDATE, null);
+    }
+
+    private static String getKey(String type, Object line, Object message) {
+        return type + '\0' + line + '\0' + message;
+    }
 }
@@ -108,7 +108,7 @@ public abstract class PartialRetriever {
             int[] initBounds, boolean lowerCase) {
         int[] bounds = new int[] {-1,-1};
         int left = initBounds[0], right = initBounds[1] - 1;
-        int middle = right/2;
+        int middle = (left + right)/2;
         if (left > right) return bounds;
         if (lowerCase) start = start.toLowerCase();
         
@@ -29,6 +29,15 @@ import java.util.Map;
  */
 public class ReferenceContainer {
 
+    /**
+     * Case insensitive order of the reference keys
+     */
+    public static final Comparator<ReferenceEntry> KEY_ORDER = new Comparator<ReferenceEntry>() {
+        public int compare(ReferenceEntry o1, ReferenceEntry o2) {
+            return o1.getkey(true).compareTo(o2.getkey(true));
+        }
+    };
+
     private Map<String, List<ReferenceEntry>> referenceHash;
     private List<ReferenceEntry> sortedReferences;
     private int size;
@@ -72,6 +81,43 @@ public class ReferenceContainer {
         if (al != null)
             size -= al.size();
     }
+
+    /**
+     * Adds a reference source that is shared with other containers, e.g.
+     * from the {@link BibEntryCache}. Unlike <code>addRefSource</code>,
+     * neither the list nor its entries are modified, so the entries don't
+     * know their file name; use <code>getSourceKey</code> instead. Does not
+     * update the sorted array of references.
+     * 
+     * @param key The key associated with these references in the internal set
+     * @param refs The references to store
+     */
+    public void addSharedRefSource(String key, List<ReferenceEntry> refs) {
+        size += refs.size();
+        List<ReferenceEntry> al = referenceHash.put(key, refs);
+        if (al != null)
+            size -= al.size();
+    }
+
+    /**
+     * Returns the key of the reference source the given entry belongs to.
+     * 
+     * @param entry An entry of this container
+     * @return The key or null if the entry is not in this container
+     */
+    public String getSourceKey(ReferenceEntry entry) {
+        if (entry.fileName != null) {
+            return entry.fileName;
+        }
+        for (Map.Entry<String, List<ReferenceEntry>> e : referenceHash.entrySet()) {
+            for (ReferenceEntry r : e.getValue()) {
+                if (r == entry) {
+                    return e.getKey();
+                }
+            }
+        }
+        return null;
+    }
         
     /**
      * Updates the contents of this object if the given key exists
@@ -112,17 +158,14 @@ public class ReferenceContainer {
                 allRefs.addAll(refList);
             }
         } else if (referenceHash.size() == 1) {
+            // copy, the list may be shared
             Iterator<List<ReferenceEntry>> iter = referenceHash.values().iterator();
-            allRefs = iter.next();
+            allRefs.addAll(iter.next());
         }
-        sortedReferences = allRefs;
         
         //Sort collections case insensitive
-        Collections.sort(sortedReferences, new Comparator<ReferenceEntry>() {
-            public int compare(ReferenceEntry o1, ReferenceEntry o2) {
-                return o1.getkey(true).compareTo(o2.getkey(true).toLowerCase());
-            }
-        });
+        Collections.sort(allRefs, KEY_ORDER);
+        sortedReferences = allRefs;
     }
     
     /**
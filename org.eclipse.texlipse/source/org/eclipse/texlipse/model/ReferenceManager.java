@@ -10,6 +10,7 @@
  *******************************************************************************/
 package org.eclipse.texlipse.model;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -23,19 +24,38 @@ public class ReferenceManager extends PartialRetriever {
     private ReferenceContainer bibContainer;
     private ReferenceContainer labelContainer;
     private TexCommandContainer commandContainer;
+    private TexWordContainer wordContainer;
+
+    // the previous bib and label completions, for narrowing the search
+    // from their bounds as the typed prefix grows
+    private Narrowing lastBib = new Narrowing();
+    private Narrowing lastLab = new Narrowing();
+
+    /**
+     * The prefix and result bounds of a previous completion. Only valid for
+     * the list the bounds were computed in.
+     */
+    private static class Narrowing {
+        List<? extends AbstractEntry> list;
+        String prefix;
+        int[] bounds;
+    }
 
     /**
      * Creates new ReferenceManager that uses the given BibTeX,
-     * label and command-containers for searching.
+     * label, command- and word-containers for searching.
      * 
      * @param bibRc BibTeX reference container
      * @param labRc Label container
      * @param commands Command container
+     * @param words Word container
      */
-    public ReferenceManager(ReferenceContainer bibRc, ReferenceContainer labRc, TexCommandContainer commands) {
+    public ReferenceManager(ReferenceContainer bibRc, ReferenceContainer labRc,
+            TexCommandContainer commands, TexWordContainer words) {
         this.bibContainer = bibRc;
         this.labelContainer = labRc;
         this.commandContainer = commands;
+        this.wordContainer = words;
     }
 
     /**
@@ -105,13 +125,7 @@ public class ReferenceManager extends PartialRetriever {
 
         // don't refetch the proposal list in partial fill;
         // use the existing proposal list and make it smaller
-        int[] bounds;
-        // if (lastLab.length() > 0 && start.startsWith(lastLab))
-        // bounds = getCompletionsBin(start, labels, lastLabBounds);
-        // else
-        // bounds = getCompletionsBin(start, labels);
-
-        bounds = getCompletionsBin(start, labels, true);
+        int[] bounds = getCompletionsNarrowed(start, labels, lastLab);
 
         if (bounds[0] == -1) return null;
         return labels.subList(bounds[0], bounds[1]);
@@ -134,19 +148,40 @@ public class ReferenceManager extends PartialRetriever {
 
         // don't refetch the proposal list in partial fill;
         // use the existing proposal list and make it smaller
-        int[] bounds;
-        // if (lastBib.length() > 0 && start.startsWith(lastBib))
-        // bounds = getCompletionsBin(start, bibEntries, lastBibBounds);
-        // else
-        // bounds = getCompletionsBin(start, bibEntries);
-
-        // ...either solve problems with bounds or remove them...
-        bounds = getCompletionsBin(start, bibEntries, true);
+        int[] bounds = getCompletionsNarrowed(start, bibEntries, lastBib);
 
         if (bounds[0] == -1) return null;
         return bibEntries.subList(bounds[0], bounds[1]);
     }
 
+    /**
+     * Searches the case insensitively sorted entries for the given prefix.
+     * If the previous search was done in the same list with a prefix of
+     * <code>start</code>, only its result range is searched.
+     * 
+     * @param start The string with which the completions should start
+     * @param entries The entries to search
+     * @param last The previous search, updated with this one
+     * @return The bounds as returned by <code>getCompletionsBin</code>
+     */
+    private synchronized int[] getCompletionsNarrowed(String start,
+            List<? extends AbstractEntry> entries, Narrowing last) {
+        int[] bounds;
+        if (last.list == entries && last.prefix != null
+                && start.toLowerCase().startsWith(last.prefix)) {
+            if (last.bounds[0] == -1)
+                bounds = last.bounds;
+            else
+                bounds = getCompletionsBin(start, entries, last.bounds, true);
+        } else {
+            bounds = getCompletionsBin(start, entries, true);
+        }
+        last.list = entries;
+        last.prefix = start.toLowerCase();
+        last.bounds = bounds;
+        return bounds;
+    }
+
     /**
      * Returns command completions.
      * 
@@ -166,4 +201,35 @@ public class ReferenceManager extends PartialRetriever {
         
         return commands.subList(bounds[0], bounds[1]);
     }
+
+    /**
+     * Returns the environments defined by the used packages that start
+     * with the given string.
+     * 
+     * @param start The string with which the completions should start
+     * @return A list of environment names or null if there were no completions
+     */
+    public List<String> getCompletionsEnv(String start) {
+        List<String> environments = commandContainer.getSortedEnvironments();
+        List<String> result = new ArrayList<String>();
+        for (String env : environments) {
+            if (env.startsWith(start)) {
+                result.add(env);
+            }
+        }
+        return result.size() > 0 ? result : null;
+    }
+
+    /**
+     * Returns the words of the project that start with the given string,
+     * the most frequent first.
+     * 
+     * @param start The string with which the completions should start
+     * @param max The maximum number of completions
+     * @return A list of words or null if there were no completions
+     */
+    public List<String> getCompletionsWord(String start, int max) {
+        List<String> words = wordContainer.getCompletions(start, max);
+        return words.size() > 0 ? words : null;
+    }
 }
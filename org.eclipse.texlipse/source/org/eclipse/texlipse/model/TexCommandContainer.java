@@ -11,11 +11,16 @@
 package org.eclipse.texlipse.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * Contains the LaTeX commands that can be completed.
@@ -422,18 +427,35 @@ public class TexCommandContainer {
     	new TexCommandEntry("Pr", "\\Pr  \n\n", 0, TexCommandEntry.MATH_CONTEXT)
     };
 
+    /**
+     * Names of the standard LaTeX commands, package commands with these
+     * names are not added twice.
+     */
+    private static final Set<String> builtInKeys = new HashSet<String>();
+    static {
+        for (TexCommandEntry c : builtIn) builtInKeys.add(c.key);
+    }
+
     private Map<String, List<TexCommandEntry>> commandHash;
     private List<TexCommandEntry> sortedCommands;
     private int size;
     //Saves the positions of the contexts
     private int[] contexts;
     
+    //Commands and environments of the used packages (and their dependencies)
+    private List<String> usedPackages;
+    private List<TexCommandEntry> packageCommands;
+    private List<String> sortedEnvironments;
+    
     /**
      * Constructs a new command container
      */
     public TexCommandContainer() {
     	sortedCommands = new ArrayList<TexCommandEntry>(100);
         commandHash = new HashMap<String, List<TexCommandEntry>>(4);
+        usedPackages = new ArrayList<String>(0);
+        packageCommands = new ArrayList<TexCommandEntry>(0);
+        sortedEnvironments = new ArrayList<String>(0);
         contexts = new int[TexCommandEntry.NUMBER_OF_CONTEXTS + 1];
         organize();
 //        for (int i=0; i<builtIn.length; i++) sortedCommands.add(builtIn[i]);
@@ -448,7 +470,7 @@ public class TexCommandContainer {
      * @param refs The commands to insert
      * @return true if the container needs a reorganize
      */
-    public boolean addRefSource(String key, List<TexCommandEntry> refs) {
+    public synchronized boolean addRefSource(String key, List<TexCommandEntry> refs) {
         //Add filenames to the entries
         for (Iterator<TexCommandEntry> iter = refs.iterator(); iter.hasNext();) {
             AbstractEntry r = (AbstractEntry) iter.next();
@@ -465,6 +487,45 @@ public class TexCommandContainer {
             return true;
     }
 
+    /**
+     * Checks whether the package commands of this container were requested
+     * for exactly the given packages.
+     * 
+     * @param packages The file names of the used packages and classes
+     * @return <code>true</code> if the packages have not changed
+     */
+    public boolean checkPackageFreshness(String[] packages) {
+        return usedPackages.equals(Arrays.asList(packages));
+    }
+    
+    /**
+     * Records the packages for which package commands have been requested.
+     * 
+     * @param packages The file names of the used packages and classes
+     */
+    public void setUsedPackages(String[] packages) {
+        usedPackages = new ArrayList<String>(Arrays.asList(packages));
+    }
+    
+    /**
+     * Replaces the commands and environments defined by the used packages.
+     * Does not update the sorted command array.
+     * 
+     * @param commands The commands of all used packages
+     * @param environments The environments of all used packages
+     */
+    public synchronized void setPackageSources(List<TexCommandEntry> commands, Collection<String> environments) {
+        packageCommands = commands;
+        sortedEnvironments = new ArrayList<String>(new TreeSet<String>(environments));
+    }
+    
+    /**
+     * @return The environments defined by the used packages, sorted
+     */
+    public List<String> getSortedEnvironments() {
+        return sortedEnvironments;
+    }
+    
     /**
      * Searches (very inefficient) for the last entries of each
      * context and saves them in contexts
@@ -487,7 +548,7 @@ public class TexCommandContainer {
      * The added reference sources' commands are added to the built-in commands
      * and sorted.
      */
-    public void organize() {
+    public synchronized void organize() {
         //if (commandHash.size() == 0)
         //    return;
         List<TexCommandEntry> allRefs = new ArrayList<TexCommandEntry>(size);
@@ -497,7 +558,10 @@ public class TexCommandContainer {
             }
         } else if (commandHash.size() == 1) {
             Iterator<List<TexCommandEntry>> iter = commandHash.values().iterator();
-            allRefs = iter.next();
+            allRefs.addAll(iter.next());
+        }
+        for (TexCommandEntry c : packageCommands) {
+            if (!builtInKeys.contains(c.key)) allRefs.add(c);
         }
         //copy all commands and change the context to activate them also in math mode
         List<TexCommandEntry> mathRefs = new ArrayList<TexCommandEntry> (allRefs.size());
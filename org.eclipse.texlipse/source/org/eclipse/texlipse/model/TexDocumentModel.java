@@ -16,6 +16,7 @@ import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
@@ -32,21 +33,27 @@ import org.eclipse.core.runtime.jobs.ILock;
 import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.action.SubStatusLineManager;
 import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.BadPartitioningException;
 import org.eclipse.jface.text.BadPositionCategoryException;
 import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension3;
+import org.eclipse.jface.text.IDocumentExtension4;
 import org.eclipse.jface.text.IDocumentListener;
+import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.Position;
 import org.eclipse.jface.util.IPropertyChangeListener;
 import org.eclipse.jface.util.PropertyChangeEvent;
 import org.eclipse.texlipse.TexlipsePlugin;
-import org.eclipse.texlipse.bibparser.BibParser;
 import org.eclipse.texlipse.builder.KpsewhichRunner;
 import org.eclipse.texlipse.editor.TexDocumentParseException;
 import org.eclipse.texlipse.editor.TexEditor;
+import org.eclipse.texlipse.editor.partitioner.FastLaTeXPartitionScanner;
+import org.eclipse.texlipse.model.TexEnvironmentIndex.Environment;
 import org.eclipse.texlipse.outline.TexOutlinePage;
 import org.eclipse.texlipse.outline.TexProjectOutline;
 import org.eclipse.texlipse.properties.TexlipseProperties;
+import org.eclipse.texlipse.texparser.LatexParserUtils;
 import org.eclipse.texlipse.texparser.LatexRefExtractingParser;
 import org.eclipse.texlipse.texparser.TexParser;
 import org.eclipse.texlipse.treeview.views.TexOutlineTreeView;
@@ -67,6 +74,9 @@ import org.eclipse.ui.progress.WorkbenchJob;
 public class TexDocumentModel implements IDocumentListener {
 
     public static final String PARSER_FAMILY = "TexDocument Parser";
+
+    // the text after an environment is read in parts of about this size
+    private static final int SCAN_WINDOW = 4096;
    
     /**
      * Job for performing the parsing in a background thread.
@@ -104,6 +114,9 @@ public class TexDocumentModel implements IDocumentListener {
                     rootNodes = doParse(monitor);
                 } catch (TexDocumentParseException e1) {
                     return Status.CANCEL_STATUS;
+                } finally {
+                    // the markers of a cancelled parse are incomplete
+                    MarkerHandler.getInstance().endUpdate(editor, !monitor.isCanceled());
                 }
                 pollCancel(monitor);
                 
@@ -231,6 +244,7 @@ public class TexDocumentModel implements IDocumentListener {
     private ReferenceContainer bibContainer;
     private ReferenceContainer labelContainer;
     private TexCommandContainer commandContainer;
+    private TexWordContainer wordContainer;
     
     private ReferenceManager refMana;
     
@@ -243,6 +257,12 @@ public class TexDocumentModel implements IDocumentListener {
     private ParseJob parseJob;
     private PostParseJob postParseJob;
     
+    // environments of the last parse and the edits made while parsing,
+    // as {modification stamp, offset, removed length, inserted length}
+    private final Object envLock = new Object();
+    private TexEnvironmentIndex environmentIndex;
+    private List<long[]> editsWhileParsing;
+    
     // preferences
     private int parseDelay;
     private boolean autoParseEnabled;
@@ -335,7 +355,8 @@ public class TexDocumentModel implements IDocumentListener {
             if (bibContainer == null) createReferenceContainers();
             refMana = new ReferenceManager(bibContainer,
                     labelContainer,
-                    commandContainer);
+                    commandContainer,
+                    wordContainer);
         }
         return refMana;
     }
@@ -373,6 +394,17 @@ public class TexDocumentModel implements IDocumentListener {
      */
     public void documentChanged(DocumentEvent event) {
     
+        int inserted = event.getText() != null ? event.getText().length() : 0;
+        synchronized (envLock) {
+            if (environmentIndex != null) {
+                environmentIndex.documentChanged(event.getOffset(), event.getLength(), inserted);
+            }
+            if (editsWhileParsing != null) {
+                editsWhileParsing.add(new long[] {event.fModificationStamp,
+                        event.getOffset(), event.getLength(), inserted});
+            }
+        }
+        
         // set isDirty true and prevent possibly running parseJob from
         // changing it back to false
         // order of acquire, cancel and setDirty matters!
@@ -404,6 +436,195 @@ public class TexDocumentModel implements IDocumentListener {
     }
 
     
+    private static long getModificationStamp(IDocument document) {
+        if (document instanceof IDocumentExtension4) {
+            return ((IDocumentExtension4) document).getModificationStamp();
+        }
+        return IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+    }
+
+    /**
+     * Replaces the environment index with the one of the last parse and
+     * applies the edits made after the parsed text was read.
+     * 
+     * @param stamp modification stamp of the parsed text
+     */
+    private void updateEnvironments(long stamp) {
+        TexEnvironmentIndex index = parser.getEnvironmentIndex();
+        synchronized (envLock) {
+            if (index != null) {
+                for (long[] e : editsWhileParsing) {
+                    if (e[0] > stamp || stamp == IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP) {
+                        index.documentChanged((int) e[1], (int) e[2], (int) e[3]);
+                    }
+                }
+                environmentIndex = index;
+            }
+            editsWhileParsing = null;
+        }
+    }
+
+    /**
+     * Returns the name of the innermost environment at the given offset
+     * that has not been ended. The environments known from the last parse
+     * are looked up from the environment index, only the text edited
+     * after the parse is scanned for new environments.
+     * 
+     * @param offset a document offset
+     * @return The name of the environment or null if there is none
+     */
+    public String getOpenEnvironment(int offset) {
+        IDocument document = editor.getDocumentProvider().getDocument(editor.getEditorInput());
+        TexEnvironmentIndex index;
+        synchronized (envLock) {
+            index = environmentIndex;
+        }
+        try {
+            // before the first parse the whole text has to be scanned
+            int scanStart = 0;
+            if (index != null) {
+                int[] dirty = index.getDirtyRegion();
+                scanStart = offset;
+                if (dirty != null && dirty[0] < offset) {
+                    scanStart = document.getLineOffset(document.getLineOfOffset(dirty[0]));
+                }
+            }
+            String edited = document.get(scanStart, offset - scanStart);
+            String name = findOpenEnvironment(document, edited, scanStart);
+            if (name != null || index == null) {
+                return name;
+            }
+            for (Environment e = index.getEnvironment(offset); e != null; e = e.parent) {
+                if (!e.closed && edited.indexOf("\\end{" + e.name + "}") < 0) {
+                    return e.name;
+                }
+            }
+        } catch (BadLocationException e) {
+            // offset outside the document
+        }
+        return null;
+    }
+
+    /**
+     * Searches the given part of the document backwards for a \begin
+     * that has no matching \end.
+     * 
+     * @param document the document
+     * @param text the text to search
+     * @param textOffset offset of the text in the document
+     * @return The name of the environment or null if there is none
+     * @throws BadLocationException
+     */
+    private static String findOpenEnvironment(IDocument document, String text, int textOffset)
+            throws BadLocationException {
+        int o = text.length();
+        while ((o = text.lastIndexOf("\\begin", o)) >= 0) {
+            IRegion r = LatexParserUtils.getCommand(text, o + 1);
+            if (r != null && "\\begin".equals(text.substring(r.getOffset(),
+                    r.getOffset() + r.getLength()))) {
+                IRegion r2 = LatexParserUtils.getCommandArgument(text, o);
+                if (r2 != null) {
+                    String envName = text.substring(r2.getOffset(),
+                            r2.getOffset() + r2.getLength());
+                    if (!isEnded(document, envName, textOffset + r.getOffset())) {
+                        return envName;
+                    }
+                }
+            }
+            o--;
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether the environment begun at the given offset is ended
+     * later in the document. The document is read a few lines at a time
+     * from the \begin, until the matching \end is found.
+     * 
+     * @param document the document
+     * @param envName the name of the environment
+     * @param begin offset of the \begin
+     * @return true, if the environment has a matching \end
+     * @throws BadLocationException
+     */
+    private static boolean isEnded(IDocument document, String envName, int begin)
+            throws BadLocationException {
+        // the \begin statements of the same environment not yet ended
+        int level = 0;
+        int lines = document.getNumberOfLines();
+        int line = document.getLineOfOffset(begin);
+        int start = document.getLineOffset(line);
+        // skip the \begin itself
+        int from = begin - start + 1;
+        while (line < lines) {
+            // whole lines, so that the commands are not cut
+            int end = start;
+            while (line < lines && end - start < SCAN_WINDOW) {
+                end = document.getLineOffset(line) + document.getLineLength(line);
+                line++;
+            }
+            String text = document.get(start, end - start);
+            while (true) {
+                IRegion e = LatexParserUtils.findEndEnvironment(text, envName, from);
+                if (e == null) {
+                    break;
+                }
+                IRegion b = LatexParserUtils.findBeginEnvironment(text, envName, from);
+                if (b != null && b.getOffset() < e.getOffset()) {
+                    level++;
+                    from = b.getOffset() + 1;
+                } else if (level == 0) {
+                    return true;
+                } else {
+                    level--;
+                    from = e.getOffset() + 1;
+                }
+            }
+            // the rest of the \begin statements in this part
+            for (IRegion b = LatexParserUtils.findBeginEnvironment(text, envName, from); b != null;
+                    b = LatexParserUtils.findBeginEnvironment(text, envName, b.getOffset() + 1)) {
+                level++;
+            }
+            start = end;
+            from = 0;
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether the given offset is in math mode, i.e. in a math
+     * partition or in a math environment.
+     * 
+     * @param offset a document offset
+     * @return True if the offset is in math mode
+     */
+    public boolean isMath(int offset) {
+        IDocument document = editor.getDocumentProvider().getDocument(editor.getEditorInput());
+        try {
+            if (document instanceof IDocumentExtension3
+                    && FastLaTeXPartitionScanner.TEX_MATH.equals(((IDocumentExtension3) document)
+                            .getContentType(TexEditor.TEX_PARTITIONING, offset, true))) {
+                return true;
+            }
+        } catch (BadLocationException e) {
+            return false;
+        } catch (BadPartitioningException e) {
+            return false;
+        }
+        TexEnvironmentIndex index;
+        synchronized (envLock) {
+            index = environmentIndex;
+        }
+        if (index != null) {
+            for (Environment e = index.getEnvironment(offset); e != null; e = e.parent) {
+                if (FastLaTeXPartitionScanner.isMathEnv(e.name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Creates if not exist the ProjectOutline
      *
@@ -440,11 +661,30 @@ public class TexDocumentModel implements IDocumentListener {
             createProjectOutline();
         }
         
+        IDocument document = editor.getDocumentProvider().getDocument(editor.getEditorInput());
+        String input;
+        long stamp;
+        synchronized (envLock) {
+            editsWhileParsing = new ArrayList<long[]>();
+        }
         try {
-            parser.parseDocument(sectionCheckEnabled);
-        } catch (IOException e) {
-            TexlipsePlugin.log("Can't read file.", e);
-            throw new TexDocumentParseException(e);
+            do {
+                stamp = getModificationStamp(document);
+                input = document.get();
+            } while (stamp != getModificationStamp(document));
+            
+            try {
+                parser.parseDocument(input, sectionCheckEnabled);
+            } catch (IOException e) {
+                TexlipsePlugin.log("Can't read file.", e);
+                throw new TexDocumentParseException(e);
+            }
+            updateEnvironments(stamp);
+        } finally {
+            // the edits are not recorded when the parse failed
+            synchronized (envLock) {
+                editsWhileParsing = null;
+            }
         }
         pollCancel(monitor);
 
@@ -453,10 +693,10 @@ public class TexDocumentModel implements IDocumentListener {
         MarkerHandler marker = MarkerHandler.getInstance();
         
         // somewhat inelegantly ensures that errors marked in createProjectDatastructs()
-        // aren't removed immediately
+        // aren't removed immediately; later parses replace the markers of
+        // the previous one when the parse job ends
         if (!firstRun) {
-            marker.clearErrorMarkers(editor);
-            marker.clearTaskMarkers(editor);
+            marker.beginUpdate(editor);
         } else {
             firstRun = false;
         }
@@ -675,6 +915,7 @@ public class TexDocumentModel implements IDocumentListener {
     private void updateReferences(IProgressMonitor monitor) {
         this.updateLabels(parser.getLabels());
         this.updateCommands(parser.getCommands());
+        this.updateWords(parser.getWords());
         IProject project = getCurrentProject();
         if (project == null) return;
         IFile cFile = ((FileEditorInput) editor.getEditorInput()).getFile();
@@ -702,6 +943,8 @@ public class TexDocumentModel implements IDocumentListener {
             String[] bibs = parser.getBibs();
             this.updateBibs(bibs, biblatexMode, cFile);
 
+            TexPackageIndex.getInstance().update(cFile, parser.getPackages(), commandContainer);
+
             pollCancel(monitor);
 
             String preamble = parser.getPreamble();
@@ -808,11 +1051,10 @@ public class TexDocumentModel implements IDocumentListener {
         	    }
         	    
         		if (filepath.length() > 0) {
-        			BibParser parser = new BibParser(filepath);
         			try {
-        				List<ReferenceEntry> bibEntriesList = parser.getEntries();
+        				List<ReferenceEntry> bibEntriesList = BibEntryCache.getInstance().getEntries(filepath);
         				if (bibEntriesList != null && bibEntriesList.size() > 0) {
-        					bibContainer.addRefSource(path + name, bibEntriesList);
+        					bibContainer.addSharedRefSource(path + name, bibEntriesList);
         				} else if (bibEntriesList == null) {
         					MarkerHandler marker = MarkerHandler.getInstance();
         					marker.addFatalError(editor, "The BibTeX file " + filepath + " contains fatal errors, parsing aborted.");
@@ -844,6 +1086,17 @@ public class TexDocumentModel implements IDocumentListener {
         labelContainer.organize();
     }
     
+    /**
+     * Updates the words.
+     * @param words
+     */
+    private void updateWords(Map<String, Integer> words) {
+        IResource resource = getFile();
+        if (resource == null) return;
+        wordContainer.addRefSource(resource.getProjectRelativePath().toString(), words);
+        wordContainer.organize();
+    }
+    
     /**
      * Updates the commands.
      * @param commands
@@ -897,6 +1150,7 @@ public class TexDocumentModel implements IDocumentListener {
             if (bibContainer == null) bibContainer = new ReferenceContainer();
             if (labelContainer == null) labelContainer = new ReferenceContainer();
             if (commandContainer == null) commandContainer = new TexCommandContainer();
+            if (wordContainer == null) wordContainer = new TexWordContainer();
             return;
         }
         ReferenceContainer bibCon = (ReferenceContainer) TexlipseProperties.getSessionProperty(project,
@@ -932,6 +1186,17 @@ public class TexDocumentModel implements IDocumentListener {
         } else {
             commandContainer = comCon;
         }
+        TexWordContainer wordCon = (TexWordContainer) TexlipseProperties.getSessionProperty(project,
+                TexlipseProperties.WORDCONTAINER_PROPERTY);
+        if (wordCon == null) {
+            wordContainer = new TexWordContainer();
+            TexlipseProperties.setSessionProperty(project,
+                    TexlipseProperties.WORDCONTAINER_PROPERTY,
+                    wordContainer);
+            parseAll = true;
+        } else {
+            wordContainer = wordCon;
+        }
         
         if (parseAll) {
             createProjectDatastructs(project);
@@ -975,6 +1240,7 @@ public class TexDocumentModel implements IDocumentListener {
                         if (commands.size() > 0) {
                             commandContainer.addRefSource(files[i].getProjectRelativePath().toString(), commands);
                         }
+                        wordContainer.addRefSource(files[i].getProjectRelativePath().toString(), lrep.getWords());
                         //Only update Preamble, Bibstyle if main Document
                         if (files[i].equals(mainFile)) {
                             String[] bibs = lrep.getBibs();
@@ -982,6 +1248,7 @@ public class TexDocumentModel implements IDocumentListener {
                             String biblatexBackend = lrep.getBiblatexBackend();
                             this.updateBiblatex(project, biblatexMode, biblatexBackend, true);
                             this.updateBibs(bibs, biblatexMode, files[i]);
+                            TexPackageIndex.getInstance().update(files[i], lrep.getPackages(), commandContainer);
 
                             String preamble = lrep.getPreamble();
                             if (preamble != null) {
@@ -1004,6 +1271,7 @@ public class TexDocumentModel implements IDocumentListener {
             // save time by doing this last
             labelContainer.organize();
             commandContainer.organize();
+            wordContainer.organize();
         }
     }
     
@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The begin-end environments of a document as found by the last parse,
+ * for answering which environments enclose an offset without scanning
+ * the document text.
+ *
+ * The edits made to the document after the parse are recorded and the
+ * environment offsets are shifted accordingly when the index is next
+ * queried. The region covered by these edits is tracked as well, since
+ * environments begun or ended in it are not known to the index.
+ */
+public class TexEnvironmentIndex {
+
+    /**
+     * An environment of the parsed document.
+     */
+    public static class Environment {
+        /** Name of the environment */
+        public final String name;
+        /** The enclosing environment or null */
+        public final Environment parent;
+        /** Whether a matching \end was found */
+        public boolean closed;
+
+        // line and column (1-based) of the \begin and \end commands
+        final int beginLine;
+        final int beginPos;
+        int endLine = -1;
+        int endPos;
+
+        // document offsets of the \begin and \end commands, end is -1 if
+        // the environment was not ended
+        int begin;
+        int end = -1;
+
+        /**
+         * Creates a new environment.
+         *
+         * @param name name of the environment
+         * @param beginLine line of the \begin command
+         * @param beginPos column of the \begin command
+         * @param parent the enclosing environment or null
+         */
+        public Environment(String name, int beginLine, int beginPos, Environment parent) {
+            this.name = name;
+            this.beginLine = beginLine;
+            this.beginPos = beginPos;
+            this.parent = parent;
+        }
+
+        /**
+         * Sets the position of the \end command of this environment.
+         *
+         * @param endLine line of the \end command
+         * @param endPos column of the \end command
+         * @param closed true if the \end matches this environment
+         */
+        public void setEnd(int endLine, int endPos, boolean closed) {
+            this.endLine = endLine;
+            this.endPos = endPos;
+            this.closed = closed;
+        }
+
+        /**
+         * @return The document offset of the \begin command
+         */
+        public int getBegin() {
+            return begin;
+        }
+
+        /**
+         * @return The document offset of the \end command, or -1 if the
+         *  environment extends to the end of the document
+         */
+        public int getEnd() {
+            return end;
+        }
+
+        /**
+         * @param offset a document offset
+         * @return True if the offset is inside this environment
+         */
+        public boolean contains(int offset) {
+            return begin < offset && (end < 0 || offset <= end);
+        }
+    }
+
+    // sorted by the begin offset
+    private final Environment[] envs;
+    // pending edits as {offset, removed length, inserted length}
+    private final List<int[]> edits;
+    // region edited since the parse, or -1 if there were no edits
+    private int dirtyStart = -1;
+    private int dirtyEnd = -1;
+
+    /**
+     * Creates the index for the environments of a parsed document.
+     *
+     * @param environments the environments in the order of their \begin
+     * @param input the parsed text, for converting lines to offsets
+     */
+    public TexEnvironmentIndex(List<Environment> environments, String input) {
+        envs = environments.toArray(new Environment[environments.size()]);
+        edits = new ArrayList<int[]>();
+        int[] lines = getLineOffsets(input);
+        for (Environment e : envs) {
+            e.begin = toOffset(lines, e.beginLine, e.beginPos);
+            if (e.endLine > 0) {
+                e.end = toOffset(lines, e.endLine, e.endPos);
+            }
+        }
+    }
+
+    /**
+     * Returns the offsets of the lines of the text, counting line breaks
+     * the same way as the lexer.
+     *
+     * @param input the text
+     * @return the offset of each line
+     */
+    private static int[] getLineOffsets(String input) {
+        int[] lines = new int[64];
+        int count = 1;
+        int len = input.length();
+        for (int i = 0; i < len; i++) {
+            char c = input.charAt(i);
+            if (c == '\r' && i + 1 < len && input.charAt(i + 1) == '\n') {
+                i++;
+            } else if (c != '\r' && c != '\n') {
+                continue;
+            }
+            if (count == lines.length) {
+                int[] n = new int[lines.length * 2];
+                System.arraycopy(lines, 0, n, 0, count);
+                lines = n;
+            }
+            lines[count++] = i + 1;
+        }
+        int[] result = new int[count];
+        System.arraycopy(lines, 0, result, 0, count);
+        return result;
+    }
+
+    private static int toOffset(int[] lines, int line, int pos) {
+        return lines[Math.min(line, lines.length) - 1] + pos - 1;
+    }
+
+    /**
+     * Records a change of the document after the parse.
+     *
+     * @param offset offset of the change
+     * @param removed length of the replaced text
+     * @param inserted length of the new text
+     */
+    public synchronized void documentChanged(int offset, int removed, int inserted) {
+        edits.add(new int[] {offset, removed, inserted});
+        if (dirtyStart < 0) {
+            dirtyStart = offset;
+            dirtyEnd = offset + inserted;
+        } else {
+            dirtyEnd = Math.max(shift(dirtyEnd, offset, removed, inserted), offset + inserted);
+            dirtyStart = Math.min(shift(dirtyStart, offset, removed, inserted), offset);
+        }
+    }
+
+    /**
+     * Maps an offset in the text before an edit to the text after it.
+     * Offsets inside the replaced text move to the start of the edit.
+     */
+    private static int shift(int pos, int offset, int removed, int inserted) {
+        if (pos >= offset + removed) {
+            return pos + inserted - removed;
+        } else if (pos > offset) {
+            return offset;
+        }
+        return pos;
+    }
+
+    /**
+     * Applies the pending edits to the environment offsets.
+     */
+    private void applyEdits() {
+        for (int[] edit : edits) {
+            for (Environment e : envs) {
+                e.begin = shift(e.begin, edit[0], edit[1], edit[2]);
+                if (e.end >= 0) {
+                    e.end = shift(e.end, edit[0], edit[1], edit[2]);
+                }
+            }
+        }
+        edits.clear();
+    }
+
+    /**
+     * @return The start and end offset of the text edited since the parse,
+     *  or null if the document has not been edited
+     */
+    public synchronized int[] getDirtyRegion() {
+        return dirtyStart < 0 ? null : new int[] {dirtyStart, dirtyEnd};
+    }
+
+    /**
+     * Returns the innermost environment enclosing the given offset.
+     *
+     * @param offset a document offset
+     * @return The environment or null if there is none
+     */
+    public synchronized Environment getEnvironment(int offset) {
+        applyEdits();
+        // the last environment begun before the offset; as environments
+        // nest, the enclosing ones are found among its parents
+        int left = 0;
+        int right = envs.length - 1;
+        int found = -1;
+        while (left <= right) {
+            int middle = (left + right) >>> 1;
+            if (envs[middle].begin < offset) {
+                found = middle;
+                left = middle + 1;
+            } else {
+                right = middle - 1;
+            }
+        }
+        Environment e = found >= 0 ? envs[found] : null;
+        while (e != null && !e.contains(offset)) {
+            e = e.parent;
+        }
+        return e;
+    }
+}
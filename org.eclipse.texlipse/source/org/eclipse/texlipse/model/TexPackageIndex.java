@@ -0,0 +1,408 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.model;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.texlipse.TexlipsePlugin;
+import org.eclipse.texlipse.builder.KpathSearch;
+import org.eclipse.texlipse.builder.KpsewhichRunner;
+import org.eclipse.texlipse.texparser.LatexPackageScanner;
+
+/**
+ * Index of the commands and environments defined by installed LaTeX
+ * packages and classes.
+ *
+ * The packages used by a document are resolved in the background through
+ * the kpathsea search paths, scanned with a {@link LatexPackageScanner}
+ * together with the packages they load, and the results are handed to the
+ * project's {@link TexCommandContainer}. Scan results are kept in a file in
+ * the plugin state location, keyed by the package file path and its
+ * modification time, so that a package is only scanned again when it
+ * changes on disk. Completion itself only reads the command container.
+ */
+public class TexPackageIndex {
+
+    private static final String INDEX_FILE = "packageindex.txt";
+
+    // upper bound for the number of files followed from one document
+    private static final int MAX_FILES = 300;
+
+    private static TexPackageIndex theInstance;
+
+    /**
+     * Scan results of one package or class file.
+     */
+    private static class PackageInfo {
+        long modified;
+        List<TexCommandEntry> commands = new ArrayList<TexCommandEntry>();
+        List<String> environments = new ArrayList<String>();
+        List<String> requires = new ArrayList<String>();
+    }
+
+    /**
+     * A pending request for updating a command container.
+     */
+    private static class Request {
+        IResource resource;
+        String[] packages;
+        TexCommandContainer container;
+    }
+
+    /**
+     * Job that processes the pending requests and stores the index.
+     */
+    private class IndexJob extends Job {
+
+        public IndexJob() {
+            super("Indexing LaTeX packages");
+            setPriority(Job.DECORATE);
+            setSystem(true);
+        }
+
+        protected IStatus run(IProgressMonitor monitor) {
+            Request r;
+            while ((r = nextRequest()) != null) {
+                if (monitor.isCanceled()) {
+                    return Status.CANCEL_STATUS;
+                }
+                if (search == null) {
+                    search = createSearch(r.resource);
+                }
+                File dir = r.resource.getLocation() != null
+                        ? r.resource.getLocation().toFile().getParentFile() : null;
+                index(dir, r.packages, r.container);
+            }
+            save();
+            return Status.OK_STATUS;
+        }
+    }
+
+    private final File indexFile;
+    private KpathSearch search;
+    private final IndexJob job;
+    private final LinkedList<Request> pending;
+
+    // absolute path -> scan results
+    private Map<String, PackageInfo> cache;
+    // file name -> absolute path, as found in earlier sessions
+    private Map<String, String> knownPaths;
+    private boolean dirty;
+
+    /**
+     * Creates a new package index.
+     *
+     * @param indexFile the file the index is stored in
+     * @param search the search paths for finding packages, or null to
+     *  ask kpsewhich for them when they are first needed
+     */
+    public TexPackageIndex(File indexFile, KpathSearch search) {
+        this.indexFile = indexFile;
+        this.search = search;
+        this.job = new IndexJob();
+        this.pending = new LinkedList<Request>();
+    }
+
+    /**
+     * Returns the instance of the package index
+     *
+     * @return The singleton instance
+     */
+    public static synchronized TexPackageIndex getInstance() {
+        if (theInstance == null) {
+            File f = TexlipsePlugin.getDefault().getStateLocation().append(INDEX_FILE).toFile();
+            theInstance = new TexPackageIndex(f, null);
+        }
+        return theInstance;
+    }
+
+    /**
+     * Schedules an update of the package commands of the given container.
+     * Does nothing if the container already has the commands of exactly
+     * these packages.
+     *
+     * @param resource the document using the packages
+     * @param packages file names of the used packages and classes
+     * @param container the container to update
+     */
+    public void update(IResource resource, String[] packages, TexCommandContainer container) {
+        if (container.checkPackageFreshness(packages)) {
+            return;
+        }
+        container.setUsedPackages(packages);
+        Request r = new Request();
+        r.resource = resource;
+        r.packages = packages;
+        r.container = container;
+        synchronized (pending) {
+            pending.add(r);
+        }
+        job.schedule();
+    }
+
+    /**
+     * @return the next pending request or null if there are none
+     */
+    private Request nextRequest() {
+        synchronized (pending) {
+            return pending.isEmpty() ? null : pending.removeFirst();
+        }
+    }
+
+    /**
+     * Asks kpsewhich for the search paths of TeX input files.
+     *
+     * @param resource resource to run kpsewhich for
+     * @return the search, without any paths if kpsewhich is not available
+     */
+    private static KpathSearch createSearch(IResource resource) {
+        KpsewhichRunner runner = new KpsewhichRunner();
+        if (runner.isValid()) {
+            try {
+                return new KpathSearch(runner.getSearchPaths(resource, "tex"), null);
+            } catch (CoreException e) {
+                TexlipsePlugin.log("Can't run Kpathsea", e);
+            }
+        }
+        return new KpathSearch(null, null);
+    }
+
+    /**
+     * Resolves and scans the given packages and the packages they load,
+     * and replaces the package commands of the container with the results.
+     * Runs synchronously; normally called from the background job.
+     *
+     * @param dir directory of the document, searched before the search paths
+     * @param packages file names of the used packages and classes
+     * @param container the container to update
+     */
+    public synchronized void index(File dir, String[] packages, TexCommandContainer container) {
+        if (cache == null) {
+            load();
+        }
+        Map<String, TexCommandEntry> commands = new LinkedHashMap<String, TexCommandEntry>();
+        Set<String> environments = new HashSet<String>();
+        Set<String> visited = new HashSet<String>();
+        LinkedList<String> queue = new LinkedList<String>(Arrays.asList(packages));
+        while (!queue.isEmpty() && visited.size() < MAX_FILES) {
+            String name = queue.removeFirst();
+            if (!visited.add(name)) {
+                continue;
+            }
+            PackageInfo info = getInfo(dir, name);
+            if (info == null) {
+                continue;
+            }
+            for (TexCommandEntry c : info.commands) {
+                if (!commands.containsKey(c.key)) {
+                    commands.put(c.key, c);
+                }
+            }
+            environments.addAll(info.environments);
+            queue.addAll(info.requires);
+        }
+        container.setPackageSources(new ArrayList<TexCommandEntry>(commands.values()), environments);
+        container.organize();
+    }
+
+    /**
+     * Returns the scan results of the given package, scanning it if it is
+     * not in the index or has been modified since.
+     *
+     * @param dir directory of the document
+     * @param name file name of the package
+     * @return the scan results or null if the package was not found
+     */
+    private PackageInfo getInfo(File dir, String name) {
+        File f = locate(dir, name);
+        if (f == null) {
+            return null;
+        }
+        String path = f.getAbsolutePath();
+        PackageInfo info = cache.get(path);
+        if (info != null && info.modified == f.lastModified()) {
+            return info;
+        }
+        try {
+            LatexPackageScanner scanner = new LatexPackageScanner(name);
+            scanner.parse(readFile(f));
+            info = new PackageInfo();
+            info.modified = f.lastModified();
+            info.commands = scanner.getCommands();
+            info.environments = scanner.getEnvironments();
+            info.requires = scanner.getRequires();
+        } catch (IOException e) {
+            TexlipsePlugin.log("Can't read package file " + path, e);
+            return null;
+        }
+        cache.put(path, info);
+        knownPaths.put(name, path);
+        dirty = true;
+        return info;
+    }
+
+    /**
+     * Finds the package file. The document directory is tried first, then
+     * the location found in earlier sessions and last the search paths.
+     *
+     * @param dir directory of the document
+     * @param name file name of the package
+     * @return the file or null if it was not found
+     */
+    private File locate(File dir, String name) {
+        if (dir != null) {
+            File f = new File(dir, name);
+            if (f.isFile()) {
+                return f;
+            }
+        }
+        String known = knownPaths.get(name);
+        if (known != null) {
+            File f = new File(known);
+            if (f.isFile()) {
+                return f;
+            }
+        }
+        return search != null ? search.findFile(name) : null;
+    }
+
+    /**
+     * Reads the contents of a package file.
+     *
+     * @param f the file
+     * @return the contents
+     * @throws IOException if the file can't be read
+     */
+    private static String readFile(File f) throws IOException {
+        StringBuilder sb = new StringBuilder((int) f.length());
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(f), "ISO-8859-1"));
+        try {
+            char[] buff = new char[4096];
+            int len;
+            while ((len = in.read(buff)) != -1) {
+                sb.append(buff, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Loads the index from disk. The file consists of one "F" line per
+     * package file (modification time and path) followed by its "C"
+     * (command name, number of arguments, optional first argument),
+     * "E" (environment) and "R" (loaded package) lines.
+     */
+    private void load() {
+        cache = new HashMap<String, PackageInfo>();
+        knownPaths = new HashMap<String, String>();
+        if (indexFile == null || !indexFile.isFile()) {
+            return;
+        }
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(indexFile), "UTF-8"));
+            try {
+                PackageInfo info = null;
+                String source = null;
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] parts = line.split("\t");
+                    if (parts.length >= 3 && "F".equals(parts[0])) {
+                        info = new PackageInfo();
+                        info.modified = Long.parseLong(parts[1]);
+                        source = new File(parts[2]).getName();
+                        cache.put(parts[2], info);
+                        knownPaths.put(source, parts[2]);
+                    } else if (info == null) {
+                        continue;
+                    } else if (parts.length >= 4 && "C".equals(parts[0])) {
+                        info.commands.add(LatexPackageScanner.createEntry(source, parts[1],
+                                Integer.parseInt(parts[2]), "1".equals(parts[3])));
+                    } else if (parts.length >= 2 && "E".equals(parts[0])) {
+                        info.environments.add(parts[1]);
+                    } else if (parts.length >= 2 && "R".equals(parts[0])) {
+                        info.requires.add(parts[1]);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            TexlipsePlugin.log("Can't read the package index", e);
+        } catch (NumberFormatException e) {
+            // corrupt index, start from scratch
+            cache.clear();
+            knownPaths.clear();
+        }
+    }
+
+    /**
+     * Stores the index to disk if it has changed.
+     */
+    private synchronized void save() {
+        if (!dirty || indexFile == null) {
+            return;
+        }
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(indexFile), "UTF-8"));
+            try {
+                for (Map.Entry<String, PackageInfo> e : cache.entrySet()) {
+                    PackageInfo info = e.getValue();
+                    out.write("F\t" + info.modified + "\t" + e.getKey() + "\n");
+                    for (TexCommandEntry c : info.commands) {
+                        boolean optional = c.parameter.length > 0
+                                && c.parameter[0] == TexCommandEntry.OPT_PARAMETER;
+                        out.write("C\t" + c.key + "\t" + c.parameter.length
+                                + "\t" + (optional ? "1" : "0") + "\n");
+                    }
+                    for (String env : info.environments) {
+                        out.write("E\t" + env + "\n");
+                    }
+                    for (String req : info.requires) {
+                        out.write("R\t" + req + "\n");
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            dirty = false;
+        } catch (IOException e) {
+            TexlipsePlugin.log("Can't write the package index", e);
+        }
+    }
+}
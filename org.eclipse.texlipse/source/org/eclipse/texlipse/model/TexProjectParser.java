@@ -13,6 +13,7 @@ package org.eclipse.texlipse.model;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.eclipse.core.resources.IFile;
@@ -116,6 +117,16 @@ public class TexProjectParser {
         return this.parseFile();
     }
     
+    /**
+     * @return the files input or included by the last parsed file
+     */
+    public List<OutlineNode> getInputs() {
+        if (parser == null) {
+            return new ArrayList<OutlineNode>();
+        }
+        return parser.getInputs();
+    }
+    
     /**
      * Parses a file that has been previously found with 
      * <code>findIFile</code>. Note that if the find was not done or
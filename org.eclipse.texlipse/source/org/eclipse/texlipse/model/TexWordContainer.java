@@ -0,0 +1,260 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Contains the words of all the files of a project together with their
+ * frequencies, for word completion. The words of each file are kept
+ * separately, so that only the changed file needs to be counted again
+ * when it is parsed.
+ *
+ * The short prefixes match most of the words, so the most frequent words
+ * of each of them are kept ranked and updated with the frequencies. A
+ * ranking only has to be rebuilt, when one of its words becomes less
+ * frequent and a word left out of it might now come first. The longer
+ * prefixes match few words, which are ranked when they are asked for.
+ */
+public class TexWordContainer {
+
+    /**
+     * Words shorter than this are not worth completing
+     */
+    public static final int MIN_WORD_LENGTH = 3;
+
+    // the prefixes up to this length have rankings of their own
+    private static final int RANKED_PREFIX_LENGTH = 3;
+
+    // the number of words in a ranking
+    private static final int RANKED_COUNT = 64;
+
+    private Map<String, Map<String, Integer>> wordHash;
+    // all the words and their frequencies, sorted
+    private TreeMap<String, Integer> totals;
+
+    // short prefix -> its most frequent words, most frequent first; if
+    // there are less than RANKED_COUNT, they are all the words of the prefix
+    private Map<String, List<String>> rankings;
+    // prefixes whose rankings may lack words
+    private Set<String> stale;
+
+    // orders words by their frequencies, the most frequent first
+    private final Comparator<String> frequencyOrder = new Comparator<String>() {
+        public int compare(String o1, String o2) {
+            int c = totals.get(o2).compareTo(totals.get(o1));
+            return c != 0 ? c : o1.compareTo(o2);
+        }
+    };
+
+    /**
+     * Creates a new empty word container.
+     */
+    public TexWordContainer() {
+        wordHash = new HashMap<String, Map<String, Integer>>();
+        totals = new TreeMap<String, Integer>();
+        rankings = new HashMap<String, List<String>>();
+        stale = new HashSet<String>();
+    }
+
+    /**
+     * Adds the words in the given text to the word counts. A word is a
+     * maximal run of letters.
+     *
+     * @param text The text to count
+     * @param counts The word counts to add to
+     */
+    public static void countWords(String text, Map<String, Integer> counts) {
+        int len = text.length();
+        int i = 0;
+        while (i < len) {
+            while (i < len && !Character.isLetter(text.charAt(i))) i++;
+            int start = i;
+            while (i < len && Character.isLetter(text.charAt(i))) i++;
+            if (i - start >= MIN_WORD_LENGTH) {
+                String word = text.substring(start, i);
+                Integer c = counts.get(word);
+                counts.put(word, c == null ? 1 : c + 1);
+            }
+        }
+    }
+
+    /**
+     * Replaces the words of the given file. Only the words whose
+     * frequencies change are updated in the rankings.
+     *
+     * @param key The key (file) associated with these words
+     * @param words The words of the file and their counts
+     */
+    public synchronized void addRefSource(String key, Map<String, Integer> words) {
+        Map<String, Integer> old = wordHash.put(key, words);
+        Map<String, Integer> changes = new HashMap<String, Integer>(words);
+        if (old != null) {
+            for (Map.Entry<String, Integer> e : old.entrySet()) {
+                Integer c = changes.get(e.getKey());
+                changes.put(e.getKey(), (c == null ? 0 : c) - e.getValue());
+            }
+        }
+        for (Map.Entry<String, Integer> e : changes.entrySet()) {
+            int change = e.getValue();
+            if (change == 0) {
+                continue;
+            }
+            String word = e.getKey();
+            Integer c = totals.get(word);
+            int count = (c == null ? 0 : c) + change;
+            if (count > 0) {
+                totals.put(word, count);
+            } else {
+                totals.remove(word);
+            }
+            updateRankings(word, count, change > 0);
+        }
+    }
+
+    /**
+     * Moves a word whose frequency changed in the rankings of its prefixes.
+     *
+     * @param word the word
+     * @param count its new frequency, 0 if it is no longer used
+     * @param increased true, if the frequency increased
+     */
+    private void updateRankings(String word, int count, boolean increased) {
+        int length = Math.min(RANKED_PREFIX_LENGTH, word.length());
+        for (int n = 1; n <= length; n++) {
+            String prefix = word.substring(0, n);
+            List<String> ranking = rankings.get(prefix);
+            if (ranking == null) {
+                if (count <= 0) {
+                    continue;
+                }
+                ranking = new ArrayList<String>();
+                rankings.put(prefix, ranking);
+            }
+            boolean complete = ranking.size() < RANKED_COUNT;
+            boolean ranked = ranking.remove(word);
+            if (ranked && !increased && !complete) {
+                // a word left out of the ranking may come first now
+                stale.add(prefix);
+            }
+            if (count > 0) {
+                insert(ranking, word);
+            } else if (ranking.isEmpty() && !stale.contains(prefix)) {
+                rankings.remove(prefix);
+            }
+        }
+    }
+
+    /**
+     * Inserts a word into a ranking, unless it is less frequent than all
+     * the words of a full ranking.
+     *
+     * @param ranking the ranking
+     * @param word the word, which is not in the ranking
+     */
+    private void insert(List<String> ranking, String word) {
+        int i = ranking.size();
+        while (i > 0 && frequencyOrder.compare(word, ranking.get(i - 1)) < 0) {
+            i--;
+        }
+        if (i < RANKED_COUNT) {
+            ranking.add(i, word);
+            if (ranking.size() > RANKED_COUNT) {
+                ranking.remove(RANKED_COUNT);
+            }
+        }
+    }
+
+    /**
+     * Returns the most frequent of the words starting with the given
+     * prefix, without sorting all of them.
+     *
+     * @param prefix the prefix
+     * @param count the number of words to return at most
+     * @return the words, most frequent first
+     */
+    private List<String> selectMostFrequent(String prefix, int count) {
+        PriorityQueue<String> best = new PriorityQueue<String>(count + 1,
+                Collections.reverseOrder(frequencyOrder));
+        for (String word : totals.subMap(prefix, prefix + Character.MAX_VALUE).keySet()) {
+            best.add(word);
+            if (best.size() > count) {
+                // drop the least frequent
+                best.poll();
+            }
+        }
+        String[] words = new String[best.size()];
+        for (int i = words.length - 1; i >= 0; i--) {
+            words[i] = best.poll();
+        }
+        List<String> result = new ArrayList<String>(words.length);
+        Collections.addAll(result, words);
+        return result;
+    }
+
+    /**
+     * Rebuilds the rankings that may lack words.
+     */
+    public synchronized void organize() {
+        for (String prefix : stale) {
+            List<String> ranking = selectMostFrequent(prefix, RANKED_COUNT);
+            if (ranking.isEmpty()) {
+                rankings.remove(prefix);
+            } else {
+                rankings.put(prefix, ranking);
+            }
+        }
+        stale.clear();
+    }
+
+    /**
+     * Returns the most frequent words starting with the given prefix,
+     * most frequent first. The prefix itself is not returned. For the
+     * short prefixes, at most 64 words are returned.
+     *
+     * @param prefix The start of the word, case sensitive
+     * @param max The maximum number of words to return
+     * @return The words, possibly empty
+     */
+    public synchronized List<String> getCompletions(String prefix, int max) {
+        List<String> candidates;
+        if (prefix.length() > 0 && prefix.length() <= RANKED_PREFIX_LENGTH) {
+            if (stale.contains(prefix)) {
+                organize();
+            }
+            candidates = rankings.get(prefix);
+            if (candidates == null) {
+                return new ArrayList<String>(0);
+            }
+        } else {
+            // one more, in case the prefix is a word itself
+            candidates = selectMostFrequent(prefix, max + 1);
+        }
+
+        List<String> result = new ArrayList<String>(Math.min(max, candidates.size()));
+        for (int i = 0; i < candidates.size() && result.size() < max; i++) {
+            String word = candidates.get(i);
+            if (word.length() > prefix.length()) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+}
@@ -25,6 +25,7 @@ import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.DirectoryDialog;
 import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.List;
+import org.eclipse.swt.widgets.Spinner;
 import org.eclipse.swt.widgets.Text;
 import org.eclipse.texlipse.TexlipsePlugin;
 import org.eclipse.texlipse.builder.BuilderRegistry;
@@ -41,6 +42,9 @@ import org.eclipse.ui.PlatformUI;
 public class BuilderSettingsPreferencePage extends PreferencePage
 		implements IWorkbenchPreferencePage {
 
+    // the largest allowed maximum number of latex runs
+    private static final int MAX_RUNS_LIMIT = 20;
+
     // list of builders to configure
     private List builderList;
     
@@ -50,6 +54,21 @@ public class BuilderSettingsPreferencePage extends PreferencePage
     // checkbox for enabling console output
     private Button auxParserCheckBox;
 
+    // maximum number of latex runs in a build
+    private Spinner maxRunsField;
+
+    // checkbox for dumping the preamble into a format
+    private Button formatCacheCheckBox;
+
+    // checkbox for interrupting automatic builds
+    private Button continuousCheckBox;
+
+    // checkbox for running intermediate latex runs in draft mode
+    private Button draftPassesCheckBox;
+
+    // checkbox for building into the temp folder with -output-directory
+    private Button outputDirectoryCheckBox;
+
     // field for browsing to tex distribution install dir
     private Text texDirField;
 
@@ -108,6 +127,11 @@ public class BuilderSettingsPreferencePage extends PreferencePage
         addConsoleCheckBox(contents);
         //TexlipsePreferencePage.addSpacer(1, true, contents);
         addAuxParserCheckBox(contents);
+        addMaxRunsField(contents);
+        addFormatCacheCheckBox(contents);
+        addContinuousCheckBox(contents);
+        addDraftPassesCheckBox(contents);
+        addOutputDirectoryCheckBox(contents);
         
         return contents;
 	}
@@ -246,6 +270,106 @@ public class BuilderSettingsPreferencePage extends PreferencePage
         auxParserCheckBox.setSelection(getPreferenceStore().getBoolean(TexlipseProperties.BUILDER_PARSE_AUX_FILES));
     }
 
+    /**
+     * Add "maximum number of LaTeX runs" -field.
+     * @param contents parent component
+     */
+    private void addMaxRunsField(Composite contents) {
+        Composite field = new Composite(contents, SWT.NULL);
+        GridData fieldData = new GridData(GridData.FILL_HORIZONTAL);
+        fieldData.horizontalSpan = 2;
+        field.setLayoutData(fieldData);
+        GridLayout fieldLay = new GridLayout();
+        fieldLay.numColumns = 2;
+        field.setLayout(fieldLay);
+        
+        Label label = new Label(field, SWT.LEFT);
+        label.setText(TexlipsePlugin.getResourceString("preferenceBuilderMaxRuns"));
+        label.setLayoutData(new GridData());
+        
+        maxRunsField = new Spinner(field, SWT.BORDER);
+        maxRunsField.setMinimum(1);
+        maxRunsField.setMaximum(MAX_RUNS_LIMIT);
+        maxRunsField.setSelection(getPreferenceStore().getInt(TexlipseProperties.BUILDER_MAX_RUNS));
+        maxRunsField.setLayoutData(new GridData());
+    }
+
+    /**
+     * Add "Load the preamble from a format file" -checkbox.
+     * @param contents parent component
+     */
+    private void addFormatCacheCheckBox(Composite contents) {
+        Composite checkField = new Composite(contents, SWT.NULL);
+        GridData checkData = new GridData(GridData.FILL_HORIZONTAL);
+        checkData.horizontalSpan = 2;
+        checkField.setLayoutData(checkData);
+        GridLayout checkLay = new GridLayout();
+        checkLay.numColumns = 2;
+        checkField.setLayout(checkLay);
+        
+        formatCacheCheckBox = new Button(checkField, SWT.CHECK);
+        formatCacheCheckBox.setLayoutData(new GridData());
+        formatCacheCheckBox.setText(TexlipsePlugin.getResourceString("preferenceBuilderFormatCache"));
+        formatCacheCheckBox.setSelection(getPreferenceStore().getBoolean(TexlipseProperties.BUILDER_FORMAT_CACHE));
+    }
+
+    /**
+     * Add "Cancel a running automatic build" -checkbox.
+     * @param contents parent component
+     */
+    private void addContinuousCheckBox(Composite contents) {
+        Composite checkField = new Composite(contents, SWT.NULL);
+        GridData checkData = new GridData(GridData.FILL_HORIZONTAL);
+        checkData.horizontalSpan = 2;
+        checkField.setLayoutData(checkData);
+        GridLayout checkLay = new GridLayout();
+        checkLay.numColumns = 2;
+        checkField.setLayout(checkLay);
+        
+        continuousCheckBox = new Button(checkField, SWT.CHECK);
+        continuousCheckBox.setLayoutData(new GridData());
+        continuousCheckBox.setText(TexlipsePlugin.getResourceString("preferenceBuilderContinuous"));
+        continuousCheckBox.setSelection(getPreferenceStore().getBoolean(TexlipseProperties.BUILDER_CONTINUOUS));
+    }
+
+    /**
+     * Add "Skip writing the output in intermediate runs" -checkbox.
+     * @param contents parent component
+     */
+    private void addDraftPassesCheckBox(Composite contents) {
+        Composite checkField = new Composite(contents, SWT.NULL);
+        GridData checkData = new GridData(GridData.FILL_HORIZONTAL);
+        checkData.horizontalSpan = 2;
+        checkField.setLayoutData(checkData);
+        GridLayout checkLay = new GridLayout();
+        checkLay.numColumns = 2;
+        checkField.setLayout(checkLay);
+        
+        draftPassesCheckBox = new Button(checkField, SWT.CHECK);
+        draftPassesCheckBox.setLayoutData(new GridData());
+        draftPassesCheckBox.setText(TexlipsePlugin.getResourceString("preferenceBuilderDraftPasses"));
+        draftPassesCheckBox.setSelection(getPreferenceStore().getBoolean(TexlipseProperties.BUILDER_DRAFT_PASSES));
+    }
+
+    /**
+     * Add "Write the files of the build into the temporary files folder" -checkbox.
+     * @param contents parent component
+     */
+    private void addOutputDirectoryCheckBox(Composite contents) {
+        Composite checkField = new Composite(contents, SWT.NULL);
+        GridData checkData = new GridData(GridData.FILL_HORIZONTAL);
+        checkData.horizontalSpan = 2;
+        checkField.setLayoutData(checkData);
+        GridLayout checkLay = new GridLayout();
+        checkLay.numColumns = 2;
+        checkField.setLayout(checkLay);
+        
+        outputDirectoryCheckBox = new Button(checkField, SWT.CHECK);
+        outputDirectoryCheckBox.setLayoutData(new GridData());
+        outputDirectoryCheckBox.setText(TexlipsePlugin.getResourceString("preferenceBuilderOutputDirectory"));
+        outputDirectoryCheckBox.setSelection(getPreferenceStore().getBoolean(TexlipseProperties.BUILDER_OUTPUT_DIRECTORY));
+    }
+
     /**
      * Called when ok-button (or apply-button) is pressed.
      * Saves all the field editor values to preferences.
@@ -255,6 +379,11 @@ public class BuilderSettingsPreferencePage extends PreferencePage
         boolean ok = super.performOk();
         getPreferenceStore().setValue(TexlipseProperties.BUILDER_CONSOLE_OUTPUT, consoleOutputCheckBox.getSelection());
         getPreferenceStore().setValue(TexlipseProperties.BUILDER_PARSE_AUX_FILES, auxParserCheckBox.getSelection());
+        getPreferenceStore().setValue(TexlipseProperties.BUILDER_MAX_RUNS, maxRunsField.getSelection());
+        getPreferenceStore().setValue(TexlipseProperties.BUILDER_FORMAT_CACHE, formatCacheCheckBox.getSelection());
+        getPreferenceStore().setValue(TexlipseProperties.BUILDER_CONTINUOUS, continuousCheckBox.getSelection());
+        getPreferenceStore().setValue(TexlipseProperties.BUILDER_DRAFT_PASSES, draftPassesCheckBox.getSelection());
+        getPreferenceStore().setValue(TexlipseProperties.BUILDER_OUTPUT_DIRECTORY, outputDirectoryCheckBox.getSelection());
         changeTexDistribution();
         texDirField.setText("");
         builderList.setItems(getBuilderItems());
@@ -270,6 +399,11 @@ public class BuilderSettingsPreferencePage extends PreferencePage
         super.performDefaults();
         consoleOutputCheckBox.setSelection(getPreferenceStore().getDefaultBoolean(TexlipseProperties.BUILDER_CONSOLE_OUTPUT));
         auxParserCheckBox.setSelection(getPreferenceStore().getDefaultBoolean(TexlipseProperties.BUILDER_PARSE_AUX_FILES));
+        maxRunsField.setSelection(getPreferenceStore().getDefaultInt(TexlipseProperties.BUILDER_MAX_RUNS));
+        formatCacheCheckBox.setSelection(getPreferenceStore().getDefaultBoolean(TexlipseProperties.BUILDER_FORMAT_CACHE));
+        continuousCheckBox.setSelection(getPreferenceStore().getDefaultBoolean(TexlipseProperties.BUILDER_CONTINUOUS));
+        draftPassesCheckBox.setSelection(getPreferenceStore().getDefaultBoolean(TexlipseProperties.BUILDER_DRAFT_PASSES));
+        outputDirectoryCheckBox.setSelection(getPreferenceStore().getDefaultBoolean(TexlipseProperties.BUILDER_OUTPUT_DIRECTORY));
     }
     
     /**
@@ -73,6 +73,11 @@ public class TexlipsePreferenceInitializer extends
         pref.setDefault(TexlipseProperties.BUILDER_NUMBER, 2);
         pref.setDefault(TexlipseProperties.BUILDER_CONSOLE_OUTPUT, true);
         pref.setDefault(TexlipseProperties.BUILDER_PARSE_AUX_FILES, true);
+        pref.setDefault(TexlipseProperties.BUILDER_MAX_RUNS, 5);
+        pref.setDefault(TexlipseProperties.BUILDER_FORMAT_CACHE, false);
+        pref.setDefault(TexlipseProperties.BUILDER_CONTINUOUS, false);
+        pref.setDefault(TexlipseProperties.BUILDER_DRAFT_PASSES, false);
+        pref.setDefault(TexlipseProperties.BUILDER_OUTPUT_DIRECTORY, false);
         pref.setDefault(TexlipseProperties.BUILD_BEFORE_VIEW, false);
         pref.setDefault(TexlipseProperties.FILE_LOCATION_PORT, FileLocationClient.DEFAULT_PORTNUMBER);
         
@@ -88,7 +93,7 @@ public class TexlipsePreferenceInitializer extends
         
         pref.setDefault(TexlipseProperties.BUILD_ENV_SETTINGS, "");
         pref.setDefault(TexlipseProperties.VIEWER_ENV_SETTINGS, "");
-        pref.setDefault(TexlipseProperties.TEMP_FILE_EXTS, ".aux,.log,.toc,.ind,.ilg,.bbl,.blg,.lot,.lof,.snm,.nav,.out,.vrb,.run.xml,.bcf");
+        pref.setDefault(TexlipseProperties.TEMP_FILE_EXTS, ".aux,.log,.toc,.ind,.ilg,.bbl,.blg,.lot,.lof,.snm,.nav,.out,.vrb,.run.xml,.bcf,.fls,.xdv");
         pref.setDefault(TexlipseProperties.DERIVED_FILES, ".synctex.gz,.synctex,.pdfsync");
         
         pref.setDefault(TexlipseProperties.BIB_COMPLETION, true);
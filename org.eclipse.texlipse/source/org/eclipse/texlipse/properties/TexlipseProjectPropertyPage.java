@@ -46,6 +46,9 @@ public class TexlipseProjectPropertyPage extends PropertyPage {
     // text field for project source file name
     private Text sourceFileField;
     
+    // text field for the further main files
+    private Text targetsField;
+    
     // text field for output file name
     private Text outFileField;
     
@@ -90,6 +93,7 @@ public class TexlipseProjectPropertyPage extends PropertyPage {
 
         TexlipsePreferencePage.addSeparator(1, composite);
         addMainSection(composite);
+        addTargetsSection(composite);
         TexlipsePreferencePage.addSeparator(1, composite);
         addOutSection(composite);
         TexlipsePreferencePage.addSeparator(1, composite);
@@ -134,6 +138,23 @@ public class TexlipseProjectPropertyPage extends PropertyPage {
             }});
     }
 
+    /**
+     * Create the section of the page for the further main files.
+     * @param parent parent component
+     */
+    private void addTargetsSection(Composite parent) {
+        Composite composite = createDefaultComposite(parent, 2);
+
+        Label label = new Label(composite, SWT.NONE);
+        label.setText(TexlipsePlugin.getResourceString("propertiesBuildTargetsLabel"));
+        label.setLayoutData(new GridData());
+        label.setToolTipText(TexlipsePlugin.getResourceString("propertiesBuildTargetsTooltip"));
+        
+        targetsField = new Text(composite, SWT.SINGLE | SWT.BORDER);
+        targetsField.setLayoutData(new GridData(GridData.HORIZONTAL_ALIGN_FILL | GridData.GRAB_HORIZONTAL));
+        targetsField.setToolTipText(TexlipsePlugin.getResourceString("propertiesBuildTargetsTooltip"));
+    }
+
     /**
      * Check that:
      * - subdir exists
@@ -502,6 +523,11 @@ public class TexlipseProjectPropertyPage extends PropertyPage {
                 TexlipseProperties.MAINFILE_PROPERTY);
         sourceFileField.setText((srcFile != null) ? (srcDir+srcFile) : "");
         
+        // read the further main files
+        String targets = TexlipseProperties.getProjectProperty(project,
+                TexlipseProperties.BUILD_TARGETS_PROPERTY);
+        targetsField.setText((targets != null) ? targets : "");
+        
         // read temp dir
         String temp = TexlipseProperties.getProjectProperty(project,
                 TexlipseProperties.TEMP_DIR_PROPERTY);
@@ -629,6 +655,9 @@ public class TexlipseProjectPropertyPage extends PropertyPage {
 
         TexlipseProperties.setProjectProperty(project,
                 TexlipseProperties.SOURCE_DIR_PROPERTY, srcDir);
+        
+        TexlipseProperties.setProjectProperty(project,
+                TexlipseProperties.BUILD_TARGETS_PROPERTY, targetsField.getText().trim());
                 
         TexlipseProperties.setProjectProperty(project,
                 TexlipseProperties.OUTPUTFILE_PROPERTY, outFile);
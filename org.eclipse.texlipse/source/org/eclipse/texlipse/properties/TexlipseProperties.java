@@ -27,6 +27,7 @@ import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.QualifiedName;
 import org.eclipse.jface.dialogs.IDialogConstants;
 import org.eclipse.jface.dialogs.MessageDialog;
@@ -47,6 +48,8 @@ public class TexlipseProperties {
     public static final String LATEX_PROJECT_SETTINGS_FILE = ".texlipse";
 
     public static final String MAINFILE_PROPERTY = "mainTexFile";
+    // further main files built together with the main file, separated by commas
+    public static final String BUILD_TARGETS_PROPERTY = "buildTargets";
     public static final String OUTPUTFILE_PROPERTY = "outputFile";
     public static final String BIBFILE_PROPERTY = "bibFiles";
     public static final String BIBSTYLE_PROPERTY = "bibStyle";
@@ -56,6 +59,8 @@ public class TexlipseProperties {
     public static final String PREAMBLE_PROPERTY = "preamble";
     public static final String PARTIAL_BUILD_PROPERTY = "partialBuild";
     public static final String PARTIAL_BUILD_FILE = "partialFile";
+    // the chapter a partial build includes with \includeonly, or null
+    public static final String SESSION_INCLUDE_ONLY = "includeOnly";
     public static final String BIBFILES_CHANGED = "bibFilesChanged";
     public static final String FORCED_REBUILD = "forcedRebuild";
     
@@ -71,6 +76,7 @@ public class TexlipseProperties {
     public static final String BIBCONTAINER_PROPERTY = "bibContainer";
     public static final String LABELCONTAINER_PROPERTY = "labelContainer";
     public static final String COMCONTAINER_PROPERTY = "commandContainer";
+    public static final String WORDCONTAINER_PROPERTY = "wordContainer";
 //    public static final String LISTENERS_PROPERTY = "changeListeners";
 
     // preferences
@@ -152,6 +158,11 @@ public class TexlipseProperties {
     public static final String BUILD_BEFORE_VIEW = "buildBeforeView";
     public static final String BUILDER_RETURN_FOCUS = "returnFocusOnPreivew";
     public static final String BUILDER_PARSE_AUX_FILES = "builderParseAuxFiles";
+    public static final String BUILDER_MAX_RUNS = "builderMaxRuns";
+    public static final String BUILDER_FORMAT_CACHE = "builderFormatCache";
+    public static final String BUILDER_CONTINUOUS = "builderContinuous";
+    public static final String BUILDER_DRAFT_PASSES = "builderDraftPasses";
+    public static final String BUILDER_OUTPUT_DIRECTORY = "builderOutputDirectory";
     public static final String BUILDER_FORCE_RETURN_FOCUS = "forceReturnFocusOnInverseSearch";
     
     public static final String OUTPUT_FORMAT = "outputFormat";
@@ -170,9 +181,12 @@ public class TexlipseProperties {
 
     // session variables
     public static final String SESSION_BIBTEX_RERUN = "rerunBibtex";
-    public static final String SESSION_LATEX_RERUN = "rerunLatex";
     public static final String SESSION_MAKEINDEX_RERUN = "rerunMakeindex";
     public static final String SESSION_PROPERTIES_LOAD = "propsLoaded";
+    // the inputs of the last full build, a BuildRecord
+    public static final String SESSION_BUILD_RECORD = "buildRecord";
+    // the BuildRecords of the last builds of the further build targets, by file
+    public static final String SESSION_TARGET_RECORDS = "targetRecords";
     // attribute for session properties to hold the viewer process object
     public static final String SESSION_ATTRIBUTE_VIEWER = "active.viewer";
     public static final String SESSION_PROJECT_FULLOUTLINE = "project.fullTexParser";
@@ -337,6 +351,52 @@ public class TexlipseProperties {
         return null;
     }
     
+    /**
+     * Find the further main files of the project, which are built together
+     * with the main file, each into an output file of its own name. The
+     * files may or may not exist.
+     * @param project the current project
+     * @return handles to the files, empty if there are none
+     */
+    public static IFile[] getProjectBuildTargets(IProject project) {
+        String targets = getProjectProperty(project, BUILD_TARGETS_PROPERTY);
+        if (targets == null || targets.trim().length() == 0) {
+            return new IFile[0];
+        }
+        IContainer dir = getProjectSourceDir(project);
+        IFile mainFile = getProjectSourceFile(project);
+        List<IFile> list = new ArrayList<IFile>();
+        for (String name : targets.split(",")) {
+            name = name.trim();
+            if (name.length() > 0) {
+                IFile file = dir.getFile(new Path(name));
+                if (!file.equals(mainFile) && !list.contains(file)) {
+                    list.add(file);
+                }
+            }
+        }
+        return list.toArray(new IFile[list.size()]);
+    }
+    
+    /**
+     * Find the temporary files directory of a further build target of the
+     * project. It is a folder named after the target in the project's temp
+     * directory.
+     * @param project the current project
+     * @param target the main file of the build target
+     * @return a handle to the directory or null if the project has no temp
+     *         directory
+     */
+    public static IFolder getTargetTempDir(IProject project, IFile target) {
+        IFolder tempDir = getProjectTempDir(project);
+        if (tempDir == null) {
+            return null;
+        }
+        String name = target.getName();
+        int index = name.lastIndexOf('.');
+        return tempDir.getFolder(index > 0 ? name.substring(0, index) : name);
+    }
+    
     /**
      * Find the project's source directory.
      * @param project the current project
@@ -418,6 +478,7 @@ public class TexlipseProperties {
         
         setSessionProperty(project, SESSION_PROPERTIES_LOAD, Long.valueOf(System.currentTimeMillis()));
         setProjectProperty(project, MAINFILE_PROPERTY, prop.getProperty(MAINFILE_PROPERTY, ""));
+        setProjectProperty(project, BUILD_TARGETS_PROPERTY, prop.getProperty(BUILD_TARGETS_PROPERTY, ""));
         setProjectProperty(project, OUTPUTFILE_PROPERTY, prop.getProperty(OUTPUTFILE_PROPERTY, ""));
         setProjectProperty(project, SOURCE_DIR_PROPERTY, prop.getProperty(SOURCE_DIR_PROPERTY, ""));
         setProjectProperty(project, OUTPUT_DIR_PROPERTY, prop.getProperty(OUTPUT_DIR_PROPERTY, ""));
@@ -459,6 +520,10 @@ public class TexlipseProperties {
         Properties prop = new Properties();
         
         prop.setProperty(MAINFILE_PROPERTY, getProjectProperty(project, MAINFILE_PROPERTY));
+        String targets = getProjectProperty(project, BUILD_TARGETS_PROPERTY);
+        if (targets != null && targets.length() > 0) {
+            prop.setProperty(BUILD_TARGETS_PROPERTY, targets);
+        }
         prop.setProperty(OUTPUTFILE_PROPERTY, getProjectProperty(project, OUTPUTFILE_PROPERTY));
         prop.setProperty(SOURCE_DIR_PROPERTY, getProjectProperty(project, SOURCE_DIR_PROPERTY));
         prop.setProperty(OUTPUT_DIR_PROPERTY, getProjectProperty(project, OUTPUT_DIR_PROPERTY));
@@ -171,8 +171,7 @@ public class SpellChecker implements IPropertyChangeListener {
         
         BuilderRegistry.printToConsole("aspell> adding word: " + word);
 
-        String[] environp = PathUtils.mergeEnvFromPrefs(PathUtils.getEnv(),
-                SPELL_CHECKER_ENV);
+        String[] environp = PathUtils.getStrings(PathUtils.getEnv(SPELL_CHECKER_ENV));
         try {
             Process p = Runtime.getRuntime().exec(cmd, environp);
             PrintWriter w = new PrintWriter(new
@@ -216,7 +215,7 @@ public class SpellChecker implements IPropertyChangeListener {
         args = args.replaceAll("%language", language);
         
         command = f.getAbsolutePath() + " " + args;
-        envp = PathUtils.mergeEnvFromPrefs(PathUtils.getEnv(), SPELL_CHECKER_ENV);
+        envp = PathUtils.getStrings(PathUtils.getEnv(SPELL_CHECKER_ENV));
     }
 
     /**
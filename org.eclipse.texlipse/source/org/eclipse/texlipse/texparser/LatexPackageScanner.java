@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.texparser;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.texlipse.model.TexCommandEntry;
+
+/**
+ * Extracts the user level command and environment definitions from
+ * LaTeX package (.sty) and class (.cls) files.
+ *
+ * Package code is far too irregular for the document lexer, so this is
+ * a simple line based scan for the usual definition commands
+ * (<code>\newcommand</code>, <code>\providecommand</code>,
+ * <code>\DeclareRobustCommand</code>, <code>\DeclareMathOperator</code>,
+ * <code>\def</code> and friends, <code>\newenvironment</code>).
+ * Internal commands containing an <code>@</code> are skipped. The names
+ * of the packages and classes loaded by the scanned file are collected
+ * as well, so that they can be scanned in turn.
+ */
+public class LatexPackageScanner {
+
+    private static final Pattern NEWCOMMAND = Pattern.compile(
+            "\\\\(?:newcommand|providecommand|DeclareRobustCommand|DeclareMathOperator)\\*?"
+            + "\\s*\\{?\\s*\\\\([a-zA-Z]+)(?![a-zA-Z@])\\s*\\}?\\s*(?:\\[\\s*(\\d)\\s*\\])?\\s*(\\[)?");
+    private static final Pattern DEF = Pattern.compile(
+            "\\\\(?:long\\\\)?(?:g|e|x)?def\\s*\\\\([a-zA-Z]+)(?![a-zA-Z@])((?:#\\d)*)\\s*\\{");
+    private static final Pattern NEWENVIRONMENT = Pattern.compile(
+            "\\\\(?:newenvironment|provideenvironment)\\*?\\s*\\{([a-zA-Z]+\\*?)\\}");
+    private static final Pattern REQUIRE = Pattern.compile(
+            "\\\\(RequirePackage|LoadClass)(?:WithOptions)?\\s*(?:\\[[^\\]]*\\])?\\s*\\{([^}]*)\\}");
+
+    private final String source;
+    private Map<String, TexCommandEntry> commands;
+    private Set<String> environments;
+    private Set<String> requires;
+
+    /**
+     * Creates a new scanner.
+     *
+     * @param source name of the package or class file that is scanned,
+     *  e.g. "amsmath.sty"; stored as the dependency of the found commands
+     */
+    public LatexPackageScanner(String source) {
+        this.source = source;
+        this.commands = new LinkedHashMap<String, TexCommandEntry>();
+        this.environments = new LinkedHashSet<String>();
+        this.requires = new LinkedHashSet<String>();
+    }
+
+    /**
+     * Scans the given package or class file contents.
+     *
+     * @param input contents of the file
+     */
+    public void parse(String input) {
+        String[] lines = input.split("\r\n|\r|\n");
+        for (String line : lines) {
+            line = stripComment(line);
+            if (line.indexOf('\\') == -1) {
+                continue;
+            }
+            Matcher m = NEWCOMMAND.matcher(line);
+            while (m.find()) {
+                int args = m.group(2) != null ? Integer.parseInt(m.group(2)) : 0;
+                boolean optional = args > 0 && m.group(3) != null;
+                addCommand(m.group(1), args, optional);
+            }
+            m = DEF.matcher(line);
+            while (m.find()) {
+                addCommand(m.group(1), m.group(2).length() / 2, false);
+            }
+            m = NEWENVIRONMENT.matcher(line);
+            while (m.find()) {
+                environments.add(m.group(1));
+            }
+            m = REQUIRE.matcher(line);
+            while (m.find()) {
+                String ext = "LoadClass".equals(m.group(1)) ? ".cls" : ".sty";
+                for (String name : m.group(2).split(",")) {
+                    name = name.trim();
+                    if (name.length() > 0 && name.indexOf('\\') == -1) {
+                        requires.add(name + ext);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a command unless it is already defined in this file.
+     *
+     * @param name command name without the backslash
+     * @param args total number of arguments
+     * @param optional whether the first argument is optional
+     */
+    private void addCommand(String name, int args, boolean optional) {
+        if (!commands.containsKey(name)) {
+            commands.put(name, createEntry(source, name, args, optional));
+        }
+    }
+
+    /**
+     * Creates the completion entry for a command defined in a package.
+     * The optional argument is recorded in the parameter types, but
+     * only the mandatory arguments are counted in
+     * <code>arguments</code>, since only those get braces on completion.
+     *
+     * @param source name of the package or class file defining the command
+     * @param name command name without the backslash
+     * @param args total number of arguments
+     * @param optional whether the first argument is optional
+     * @return the command entry
+     */
+    public static TexCommandEntry createEntry(String source, String name,
+            int args, boolean optional) {
+        int mandatory = optional ? args - 1 : args;
+        int[] parameter = new int[args];
+        StringBuilder sig = new StringBuilder("\\").append(name);
+        for (int i = 0; i < args; i++) {
+            if (optional && i == 0) {
+                parameter[i] = TexCommandEntry.OPT_PARAMETER;
+                sig.append("[]");
+            } else {
+                parameter[i] = TexCommandEntry.MAND_PARAMETER;
+                sig.append("{}");
+            }
+        }
+        TexCommandEntry entry = new TexCommandEntry(name,
+                sig.toString() + "\n\nDefined in " + source + ".",
+                mandatory, parameter, TexCommandEntry.NORMAL_CONTEXT);
+        entry.depend = source;
+        return entry;
+    }
+
+    /**
+     * Removes a trailing comment from the line.
+     *
+     * @param line a line of input
+     * @return the line without the comment
+     */
+    private static String stripComment(String line) {
+        int idx = line.indexOf('%');
+        while (idx >= 0) {
+            if (!LatexParserUtils.isEscaped(line, idx)) {
+                return line.substring(0, idx);
+            }
+            idx = line.indexOf('%', idx + 1);
+        }
+        return line;
+    }
+
+    /**
+     * @return the commands defined in the scanned file
+     */
+    public List<TexCommandEntry> getCommands() {
+        return new ArrayList<TexCommandEntry>(commands.values());
+    }
+
+    /**
+     * @return the environments defined in the scanned file
+     */
+    public List<String> getEnvironments() {
+        return new ArrayList<String>(environments);
+    }
+
+    /**
+     * @return the file names (with extension) of the packages and classes
+     *  loaded by the scanned file
+     */
+    public List<String> getRequires() {
+        return new ArrayList<String>(requires);
+    }
+}
@@ -14,6 +14,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import org.eclipse.core.resources.IMarker;
@@ -23,6 +24,8 @@ import org.eclipse.texlipse.model.OutlineNode;
 import org.eclipse.texlipse.model.ParseErrorMessage;
 import org.eclipse.texlipse.model.ReferenceEntry;
 import org.eclipse.texlipse.model.TexCommandEntry;
+import org.eclipse.texlipse.model.TexEnvironmentIndex.Environment;
+import org.eclipse.texlipse.model.TexWordContainer;
 import org.eclipse.texlipse.texparser.lexer.LexerException;
 import org.eclipse.texlipse.texparser.node.*;
 
@@ -136,6 +139,12 @@ public class LatexParser {
     private List<String> bibs;
     private String bibstyle;
     
+    private List<String> packages;
+    
+    private Map<String, Integer> words;
+    
+    private List<Environment> environments;
+    
     private List<OutlineNode> inputs;
     
     private ArrayList<OutlineNode> outlineTree;
@@ -166,6 +175,9 @@ public class LatexParser {
         this.errors = new ArrayList<ParseErrorMessage>();
         
         this.bibs = new ArrayList<String>();
+        this.packages = new ArrayList<String>();
+        this.words = new HashMap<String, Integer>();
+        this.environments = new ArrayList<Environment>();
         this.biblatexMode = false;
         this.biblatexBackend = null;
         this.localBib = false;
@@ -173,6 +185,26 @@ public class LatexParser {
         this.fatalErrors = false;
     }
 
+    /**
+     * Sets the end of the innermost open environment. An \end{document}
+     * ends all the environments opened after the document.
+     *
+     * @param openEnvs stack with the open environments
+     * @param name name of the ended environment
+     * @param endToken the \end command
+     */
+    private static void endEnvironment(StackUnsynch<Environment> openEnvs, String name,
+            Token endToken) {
+        while (!openEnvs.empty()) {
+            Environment env = openEnvs.pop();
+            boolean closed = env.name.equals(name);
+            env.setEnd(endToken.getLine(), endToken.getPos(), closed);
+            if (closed || !"document".equals(name)) {
+                return;
+            }
+        }
+    }
+
     /**
      * Adds a node for a document section to the outline tree.
      *
@@ -337,6 +369,7 @@ public class LatexParser {
         StackUnsynch<OutlineNode> blocks = new StackUnsynch<OutlineNode>();
         StackUnsynch<OutlineNode> envBlocks = new StackUnsynch<OutlineNode>();
         StackUnsynch<Token> braces = new StackUnsynch<Token>();
+        StackUnsynch<Environment> openEnvs = new StackUnsynch<Environment>();
         
         boolean expectArg = false;
         boolean expectArg2 = false;
@@ -403,6 +436,11 @@ public class LatexParser {
                         }
                         
                     } else if (prevToken instanceof TCbegin) { // \begin{...}
+                        Environment env = new Environment(t.getText(), prevToken.getLine(),
+                                prevToken.getPos(), openEnvs.empty() ? null : openEnvs.peek());
+                        environments.add(env);
+                        openEnvs.push(env);
+                        
                         OutlineNode on = new OutlineNode(t.getText(),
                                 OutlineNode.TYPE_ENVIRONMENT,
                                 t.getLine(), prevToken.getPos(),
@@ -425,6 +463,8 @@ public class LatexParser {
                         }
                         
                     } else if (prevToken instanceof TCend) { // \end{...}
+                        endEnvironment(openEnvs, t.getText(), prevToken);
+                        
                         int endLine = t.getLine();
                         OutlineNode prev = null;
 
@@ -575,6 +615,11 @@ public class LatexParser {
                         lexer.registerCommand(currentCommand.key);
                         expectArg2 = true;
                     } else if (prevToken instanceof TCpackage) {
+                        for (String p : t.getText().split(",")) {
+                            if (p.trim().length() > 0) {
+                                packages.add(p.trim() + ".sty");
+                            }
+                        }
                         if (t.getText().equals("biblatex")) {
                             biblatexMode = true;
                             if (packageOptions != null) {
@@ -583,6 +628,8 @@ public class LatexParser {
                                 packageOptions = null;
                             }
                         }
+                    } else if (prevToken instanceof TCword) { // \documentclass{...}
+                        packages.add(t.getText().trim() + ".cls");
                     }
                     
                     // reset state to normal scanning
@@ -678,7 +725,9 @@ public class LatexParser {
                     expectArg2 = false;
                 }
             } else {
-                if (t instanceof TClabel || t instanceof TCref || t instanceof TCcite
+                if (t instanceof TWord) { // the common case
+                    TexWordContainer.countWords(t.getText(), words);
+                } else if (t instanceof TClabel || t instanceof TCref || t instanceof TCcite
                         || t instanceof TCbib || t instanceof TCbibstyle 
                         || t instanceof TCbegin || t instanceof TCend 
                         || t instanceof TCinput || t instanceof TCinclude
@@ -691,7 +740,10 @@ public class LatexParser {
                 } else if (t instanceof TCword) {
                     // macros (\newcommand) show up as TCword when used, so we need
                     // to check (for each word!) whether it happens to be a command
-                    if (sectioning.containsKey(t.getText())) {
+                    if ("\\documentclass".equals(t.getText())) {
+                        prevToken = t;
+                        expectArg = true;
+                    } else if (sectioning.containsKey(t.getText())) {
                         nodeType = sectioning.get(t.getText());
                         switch (nodeType) {
                         case OutlineNode.TYPE_PART:
@@ -842,6 +894,29 @@ public class LatexParser {
         return bibstyle;
     }
     
+    /**
+     * @return The file names of the used packages (.sty) and the
+     * document class (.cls)
+     */
+    public String[] getPackages() {
+        return this.packages.toArray(new String[0]);
+    }
+    
+    /**
+     * @return The words of the document text and their counts
+     */
+    public Map<String, Integer> getWords() {
+        return this.words;
+    }
+    
+    /**
+     * @return The environments of the document in the order of their
+     * \begin commands
+     */
+    public List<Environment> getEnvironments() {
+        return this.environments;
+    }
+    
     /**
      * @return The input commands in this document
      */
@@ -14,10 +14,13 @@ import java.io.IOException;
 import java.io.PushbackReader;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.eclipse.texlipse.model.ReferenceEntry;
 import org.eclipse.texlipse.model.TexCommandEntry;
+import org.eclipse.texlipse.model.TexWordContainer;
 import org.eclipse.texlipse.texparser.lexer.LexerException;
 import org.eclipse.texlipse.texparser.node.EOF;
 import org.eclipse.texlipse.texparser.node.TArgument;
@@ -28,9 +31,11 @@ import org.eclipse.texlipse.texparser.node.TCnew;
 import org.eclipse.texlipse.texparser.node.TCommentline;
 import org.eclipse.texlipse.texparser.node.TCpackage;
 import org.eclipse.texlipse.texparser.node.TCpindex;
+import org.eclipse.texlipse.texparser.node.TCword;
 import org.eclipse.texlipse.texparser.node.TOptargument;
 import org.eclipse.texlipse.texparser.node.TStar;
 import org.eclipse.texlipse.texparser.node.TWhitespace;
+import org.eclipse.texlipse.texparser.node.TWord;
 import org.eclipse.texlipse.texparser.node.Token;
 
 
@@ -45,6 +50,8 @@ public class LatexRefExtractingParser {
     private ArrayList<ReferenceEntry> labels;
     private ArrayList<TexCommandEntry> commands; //type: TexCommandEntry
     private List<String> bibs;
+    private List<String> packages;
+    private Map<String, Integer> words;
     private String bibstyle;
     private boolean biblatexMode;
     private String biblatexBackend;
@@ -72,6 +79,8 @@ public class LatexRefExtractingParser {
         this.labels = new ArrayList<ReferenceEntry>(100);
         this.commands = new ArrayList<TexCommandEntry>();
         this.bibs = new ArrayList<String>();
+        this.packages = new ArrayList<String>();
+        this.words = new HashMap<String, Integer>();
         this.biblatexMode = false;
         this.biblatexBackend = null;
         this.index = false;
@@ -154,6 +163,11 @@ public class LatexRefExtractingParser {
                             currentCommand.startLine = t.getLine();
                             expectArg2 = true;
                         } else if (prevToken instanceof TCpackage) {
+                            for (String p : t.getText().split(",")) {
+                                if (p.trim().length() > 0) {
+                                    packages.add(p.trim() + ".sty");
+                                }
+                            }
                             if (t.getText().equals("biblatex")) {
                                 biblatexMode = true;
                                 if (packageOptions != null) {
@@ -162,6 +176,8 @@ public class LatexRefExtractingParser {
                                     packageOptions = null;
                                 }
                             }
+                        } else if (prevToken instanceof TCword) { // \documentclass{...}
+                            packages.add(t.getText().trim() + ".cls");
                         }
                         prevToken = null;
                         expectArg = false;
@@ -198,8 +214,11 @@ public class LatexRefExtractingParser {
                         expectArg2 = false;
                     }
                 } else {
-                    if (t instanceof TClabel || t instanceof TCbib || t instanceof TCbibstyle
-                            || t instanceof TCnew || t instanceof TCpackage) {
+                    if (t instanceof TWord) {
+                        TexWordContainer.countWords(t.getText(), words);
+                    } else if (t instanceof TClabel || t instanceof TCbib || t instanceof TCbibstyle
+                            || t instanceof TCnew || t instanceof TCpackage
+                            || (t instanceof TCword && "\\documentclass".equals(t.getText()))) {
                         prevToken = t;
                         expectArg = true;
                     } else if (t instanceof TCpindex)
@@ -217,6 +236,18 @@ public class LatexRefExtractingParser {
     public String[] getBibs() {
         return bibs.toArray(new String[0]);
     }
+    /**
+     * @return Returns the file names of the used packages and document class.
+     */
+    public String[] getPackages() {
+        return packages.toArray(new String[0]);
+    }
+    /**
+     * @return Returns the words of the document text and their counts.
+     */
+    public Map<String, Integer> getWords() {
+        return words;
+    }
     /**
      * @return Returns the bibstyle.
      */
@@ -15,6 +15,7 @@ import java.io.PushbackReader;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.jface.text.IDocument;
@@ -24,6 +25,7 @@ import org.eclipse.texlipse.model.OutlineNode;
 import org.eclipse.texlipse.model.ParseErrorMessage;
 import org.eclipse.texlipse.model.ReferenceEntry;
 import org.eclipse.texlipse.model.TexCommandEntry;
+import org.eclipse.texlipse.model.TexEnvironmentIndex;
 import org.eclipse.texlipse.texparser.lexer.LexerException;
 
 
@@ -44,6 +46,8 @@ public class TexParser {
     private List<ParseErrorMessage> errors;
     private boolean fatalErrors;
     
+    private TexEnvironmentIndex environmentIndex;
+    
     private String preamble;
 
     /**
@@ -160,7 +164,9 @@ public class TexParser {
             }
             this.errors = lparser.getErrors();
             this.fatalErrors = lparser.isFatalErrors();
+            this.environmentIndex = new TexEnvironmentIndex(lparser.getEnvironments(), input);
         } catch (LexerException e) {
+            this.environmentIndex = null;
             // we must parse the lexer exception into a suitable format
             String msg = e.getMessage();
             int first = msg.indexOf('[');
@@ -177,6 +183,14 @@ public class TexParser {
         }
     }
 
+    /**
+     * @return The environments of the parsed document, or null if the
+     * document could not be tokenized
+     */
+    public TexEnvironmentIndex getEnvironmentIndex() {
+        return environmentIndex;
+    }
+
     /**
      * @return The outline tree
      */
@@ -218,6 +232,20 @@ public class TexParser {
     	return lparser.getBibs();
     }
     
+    /**
+     * @return The file names of the used packages and the document class
+     */
+    public String[] getPackages() {
+        return lparser.getPackages();
+    }
+    
+    /**
+     * @return The words of the document text and their counts
+     */
+    public Map<String, Integer> getWords() {
+        return lparser.getWords();
+    }
+    
     /**
      * @return The style of the bibiliography entries
      */